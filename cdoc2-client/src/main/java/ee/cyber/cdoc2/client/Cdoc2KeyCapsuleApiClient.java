@@ -12,7 +12,6 @@ import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Objects;
@@ -200,10 +199,11 @@ public final class Cdoc2KeyCapsuleApiClient {
                 trustManagerFactory.init(trustKeyStore);
 
                 sslContext = SSLContext.getInstance("TLSv1.3");
+                // default SecureRandom, SecureRandom.getInstanceStrong() may block while waiting for entropy
                 sslContext.init(
                     getClientKeyManager().orElse(null),
                     trustManagerFactory.getTrustManagers(),
-                    SecureRandom.getInstanceStrong()
+                    null
                 );
             } catch (GeneralSecurityException gse) {
                 log.error("Error initializing SSLContext", gse);
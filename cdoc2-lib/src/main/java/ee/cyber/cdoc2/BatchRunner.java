@@ -0,0 +1,91 @@
+package ee.cyber.cdoc2;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+
+/**
+ * Runs batch jobs on a bounded worker pool, used by {@link CDocBatchEncrypter} and {@link CDocBatchDecrypter}.
+ * Jobs are consumed lazily from the job stream, at most {@link #setParallelism(int) parallelism} jobs are in
+ * progress at the same time.
+ */
+final class BatchRunner {
+
+    private ExecutorService executor;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Executor where jobs are run. Executor is not shut down by batch runner. If not set, fixed thread pool of
+     * {@code parallelism} threads is created for each batch.
+     * @param jobExecutor executor for jobs
+     */
+    void setExecutor(ExecutorService jobExecutor) {
+        this.executor = Objects.requireNonNull(jobExecutor);
+    }
+
+    /**
+     * @param maxJobs max jobs in progress, positive
+     */
+    void setParallelism(int maxJobs) {
+        if (maxJobs < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + maxJobs);
+        }
+        this.parallelism = maxJobs;
+    }
+
+    /**
+     * Run all jobs and wait until they have finished
+     * @param jobs jobs, consumed lazily
+     * @param jobRunner runs single job, must not throw
+     * @param resultConsumer called from worker threads when job has finished, must be thread-safe
+     * @param <J> job type
+     * @param <R> job result type
+     * @throws InterruptedException if interrupted while waiting for jobs to finish
+     */
+    <J, R> void run(Stream<J> jobs, Function<J, R> jobRunner, Consumer<R> resultConsumer)
+        throws InterruptedException {
+
+        Objects.requireNonNull(jobs);
+        Objects.requireNonNull(jobRunner);
+        Objects.requireNonNull(resultConsumer);
+
+        boolean ownExecutor = (executor == null);
+        ExecutorService jobExecutor = ownExecutor ? Executors.newFixedThreadPool(parallelism) : executor;
+        int maxJobs = parallelism;
+        Semaphore inProgress = new Semaphore(maxJobs);
+
+        try {
+            Iterator<J> it = jobs.iterator();
+            while (it.hasNext()) {
+                J job = it.next();
+                inProgress.acquire();
+                try {
+                    jobExecutor.execute(() -> {
+                        try {
+                            resultConsumer.accept(jobRunner.apply(job));
+                        } finally {
+                            inProgress.release();
+                        }
+                    });
+                } catch (RuntimeException ex) { // RejectedExecutionException
+                    inProgress.release();
+                    throw ex;
+                }
+            }
+
+            // wait for all jobs to finish
+            inProgress.acquire(maxJobs);
+            inProgress.release(maxJobs);
+        } finally {
+            if (ownExecutor) {
+                jobExecutor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ee.cyber.cdoc2;
+
+import ee.cyber.cdoc2.client.KeyCapsuleClientFactory;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.ExtractOptions;
+import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Decrypts many CDOC2 containers with the same decryption key material on a bounded worker pool. Jobs are
+ * consumed lazily from the job stream, at most {@link #withParallelism(int) parallelism} jobs are in progress at
+ * the same time. Failure of a single job doesn't stop the batch, it is reported in {@link JobResult}.
+ * <p>
+ * Decryption key material is shared by all worker threads. Key material backed by a smart-card (PKCS#11) should
+ * be used with parallelism 1.
+ */
+public class CDocBatchDecrypter {
+    private static final Logger log = LoggerFactory.getLogger(CDocBatchDecrypter.class);
+
+    /**
+     * Decryption job
+     * @param cDocFile CDOC2 container to decrypt
+     * @param destinationDirectory directory where decrypted files are written
+     */
+    public record Job(File cDocFile, File destinationDirectory) {
+        public Job {
+            Objects.requireNonNull(cDocFile);
+            Objects.requireNonNull(destinationDirectory);
+        }
+    }
+
+    /**
+     * Result of single decryption job
+     * @param job decryption job
+     * @param files files decrypted, empty when job has failed
+     * @param error exception that caused job to fail, null when job succeeded
+     * @param duration time spent on the job
+     */
+    public record JobResult(Job job, List<String> files, @Nullable Exception error, Duration duration) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Aggregated batch statistics
+     * @param succeeded number of containers decrypted
+     * @param failed number of failed jobs
+     * @param filesDecrypted number of files decrypted from all containers
+     * @param bytesProcessed total size of containers decrypted successfully
+     * @param elapsed wall-clock time of the batch
+     */
+    public record BatchStats(int succeeded, int failed, long filesDecrypted, long bytesProcessed,
+                             Duration elapsed) {
+
+        /**
+         * @return containers decrypted per second
+         */
+        public double containersPerSecond() {
+            return elapsed.isZero() ? 0 : succeeded * 1_000_000_000.0 / elapsed.toNanos();
+        }
+    }
+
+    /**
+     * Per job results and aggregated statistics
+     * @param results results in completion order
+     * @param stats aggregated statistics
+     */
+    public record BatchResult(List<JobResult> results, BatchStats stats) {
+    }
+
+    private DecryptionKeyMaterial recipientKeyMaterial;
+    private KeyCapsuleClientFactory keyServerClientFactory;
+    private ExtractOptions extractOptions = new ExtractOptions();
+    private final BatchRunner batchRunner = new BatchRunner();
+
+    public CDocBatchDecrypter withRecipient(DecryptionKeyMaterial decryptionKeyMaterial) {
+        this.recipientKeyMaterial = decryptionKeyMaterial;
+        return this;
+    }
+
+    public CDocBatchDecrypter withKeyServers(KeyCapsuleClientFactory clientFactory) {
+        this.keyServerClientFactory = clientFactory;
+        return this;
+    }
+
+    /**
+     * Options for writing decrypted files, shared by all jobs
+     * @param options extract options
+     * @return this CDocBatchDecrypter
+     */
+    public CDocBatchDecrypter withExtractOptions(ExtractOptions options) {
+        this.extractOptions = Objects.requireNonNull(options);
+        return this;
+    }
+
+    /**
+     * Executor where jobs are run, for example {@code Executors.newVirtualThreadPerTaskExecutor()} on Java 21+.
+     * Executor is not shut down by batch decrypter. If not set, fixed thread pool of {@code parallelism} threads
+     * is created for each batch.
+     * @param jobExecutor executor for decryption jobs
+     * @return this CDocBatchDecrypter
+     */
+    public CDocBatchDecrypter withExecutor(ExecutorService jobExecutor) {
+        batchRunner.setExecutor(jobExecutor);
+        return this;
+    }
+
+    /**
+     * Max number of containers decrypted at the same time. Default is number of available processors.
+     * @param maxJobs max jobs in progress, positive
+     * @return this CDocBatchDecrypter
+     */
+    public CDocBatchDecrypter withParallelism(int maxJobs) {
+        batchRunner.setParallelism(maxJobs);
+        return this;
+    }
+
+    /**
+     * Decrypt all jobs and collect results
+     * @param jobs decryption jobs
+     * @return per job results and aggregated statistics
+     * @throws CDocValidationException if decryption key material is not provided
+     * @throws InterruptedException if interrupted while waiting for jobs to finish
+     */
+    public BatchResult decrypt(Stream<Job> jobs) throws CDocValidationException, InterruptedException {
+        List<JobResult> results = Collections.synchronizedList(new ArrayList<>());
+        BatchStats stats = decrypt(jobs, results::add);
+        return new BatchResult(List.copyOf(results), stats);
+    }
+
+    /**
+     * Decrypt all jobs and report each job result to resultConsumer, without collecting results
+     * @param jobs decryption jobs, consumed lazily
+     * @param resultConsumer called from worker threads when job has finished, must be thread-safe
+     * @return aggregated statistics
+     * @throws CDocValidationException if decryption key material is not provided
+     * @throws InterruptedException if interrupted while waiting for jobs to finish
+     */
+    public BatchStats decrypt(Stream<Job> jobs, Consumer<JobResult> resultConsumer)
+        throws CDocValidationException, InterruptedException {
+
+        Objects.requireNonNull(jobs);
+        Objects.requireNonNull(resultConsumer);
+        if (recipientKeyMaterial == null) {
+            throw new CDocValidationException("Must provide decryption key material");
+        }
+
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong filesDecrypted = new AtomicLong();
+        AtomicLong bytesProcessed = new AtomicLong();
+
+        long start = System.nanoTime();
+        batchRunner.run(jobs, this::runJob, result -> {
+            if (result.isSuccess()) {
+                succeeded.incrementAndGet();
+                filesDecrypted.addAndGet(result.files().size());
+                bytesProcessed.addAndGet(result.job().cDocFile().length());
+            } else {
+                failed.incrementAndGet();
+            }
+            resultConsumer.accept(result);
+        });
+
+        BatchStats stats = new BatchStats(succeeded.get(), failed.get(), filesDecrypted.get(),
+            bytesProcessed.get(), Duration.ofNanos(System.nanoTime() - start));
+        log.info("Decrypted {} containers ({} failed) in {}", stats.succeeded(), stats.failed(), stats.elapsed());
+        return stats;
+    }
+
+    private JobResult runJob(Job job) {
+        long start = System.nanoTime();
+        try {
+            // destination directory is validated by Envelope.decrypt for each container
+            List<String> files;
+            try (FileChannel cDocChannel = FileChannel.open(job.cDocFile().toPath(), StandardOpenOption.READ)) {
+                files = Envelope.decrypt(cDocChannel, recipientKeyMaterial, job.destinationDirectory().toPath(), null,
+                    keyServerClientFactory, extractOptions);
+            }
+            return new JobResult(job, files, null, Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception ex) {
+            log.info("Failed to decrypt {}: {}", job.cDocFile(), ex.toString());
+            return new JobResult(job, List.of(), ex, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package ee.cyber.cdoc2;
+
+import ee.cyber.cdoc2.client.KeyCapsuleClient;
+import ee.cyber.cdoc2.client.KeyCapsuleClientImpl;
+import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.PayloadOptions;
+import ee.cyber.cdoc2.container.recipients.ValidatedRecipientKeys;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Creates many CDOC2 containers for the same recipients on a bounded worker pool. Recipient keys are validated and
+ * key server client is created once per batch. Each container gets its own file master key (FMK) and sender key
+ * pairs. Key server capsule uploads of different containers run in parallel with encryption of other containers.
+ * <p>
+ * Jobs are consumed lazily from the job stream, at most {@link #withParallelism(int) parallelism} jobs are in
+ * progress at the same time. Failure of a single job doesn't stop the batch, it is reported in {@link JobResult}.
+ */
+public class CDocBatchEncrypter {
+    private static final Logger log = LoggerFactory.getLogger(CDocBatchEncrypter.class);
+
+    /**
+     * Encryption job
+     * @param payloadFiles files to encrypt
+     * @param outputCDocFile CDOC2 container to create
+     */
+    public record Job(List<File> payloadFiles, File outputCDocFile) {
+        public Job {
+            Objects.requireNonNull(payloadFiles);
+            Objects.requireNonNull(outputCDocFile);
+        }
+    }
+
+    /**
+     * Result of single encryption job
+     * @param job encryption job
+     * @param error exception that caused job to fail, null when job succeeded
+     * @param duration time spent on the job
+     */
+    public record JobResult(Job job, @Nullable Exception error, Duration duration) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Aggregated batch statistics
+     * @param succeeded number of containers created
+     * @param failed number of failed jobs
+     * @param bytesWritten total size of containers created
+     * @param elapsed wall-clock time of the batch
+     */
+    public record BatchStats(int succeeded, int failed, long bytesWritten, Duration elapsed) {
+
+        /**
+         * @return containers created per second
+         */
+        public double containersPerSecond() {
+            return elapsed.isZero() ? 0 : succeeded * 1_000_000_000.0 / elapsed.toNanos();
+        }
+    }
+
+    /**
+     * Per job results and aggregated statistics
+     * @param results results in completion order
+     * @param stats aggregated statistics
+     */
+    public record BatchResult(List<JobResult> results, BatchStats stats) {
+    }
+
+    private final List<EncryptionKeyMaterial> recipients = new LinkedList<>();
+    private Duration keyCapsuleExpiryDuration;
+    private Properties serverProperties;
+    private PayloadOptions payloadOptions = new PayloadOptions();
+    private final BatchRunner batchRunner = new BatchRunner();
+
+    public CDocBatchEncrypter withRecipients(List<EncryptionKeyMaterial> recipientsEncKM) {
+        this.recipients.addAll(recipientsEncKM);
+        return this;
+    }
+
+    public CDocBatchEncrypter withCapsuleExpiryDuration(Duration xExpiryDuration) {
+        this.keyCapsuleExpiryDuration = xExpiryDuration;
+        return this;
+    }
+
+    public CDocBatchEncrypter withServerProperties(Properties p) {
+        this.serverProperties = p;
+        return this;
+    }
+
+    /**
+     * Payload creation options, shared by all containers
+     * @param options payload options
+     * @return this CDocBatchEncrypter
+     */
+    public CDocBatchEncrypter withPayloadOptions(PayloadOptions options) {
+        this.payloadOptions = Objects.requireNonNull(options);
+        return this;
+    }
+
+    /**
+     * Executor where jobs are run, for example {@code Executors.newVirtualThreadPerTaskExecutor()} on Java 21+.
+     * Executor is not shut down by batch encrypter. If not set, fixed thread pool of {@code parallelism} threads
+     * is created for each batch.
+     * @param jobExecutor executor for encryption jobs
+     * @return this CDocBatchEncrypter
+     */
+    public CDocBatchEncrypter withExecutor(ExecutorService jobExecutor) {
+        batchRunner.setExecutor(jobExecutor);
+        return this;
+    }
+
+    /**
+     * Max number of containers created at the same time. Default is number of available processors.
+     * @param maxJobs max jobs in progress, positive
+     * @return this CDocBatchEncrypter
+     */
+    public CDocBatchEncrypter withParallelism(int maxJobs) {
+        batchRunner.setParallelism(maxJobs);
+        return this;
+    }
+
+    /**
+     * Create containers for all jobs and collect results
+     * @param jobs encryption jobs
+     * @return per job results and aggregated statistics
+     * @throws CDocValidationException if recipients are not valid
+     * @throws CDocException if key server client creation has failed
+     * @throws InterruptedException if interrupted while waiting for jobs to finish
+     */
+    public BatchResult encrypt(Stream<Job> jobs)
+        throws CDocValidationException, CDocException, InterruptedException {
+
+        List<JobResult> results = Collections.synchronizedList(new ArrayList<>());
+        BatchStats stats = encrypt(jobs, results::add);
+        return new BatchResult(List.copyOf(results), stats);
+    }
+
+    /**
+     * Create containers for all jobs and report each job result to resultConsumer, without collecting results
+     * @param jobs encryption jobs, consumed lazily
+     * @param resultConsumer called from worker threads when job has finished, must be thread-safe
+     * @return aggregated statistics
+     * @throws CDocValidationException if recipients are not valid
+     * @throws CDocException if key server client creation has failed
+     * @throws InterruptedException if interrupted while waiting for jobs to finish
+     */
+    public BatchStats encrypt(Stream<Job> jobs, Consumer<JobResult> resultConsumer)
+        throws CDocValidationException, CDocException, InterruptedException {
+
+        Objects.requireNonNull(jobs);
+        Objects.requireNonNull(resultConsumer);
+
+        // validate and prepare recipients once for all containers
+        ValidatedRecipientKeys validatedKeys;
+        try {
+            validatedKeys = ValidatedRecipientKeys.validate(recipients);
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
+            throw new CDocValidationException("Invalid recipients", ex);
+        }
+
+        KeyCapsuleClient capsuleClient;
+        try {
+            capsuleClient = createCapsuleClient();
+        } catch (Exception ex) {
+            throw new CDocException("Failed to create key server client", ex);
+        }
+
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong bytesWritten = new AtomicLong();
+
+        long start = System.nanoTime();
+        batchRunner.run(jobs, job -> runJob(job, validatedKeys, capsuleClient), result -> {
+            if (result.isSuccess()) {
+                succeeded.incrementAndGet();
+                bytesWritten.addAndGet(result.job().outputCDocFile().length());
+            } else {
+                failed.incrementAndGet();
+            }
+            resultConsumer.accept(result);
+        });
+
+        BatchStats stats = new BatchStats(succeeded.get(), failed.get(), bytesWritten.get(),
+            Duration.ofNanos(System.nanoTime() - start));
+        log.info("Created {} containers ({} failed) in {}", stats.succeeded(), stats.failed(), stats.elapsed());
+        return stats;
+    }
+
+    @Nullable
+    private KeyCapsuleClient createCapsuleClient() throws Exception {
+        if (serverProperties == null) {
+            return null;
+        }
+
+        // for encryption, do not init mTLS client as this might require smart-card
+        KeyCapsuleClient client = KeyCapsuleClientImpl.create(serverProperties, false);
+        if (keyCapsuleExpiryDuration != null) {
+            client.setExpiryDuration(keyCapsuleExpiryDuration);
+        }
+        return client;
+    }
+
+    private JobResult runJob(Job job, ValidatedRecipientKeys validatedKeys,
+                             @Nullable KeyCapsuleClient capsuleClient) {
+        long start = System.nanoTime();
+        File outputCDocFile = job.outputCDocFile();
+        boolean created = false;
+        try {
+            if (job.payloadFiles().isEmpty()) {
+                throw new CDocValidationException("Must contain at least one payload file");
+            }
+
+            StandardOpenOption openOption = CDocConfiguration.isOverWriteAllowed()
+                ? StandardOpenOption.CREATE
+                : StandardOpenOption.CREATE_NEW;
+            try (OutputStream os = Files.newOutputStream(outputCDocFile.toPath(), openOption)) {
+                created = true;
+                // each container gets its own FMK and sender keys
+                Envelope.prepare(validatedKeys, capsuleClient, payloadOptions).encrypt(job.payloadFiles(), os);
+            }
+            return new JobResult(job, null, Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception ex) {
+            log.info("Failed to create {}: {}", outputCDocFile, ex.toString());
+            if (created) {
+                deleteQuietly(outputCDocFile);
+            }
+            return new JobResult(job, ex, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ex) {
+            log.error("Error when deleting {} {}", file, ex);
+        }
+    }
+}
@@ -4,14 +4,11 @@ import ee.cyber.cdoc2.client.ExtApiException;
 import ee.cyber.cdoc2.client.KeyCapsuleClient;
 import ee.cyber.cdoc2.client.KeyCapsuleClientImpl;
 import ee.cyber.cdoc2.container.Envelope;
-import ee.cyber.cdoc2.crypto.Crypto;
-import ee.cyber.cdoc2.crypto.ECKeys;
-import ee.cyber.cdoc2.crypto.EllipticCurve;
-import ee.cyber.cdoc2.crypto.EncryptionKeyOrigin;
-import ee.cyber.cdoc2.crypto.KeyAlgorithm;
+import ee.cyber.cdoc2.container.FileNameValidator;
+import ee.cyber.cdoc2.container.PayloadEntry;
+import ee.cyber.cdoc2.container.PayloadOptions;
+import ee.cyber.cdoc2.container.recipients.ValidatedRecipientKeys;
 import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
-import ee.cyber.cdoc2.crypto.keymaterial.encrypt.PublicKeyEncryptionKeyMaterial;
-import ee.cyber.cdoc2.crypto.keymaterial.encrypt.SecretEncryptionKeyMaterial;
 
 import java.io.File;
 import java.io.IOException;
@@ -20,18 +17,12 @@ import java.io.OutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.SecretKey;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.security.interfaces.ECPublicKey;
-import java.security.interfaces.RSAPublicKey;
 import java.time.Duration;
-import java.util.Base64;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
@@ -44,15 +35,28 @@ public class CDocBuilder {
     private static final Logger log = LoggerFactory.getLogger(CDocBuilder.class);
 
     private List<File> payloadFiles;
+    private List<PayloadEntry> payloadEntries;
     private final List<EncryptionKeyMaterial> recipients = new LinkedList<>();
     private Duration keyCapsuleExpiryDuration;
     private Properties serverProperties;
+    private PayloadOptions payloadOptions = new PayloadOptions();
 
     public CDocBuilder withPayloadFiles(List<File> files) {
         this.payloadFiles = files;
         return this;
     }
 
+    /**
+     * Payload entries streamed from InputStreams, instead of payload files. Temporary files are not created.
+     * Can't be used together with {@link #withPayloadFiles(List)}.
+     * @param entries payload entries
+     * @return this CDocBuilder
+     */
+    public CDocBuilder withPayloadEntries(List<PayloadEntry> entries) {
+        this.payloadEntries = entries;
+        return this;
+    }
+
     public CDocBuilder withRecipient(EncryptionKeyMaterial recipientEncKM) {
         this.recipients.add(recipientEncKM);
         return this;
@@ -73,6 +77,17 @@ public class CDocBuilder {
         return this;
     }
 
+    /**
+     * Payload creation options, e.g. segmented (parallel) payload encryption. If not set, payload is encrypted
+     * as single ChaCha20-Poly1305 stream.
+     * @param options payload options
+     * @return this CDocBuilder
+     */
+    public CDocBuilder withPayloadOptions(PayloadOptions options) {
+        this.payloadOptions = options;
+        return this;
+    }
+
     public void buildToFile(File outputCDocFile)
         throws CDocException, IOException, CDocValidationException {
 
@@ -84,20 +99,31 @@ public class CDocBuilder {
         OpenOption openOption = getOpenOption();
 
         try (OutputStream outputStream = Files.newOutputStream(outputCDocFile.toPath(), openOption)) {
-            buildToOutputStreamFromFiles(outputStream);
+            buildToOutputStream(outputStream);
         } catch (Exception ex) {
             handleFileEncryptionError(ex, outputCDocFile);
             throw ex;
         }
     }
 
-    private void buildToOutputStreamFromFiles(OutputStream outputStream)
+    /**
+     * Build CDOC2 container from payload files or payload entries and write it to outputStream
+     * @param outputStream OutputStream to write CDOC2 container
+     * @throws CDocException if encryption has failed
+     * @throws CDocValidationException if builder parameters are not valid
+     * @throws IOException if an I/O error has occurred
+     */
+    public void buildToOutputStream(OutputStream outputStream)
         throws CDocException, CDocValidationException, IOException {
         validate();
 
         try {
             Envelope envelope = prepareEnvelope();
-            envelope.encrypt(this.payloadFiles, outputStream);
+            if (this.payloadEntries != null) {
+                envelope.encryptEntries(this.payloadEntries, outputStream);
+            } else {
+                envelope.encrypt(this.payloadFiles, outputStream);
+            }
         } catch (GeneralSecurityException ex) {
             throw new CDocException(ex);
         }
@@ -120,7 +146,7 @@ public class CDocBuilder {
         throws ExtApiException, GeneralSecurityException, IOException {
 
         if (serverProperties == null) {
-            return Envelope.prepare(recipients, null);
+            return Envelope.prepare(recipients, null, payloadOptions);
         } else {
             // for encryption, do not init mTLS client as this might require smart-card
            KeyCapsuleClient client = KeyCapsuleClientImpl.create(serverProperties, false);
@@ -129,7 +155,8 @@ public class CDocBuilder {
            }
             return Envelope.prepare(
                 recipients,
-                client
+                client,
+                payloadOptions
             );
         }
     }
@@ -150,7 +177,11 @@ public class CDocBuilder {
 
     public void validate() throws CDocValidationException {
         validateRecipients();
-        validatePayloadFiles();
+        if (payloadEntries != null) {
+            validatePayloadEntries();
+        } else {
+            validatePayloadFiles();
+        }
     }
 
     void validateRecipients() throws CDocValidationException {
@@ -158,88 +189,11 @@ public class CDocBuilder {
             throw new CDocValidationException("Must provide at least one recipient");
         }
 
-        for (EncryptionKeyMaterial keyMaterial : this.recipients) {
-            validateEncryptionKey(keyMaterial);
-        }
-    }
-
-    private void validateEncryptionKey(EncryptionKeyMaterial keyMaterial)
-        throws CDocValidationException {
-
-        if (EncryptionKeyOrigin.PASSWORD.equals(keyMaterial.getKeyOrigin())) {
-            // no encryption key at this step
-            return;
-        }
-
-        if (keyMaterial instanceof PublicKeyEncryptionKeyMaterial publicKeyMaterial) {
-            validatePublicKeyMaterial(publicKeyMaterial);
-        } else if (keyMaterial instanceof SecretEncryptionKeyMaterial secretKeyMaterial) {
-            SecretKey secretKey = secretKeyMaterial.getSecretKey();
-            if ((secretKey.getEncoded() == null)
-                || (secretKey.getEncoded().length < Crypto.SYMMETRIC_KEY_MIN_LEN_BYTES)) {
-                throw new CDocValidationException("Too short key for label: " + secretKeyMaterial.getLabel());
-            }
-        } else {
-            String errorMsg = "Unsupported key " + keyMaterial.getLabel();
-            log.error(errorMsg);
-            throw new CDocValidationException(errorMsg);
-        }
-    }
-
-    private void validatePublicKeyMaterial(PublicKeyEncryptionKeyMaterial publicKeyMaterial)
-        throws CDocValidationException {
-
-        PublicKey publicKey = publicKeyMaterial.getPublicKey();
-        if (KeyAlgorithm.isEcKeysAlgorithm(publicKey.getAlgorithm())) {
-            validateEcPublicKey((ECPublicKey) publicKey);
-        } else if (KeyAlgorithm.isRsaKeysAlgorithm(publicKey.getAlgorithm())) {
-            validateRsaPublicKey((RSAPublicKey) publicKey);
-        } else {
-            String errorMsg = ("Unsupported public key algorithm "
-                + publicKey.getAlgorithm() + "for key " + publicKeyMaterial.getLabel());
-            log.error(errorMsg);
-            throw new CDocValidationException(errorMsg);
-        }
-    }
-
-    /**
-     * All RSA keys are considered good. Shorter will fail during encryption as OAEP takes some
-     * space.
-     */
-    private void validateRsaPublicKey(RSAPublicKey rsaPublicKey) throws CDocValidationException {
-        // no good way to check RSA key length as BigInteger can start with 00 and that changes bit-length
-        if (rsaPublicKey.getModulus().bitLength() <= 512) {
-            throw new CDocValidationException("RSA key does not meet length requirements");
-        }
-    }
-
-    private void validateEcPublicKey(ECPublicKey ecPubKey) throws CDocValidationException {
-        String encoded = Base64.getEncoder().encodeToString(ecPubKey.getEncoded());
         try {
-            EllipticCurve curve = retrieveEllipticCurve(ecPubKey, encoded);
-
-            if (!curve.isValidKey(ecPubKey)) {
-                log.error("EC pub key is not valid for curve {}. EC public key={}",
-                    curve.getName(), encoded);
-                throw new CDocValidationException("Recipient key not valid");
-            }
+            ValidatedRecipientKeys.validate(this.recipients);
         } catch (GeneralSecurityException gse) {
-            throw new CDocValidationException("Invalid recipient " + encoded, gse);
-        }
-    }
-
-    private EllipticCurve retrieveEllipticCurve(
-        ECPublicKey recipientPubKey,
-        String encodedPublicKey
-    ) throws GeneralSecurityException, CDocValidationException {
-        String curveOid = ECKeys.getCurveOid(recipientPubKey);
-
-        try {
-            return EllipticCurve.forOid(curveOid);
-        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
-            log.error("EC pub key curve ({}) is not supported. EC public key={}",
-                curveOid, encodedPublicKey);
-            throw new CDocValidationException("Invalid recipient key with key " + curveOid);
+            log.error("Invalid recipient: {}", gse.getMessage());
+            throw new CDocValidationException("Invalid recipient: " + gse.getMessage(), gse);
         }
     }
 
@@ -257,4 +211,20 @@ public class CDocBuilder {
         }
     }
 
+    void validatePayloadEntries() throws CDocValidationException {
+        if (payloadFiles != null) {
+            throw new CDocValidationException("Payload files and payload entries can't be used together");
+        }
+        if (payloadEntries.isEmpty()) {
+            log.error("Must contain at least one payload entry");
+            throw new CDocValidationException("Must contain at least one payload entry");
+        }
+
+        try {
+            FileNameValidator.ensureNoNameDuplicates(payloadEntries.stream().map(PayloadEntry::getName).toList());
+        } catch (IllegalArgumentException ex) {
+            throw new CDocValidationException(ex.getMessage(), ex);
+        }
+    }
+
 }
@@ -1,5 +1,7 @@
 package ee.cyber.cdoc2;
 
+import java.time.Duration;
+
 
 public final class CDocConfiguration {
 
@@ -35,6 +37,34 @@ public final class CDocConfiguration {
 
     public static final String DISK_USAGE_THRESHOLD_PROPERTY = "ee.cyber.cdoc2.maxDiskUsagePercentage";
 
+    /** Max bytes extracted between disk usage checks */
+    public static final String DISK_USAGE_PROBE_INTERVAL_PROPERTY = "ee.cyber.cdoc2.diskUsageProbeIntervalBytes";
+
+    /** Buffer size in bytes for tar, deflate and cipher streams used for payload processing */
+    public static final String BUFFER_SIZE_PROPERTY = "ee.cyber.cdoc2.bufferSize";
+
+    /** Max number of cached password derived (PBKDF2) keys, 0 disables password key cache */
+    public static final String PASSWORD_KEY_CACHE_SIZE_PROPERTY = "ee.cyber.cdoc2.passwordKeyCacheSize";
+    // disabled by default
+    public static final int DEFAULT_PASSWORD_KEY_CACHE_SIZE = 0;
+
+    /** Time-to-live of cached password derived key in seconds */
+    public static final String PASSWORD_KEY_CACHE_TTL_PROPERTY = "ee.cyber.cdoc2.passwordKeyCacheTtlSeconds";
+    public static final long DEFAULT_PASSWORD_KEY_CACHE_TTL_SECONDS = 300;
+
+    /** Number of SecureRandom (DRBG) instances shared by threads, default is number of available processors */
+    public static final String SECURE_RANDOM_STRIPES_PROPERTY = "ee.cyber.cdoc2.secureRandomStripes";
+
+    /**
+     * SecureRandom (DRBG) reseed policy, {@link java.security.DrbgParameters.Capability} name:
+     * PR_AND_RESEED (default), RESEED_ONLY or NONE
+     */
+    public static final String SECURE_RANDOM_CAPABILITY_PROPERTY = "ee.cyber.cdoc2.secureRandomCapability";
+
+    /** Max number of cached recipient public key validation results and encodings, 0 disables the cache */
+    public static final String RECIPIENT_KEY_CACHE_SIZE_PROPERTY = "ee.cyber.cdoc2.recipientKeyCacheSize";
+    public static final int DEFAULT_RECIPIENT_KEY_CACHE_SIZE = 1024;
+
     public static boolean isOverWriteAllowed() {
         return parseBooleanProperty(DEFAULT_OVERWRITE, OVERWRITE_PROPERTY);
     }
@@ -47,6 +77,19 @@ public final class CDocConfiguration {
         return parseBooleanProperty(DEFAULT_KEY_LABEL_FILE_NAME_ADDED, KEY_LABEL_FILE_NAME_PROPERTY);
     }
 
+    public static int getPasswordKeyCacheSize() {
+        return Integer.getInteger(PASSWORD_KEY_CACHE_SIZE_PROPERTY, DEFAULT_PASSWORD_KEY_CACHE_SIZE);
+    }
+
+    public static Duration getPasswordKeyCacheTtl() {
+        long seconds = Long.getLong(PASSWORD_KEY_CACHE_TTL_PROPERTY, DEFAULT_PASSWORD_KEY_CACHE_TTL_SECONDS);
+        return Duration.ofSeconds(seconds);
+    }
+
+    public static int getRecipientKeyCacheSize() {
+        return Integer.getInteger(RECIPIENT_KEY_CACHE_SIZE_PROPERTY, DEFAULT_RECIPIENT_KEY_CACHE_SIZE);
+    }
+
     private static boolean parseBooleanProperty(boolean enabled, String propertyName) {
         boolean isEnabled = enabled;
         if (System.getProperties().containsKey(propertyName)) {
@@ -3,14 +3,18 @@ package ee.cyber.cdoc2;
 import ee.cyber.cdoc2.client.KeyCapsuleClientFactory;
 import ee.cyber.cdoc2.container.CDocParseException;
 import ee.cyber.cdoc2.container.Envelope;
+import ee.cyber.cdoc2.container.ExtractOptions;
 import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.util.List;
+import java.util.Objects;
 
 
 /**
@@ -19,11 +23,11 @@ import java.util.List;
 public class CDocDecrypter {
 
     private DecryptionKeyMaterial recipientKeyMaterial;
-    private InputStream cDocInputStream;
     private File destinationDirectory;
     private File cDocFile;
     private List<String> filesToExtract;
     private KeyCapsuleClientFactory keyServerClientFactory;
+    private ExtractOptions extractOptions = new ExtractOptions();
 
     @SuppressWarnings("checkstyle:HiddenField")
     public CDocDecrypter withRecipient(KeyPair recipientKeyPair) {
@@ -38,8 +42,10 @@ public class CDocDecrypter {
 
     @SuppressWarnings("checkstyle:HiddenField")
     public CDocDecrypter withCDoc(File cDocFile) throws FileNotFoundException {
+        if (!cDocFile.isFile() || !cDocFile.canRead()) {
+            throw new FileNotFoundException(cDocFile + " is not a readable file");
+        }
         this.cDocFile = cDocFile;
-        this.cDocInputStream = new FileInputStream(cDocFile);
         return this;
     }
 
@@ -60,17 +66,25 @@ public class CDocDecrypter {
         return this;
     }
 
+    /**
+     * Options for writing decrypted files, for example preallocation and fsync policy, and for reading CDOC file
+     * ({@link ExtractOptions#withMemoryMapping(boolean)})
+     * @param options extract options
+     * @return this CDocDecrypter
+     */
+    public CDocDecrypter withExtractOptions(ExtractOptions options) {
+        this.extractOptions = Objects.requireNonNull(options);
+        return this;
+    }
+
     public List<String> decrypt() throws IOException, CDocException, CDocValidationException {
         validate(true);
 
-        try {
-            if ((filesToExtract == null) || (filesToExtract.isEmpty())) {
-                return Envelope.decrypt(cDocInputStream, recipientKeyMaterial, destinationDirectory.toPath(),
-                        keyServerClientFactory);
-            } else {
-                return Envelope.decrypt(cDocInputStream, recipientKeyMaterial, destinationDirectory.toPath(),
-                        filesToExtract, keyServerClientFactory);
-            }
+        // file channel allows extracting only requested files, when CDOC has payload entry index. Container is
+        // read as stream, unless memory mapping is enabled in extractOptions
+        try (FileChannel cDocChannel = FileChannel.open(cDocFile.toPath(), StandardOpenOption.READ)) {
+            return Envelope.decrypt(cDocChannel, recipientKeyMaterial, destinationDirectory.toPath(),
+                filesToExtract, keyServerClientFactory, extractOptions);
         } catch (GeneralSecurityException | CDocParseException ex) {
             throw logDecryptionErrorAndThrow(ex);
         }
@@ -82,7 +96,7 @@ public class CDocDecrypter {
      */
     public List<ArchiveEntry> list() throws IOException, CDocException, CDocValidationException {
         validate(false);
-        try {
+        try (InputStream cDocInputStream = new FileInputStream(cDocFile)) {
             return Envelope.list(cDocInputStream, recipientKeyMaterial, keyServerClientFactory);
         } catch (GeneralSecurityException | CDocParseException ex) {
             throw logDecryptionErrorAndThrow(ex);
@@ -0,0 +1,161 @@
+package ee.cyber.cdoc2.client;
+
+import ee.cyber.cdoc2.client.model.Capsule;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+
+/**
+ * Bounded cache for key capsules downloaded from key server, keyed by (serverId, transactionId). Avoids repeated
+ * mTLS requests, when the same CDOC2 container is processed several times (for example listed and then decrypted).
+ * <p>
+ * Entries are removed after time-to-live or when cache is full (least recently used first). Key server API doesn't
+ * return capsule expiry time, so time-to-live should be short compared to capsule expiry duration. Key material of
+ * removed capsules is wiped. Cache keeps its own copies of capsules, callers get a new copy on each hit.
+ */
+public final class CapsuleCache {
+
+    /** Default max number of cached capsules */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    /** Default time-to-live of cached capsule */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private record Key(String serverId, String transactionId) {
+    }
+
+    private record Entry(Capsule capsule, Instant expiresAt) {
+    }
+
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Clock clock;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    public CapsuleCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries max number of cached capsules, positive
+     * @param ttl time-to-live of cached capsule, positive
+     */
+    public CapsuleCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, Clock.systemUTC());
+    }
+
+    /**
+     * @param maxEntries max number of cached capsules, positive
+     * @param ttl time-to-live of cached capsule, positive
+     * @param clock clock used for expiring entries
+     */
+    public CapsuleCache(int maxEntries, Duration ttl, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid max entries " + maxEntries);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Invalid time-to-live " + ttl);
+        }
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.clock = Objects.requireNonNull(clock);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get copy of cached capsule
+     * @param serverId key server identifier
+     * @param transactionId capsule transactionId
+     * @return copy of cached capsule or empty, if capsule is not cached or has expired
+     */
+    public synchronized Optional<Capsule> get(String serverId, String transactionId) {
+        Key key = new Key(serverId, transactionId);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        if (!clock.instant().isBefore(entry.expiresAt())) {
+            entries.remove(key);
+            wipe(entry.capsule());
+            return Optional.empty();
+        }
+        return Optional.of(copy(entry.capsule()));
+    }
+
+    /**
+     * Cache copy of capsule. Expired entries are removed and, when cache is full, least recently used entry is
+     * removed.
+     * @param serverId key server identifier
+     * @param transactionId capsule transactionId
+     * @param capsule capsule downloaded from key server
+     */
+    public synchronized void put(String serverId, String transactionId, Capsule capsule) {
+        Instant now = clock.instant();
+        removeExpired(now);
+
+        Entry previous = entries.put(new Key(serverId, transactionId), new Entry(copy(capsule), now.plus(ttl)));
+        if (previous != null) {
+            wipe(previous.capsule());
+        }
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            wipe(it.next().capsule());
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove all cached capsules and wipe their key material
+     */
+    public synchronized void clear() {
+        entries.values().forEach(entry -> wipe(entry.capsule()));
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void removeExpired(Instant now) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (!now.isBefore(entry.expiresAt())) {
+                wipe(entry.capsule());
+                it.remove();
+            }
+        }
+    }
+
+    private static Capsule copy(Capsule capsule) {
+        return new Capsule()
+            .capsuleType(capsule.getCapsuleType())
+            .recipientId(copy(capsule.getRecipientId()))
+            .ephemeralKeyMaterial(copy(capsule.getEphemeralKeyMaterial()));
+    }
+
+    @Nullable
+    private static byte[] copy(@Nullable byte[] bytes) {
+        return (bytes != null) ? bytes.clone() : null;
+    }
+
+    private static void wipe(Capsule capsule) {
+        if (capsule.getRecipientId() != null) {
+            Arrays.fill(capsule.getRecipientId(), (byte) 0);
+        }
+        if (capsule.getEphemeralKeyMaterial() != null) {
+            Arrays.fill(capsule.getEphemeralKeyMaterial(), (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ee.cyber.cdoc2.client;
+
+import java.time.Duration;
+
+
+/**
+ * Consecutive failures circuit breaker for single key server replica. When open, requests are not sent to the
+ * replica until open duration has passed. Then single trial request is allowed (half-open), its result closes or
+ * re-opens the circuit.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+
+    private int consecutiveFailures;
+    private boolean open;
+    private long openedAt;
+    private boolean trialInProgress;
+
+    /**
+     * @param failureThreshold consecutive failures that open the circuit, 0 to never open
+     * @param openDuration how long circuit stays open
+     */
+    CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return true if request can be sent to the replica
+     */
+    synchronized boolean tryAcquire() {
+        if (!open) {
+            return true;
+        }
+        if (trialInProgress || System.nanoTime() - openedAt < openDurationNanos) {
+            return false;
+        }
+        trialInProgress = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        open = false;
+        trialInProgress = false;
+    }
+
+    /**
+     * Called when request was abandoned before its result was known, allows the next trial request
+     */
+    synchronized void release() {
+        trialInProgress = false;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInProgress = false;
+        if (failureThreshold > 0 && (open || consecutiveFailures >= failureThreshold)) {
+            open = true;
+            openedAt = System.nanoTime();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package ee.cyber.cdoc2.client;
 
 import ee.cyber.cdoc2.crypto.ECKeys;
 import ee.cyber.cdoc2.crypto.EllipticCurve;
+import ee.cyber.cdoc2.crypto.RecipientKeyCache;
 import ee.cyber.cdoc2.client.model.Capsule;
 
 import org.slf4j.Logger;
@@ -29,6 +30,21 @@ public class EcCapsuleClientImpl implements EcCapsuleClient {
         ECPublicKey senderKey
     ) throws ExtApiException {
 
+        return keyCapsulesClient.storeCapsule(createCapsule(receiverKey, senderKey));
+    }
+
+    /**
+     * Create capsule for storing senderKey in server
+     * @param receiverKey recipient key
+     * @param senderKey sender key
+     * @return capsule that can be stored with {@link KeyCapsuleClient}
+     * @throws ExtApiException if key curve can't be determined
+     */
+    public static Capsule createCapsule(
+        ECPublicKey receiverKey,
+        ECPublicKey senderKey
+    ) throws ExtApiException {
+
         EllipticCurve curve;
         try {
             curve = EllipticCurve.forPubKey(receiverKey);
@@ -47,12 +63,10 @@ public class EcCapsuleClientImpl implements EcCapsuleClient {
             throw new IllegalArgumentException("Unsupported EC curve " + curve);
         }
 
-        Capsule capsule = new Capsule()
+        return new Capsule()
                 .capsuleType(Capsule.CapsuleTypeEnum.ECC_SECP384R1)
-                .recipientId(ECKeys.encodeEcPubKeyForTls(curve, receiverKey))
+                .recipientId(RecipientKeyCache.encodeEcPubKeyForTls(curve, receiverKey))
                 .ephemeralKeyMaterial(ECKeys.encodeEcPubKeyForTls(curve, senderKey));
-
-        return keyCapsulesClient.storeCapsule(capsule);
     }
 
     @Override
@@ -0,0 +1,55 @@
+package ee.cyber.cdoc2.client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Orders key server replicas for the next request according to {@link LoadBalancing} policy. Replicas with open
+ * circuit breaker are skipped by callers ({@link CircuitBreaker#tryAcquire()}).
+ */
+final class EndpointSelector {
+
+    private record Scored(KeyServerEndpoint endpoint, double score) {
+    }
+
+    private final List<KeyServerEndpoint> endpoints;
+    private final LoadBalancing policy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    EndpointSelector(List<KeyServerEndpoint> endpoints, LoadBalancing policy) {
+        this.endpoints = List.copyOf(endpoints);
+        this.policy = policy;
+    }
+
+    /**
+     * @return all endpoints, most preferred first
+     */
+    List<KeyServerEndpoint> order() {
+        if (policy == LoadBalancing.ORDERED || endpoints.size() <= 1) {
+            return endpoints;
+        }
+
+        // rotate, so that equally loaded endpoints get requests in turns (sort is stable)
+        int size = endpoints.size();
+        int offset = Math.floorMod(next.getAndIncrement(), size);
+        List<Scored> scored = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            KeyServerEndpoint endpoint = endpoints.get((offset + i) % size);
+            // snapshot, statistics change concurrently
+            double score = (policy == LoadBalancing.LEAST_OUTSTANDING)
+                ? endpoint.getOutstanding()
+                : endpoint.getEwmaLatencyNanos() * (endpoint.getOutstanding() + 1);
+            scored.add(new Scored(endpoint, score));
+        }
+
+        scored.sort(Comparator.comparingDouble(Scored::score));
+        return scored.stream().map(Scored::endpoint).toList();
+    }
+
+    boolean isEmpty() {
+        return endpoints.isEmpty();
+    }
+}
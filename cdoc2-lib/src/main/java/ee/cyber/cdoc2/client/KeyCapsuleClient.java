@@ -3,7 +3,11 @@ package ee.cyber.cdoc2.client;
 import ee.cyber.cdoc2.client.model.Capsule;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
 /**
@@ -20,6 +24,54 @@ public interface KeyCapsuleClient extends ServerClient {
 
     String storeCapsule(Capsule capsule) throws ExtApiException;
 
+    /**
+     * Store many capsules, for example for large recipient lists. Default implementation stores capsules one by
+     * one with {@link #storeCapsule(Capsule)}, implementations may send requests concurrently.
+     * @param capsules capsules to store
+     * @return transactionIds in the same order as capsules
+     * @throws ExtApiException if storing any of the capsules has failed
+     */
+    default List<String> storeCapsules(List<Capsule> capsules) throws ExtApiException {
+        List<String> transactionIds = new ArrayList<>(capsules.size());
+        for (Capsule capsule : capsules) {
+            transactionIds.add(storeCapsule(capsule));
+        }
+        return transactionIds;
+    }
+
     Optional<Capsule> getCapsule(String id) throws ExtApiException;
 
+    /**
+     * Asynchronous {@link #storeCapsule(Capsule)}. Default implementation runs blocking request on shared key
+     * server executor with bounded number of threads.
+     * @param capsule capsule to store
+     * @return future completed with transactionId or exceptionally with {@link ExtApiException} as the cause
+     */
+    default CompletableFuture<String> storeCapsuleAsync(Capsule capsule) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return storeCapsule(capsule);
+            } catch (ExtApiException ex) {
+                throw new CompletionException(ex);
+            }
+        }, KeyServerExecutor.get());
+    }
+
+    /**
+     * Asynchronous {@link #getCapsule(String)}. Default implementation runs blocking request on shared key server
+     * executor with bounded number of threads.
+     * @param id transactionId of the capsule
+     * @return future completed with capsule (empty if not found) or exceptionally with {@link ExtApiException}
+     *          as the cause
+     */
+    default CompletableFuture<Optional<Capsule>> getCapsuleAsync(String id) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getCapsule(id);
+            } catch (ExtApiException ex) {
+                throw new CompletionException(ex);
+            }
+        }, KeyServerExecutor.get());
+    }
+
 }
@@ -7,18 +7,32 @@ import ee.cyber.cdoc2.CDocUserException;
 import ee.cyber.cdoc2.UserErrorCode;
 import ee.cyber.cdoc2.client.model.Capsule;
 import ee.cyber.cdoc2.util.Resources;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,24 +46,58 @@ import static ee.cyber.cdoc2.util.DurationUtil.getExpiryTime;
 public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleClientFactory {
     private static final Logger log = LoggerFactory.getLogger(KeyCapsuleClientImpl.class);
 
+    /** Default max number of concurrent requests for {@link #storeCapsules(List)} */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    /**
+     * Properties that configure TLS client for creating capsules, see {@link #getPostClients(Properties)}. Trust
+     * store password is not part of the configuration key, trust store is identified by its location and digest.
+     */
+    private static final List<String> POST_CLIENT_PROPERTIES = List.of(
+        "cdoc2.client.server.base-url.post",
+        "cdoc2.client.ssl.trust-store.type",
+        "cdoc2.client.ssl.trust-store",
+        "cdoc2.client.server.connect-timeout",
+        "cdoc2.client.server.read-timeout",
+        "cdoc2.client.server.debug"
+    );
+    /** Max number of cached TLS clients for creating capsules, least recently used client is dropped */
+    private static final int MAX_POST_CLIENTS = 32;
+    private static final Map<List<String>, Cdoc2KeyCapsuleApiClient> POST_CLIENTS = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, Cdoc2KeyCapsuleApiClient> eldest) {
+                return size() > MAX_POST_CLIENTS;
+            }
+        }
+    );
+
     private final String serverId;
-    private final Cdoc2KeyCapsuleApiClient postClient; // TLS client
-    private final Cdoc2KeyCapsuleApiClient getClient; // mTLS client
+    private final List<Cdoc2KeyCapsuleApiClient> postClients; // TLS clients, one per post-server replica
+    private final List<Cdoc2KeyCapsuleApiClient> getClients; // mTLS clients, one per get-server replica
     @Nullable
     private KeyStore clientKeyStore; //initialised only from #create(Properties)
     @Nullable
     private Duration capsuleExpiryDuration; //initialised only when #setExpiryDuration() was called
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    @Nullable
+    private CapsuleCache capsuleCache; //initialised only when #setCapsuleCache() was called
+    private ResilienceOptions resilienceOptions = new ResilienceOptions();
+    private LoadBalancing loadBalancing = LoadBalancing.ORDERED;
+    private EndpointSelector postEndpoints;
+    private ResilientCapsuleGetter capsuleGetter;
 
     private KeyCapsuleClientImpl(
         String serverIdentifier,
-        Cdoc2KeyCapsuleApiClient postClient,
-        Cdoc2KeyCapsuleApiClient getClient,
+        List<Cdoc2KeyCapsuleApiClient> postClients,
+        List<Cdoc2KeyCapsuleApiClient> getClients,
         @Nullable KeyStore clientKeyStore
     ) {
         this.serverId = serverIdentifier;
-        this.postClient = postClient;
-        this.getClient = getClient;
+        this.postClients = postClients;
+        this.getClients = getClients;
         this.clientKeyStore = clientKeyStore;
+        configureEndpoints();
     }
 
     public static KeyCapsuleClient create(
@@ -57,7 +105,26 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         Cdoc2KeyCapsuleApiClient postClient,
         Cdoc2KeyCapsuleApiClient getClient
     ) {
-        return new KeyCapsuleClientImpl(serverIdentifier, postClient, getClient, null);
+        return new KeyCapsuleClientImpl(serverIdentifier,
+            (postClient != null) ? List.of(postClient) : List.of(),
+            (getClient != null) ? List.of(getClient) : List.of(),
+            null);
+    }
+
+    /**
+     * Create client for key server with several replicas
+     * @param serverIdentifier key server identifier
+     * @param postClients TLS clients for post-server replicas (creating capsules)
+     * @param getClients mTLS clients for get-server replicas, in order of preference for
+     *                   {@link LoadBalancing#ORDERED}
+     * @return KeyCapsuleClient
+     */
+    public static KeyCapsuleClient create(
+        String serverIdentifier,
+        List<Cdoc2KeyCapsuleApiClient> postClients,
+        List<Cdoc2KeyCapsuleApiClient> getClients
+    ) {
+        return new KeyCapsuleClientImpl(serverIdentifier, List.copyOf(postClients), List.copyOf(getClients), null);
     }
 
     public static KeyCapsuleClient create(Properties p) throws GeneralSecurityException, IOException {
@@ -66,7 +133,8 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
 
     /**
      * Create KeyCapsulesClient from properties file
-     * @param p properties
+     * @param p properties. "cdoc2.client.server.base-url.post" and "cdoc2.client.server.base-url.get" may contain
+     *          several comma separated replica urls
      * @param initMutualTlsClient if false then mutual TLS (get-server) client is not initialized.
      *            Useful, when client is only used for creating KeyCapsules (encryption). Initializing mTLS client may
      *            require special hardware (smart-card or crypto token) and/or interaction with the user.
@@ -82,9 +150,142 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
             throws GeneralSecurityException, IOException {
 
         String serverId = p.getProperty("cdoc2.client.server.id");
+        String getBaseUrls = p.getProperty("cdoc2.client.server.base-url.get");
+
+        List<Cdoc2KeyCapsuleApiClient> postClients = getPostClients(p);
+
+        // client key store configuration required
+        List<Cdoc2KeyCapsuleApiClient> getClients = new ArrayList<>();
+        KeyStore clientKeyStore = null;
+        if (initMutualTlsClient) {
+            clientKeyStore = loadClientKeyStore(p);
+            KeyStore.ProtectionParameter protectionParameter = loadClientKeyStoreProtectionParameter(p);
+            for (String getBaseUrl : splitUrls(getBaseUrls)) {
+                getClients.add(createClientBuilder(p)
+                    .withClientKeyStore(clientKeyStore)
+                    .withClientKeyStoreProtectionParameter(protectionParameter)
+                    .withBaseUrl(getBaseUrl)
+                    .build());
+            }
+        }
+
+        KeyCapsuleClientImpl client = new KeyCapsuleClientImpl(serverId, postClients, List.copyOf(getClients),
+            clientKeyStore);
+        getInteger(p, "cdoc2.client.server.max-concurrent-requests")
+            .ifPresent(client::setMaxConcurrentRequests);
+        getLoadBalancing(p)
+            .ifPresent(client::setLoadBalancing);
+        client.setResilienceOptions(loadResilienceOptions(p));
+        if (getBoolean(p, "cdoc2.client.server.capsule-cache.enabled").orElse(false)) {
+            client.setCapsuleCache(new CapsuleCache(
+                getInteger(p, "cdoc2.client.server.capsule-cache.max-entries")
+                    .orElse(CapsuleCache.DEFAULT_MAX_ENTRIES),
+                getInteger(p, "cdoc2.client.server.capsule-cache.ttl-seconds")
+                    .map(Duration::ofSeconds)
+                    .orElse(CapsuleCache.DEFAULT_TTL)
+            ));
+        }
+        return client;
+    }
+
+    /**
+     * Get TLS clients for creating capsules, one per post-server replica url. Clients are cached by configuration
+     * and trust store contents, so that clients created from the same properties share SSLContext (TLS session
+     * resumption) and HTTP connections, instead of doing full TLS handshake for each created CDOC2 container.
+     * Changed (rotated) trust store file gets a new client. At most {@value #MAX_POST_CLIENTS} clients are cached.
+     */
+    private static List<Cdoc2KeyCapsuleApiClient> getPostClients(Properties p)
+            throws GeneralSecurityException, IOException {
+
+        byte[] trustStore = readTrustStore(p);
+        String trustStoreDigest = (trustStore != null)
+            ? HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(trustStore))
+            : null;
+
+        List<Cdoc2KeyCapsuleApiClient> postClients = new ArrayList<>();
+        for (String postBaseUrl : splitUrls(p.getProperty("cdoc2.client.server.base-url.post"))) {
+            List<String> config = new ArrayList<>();
+            config.add(postBaseUrl);
+            POST_CLIENT_PROPERTIES.stream()
+                .skip(1) // base-url.post
+                .map(p::getProperty)
+                .forEach(config::add);
+            config.add(trustStoreDigest);
+
+            Cdoc2KeyCapsuleApiClient postClient = POST_CLIENTS.get(config);
+            if (postClient == null) {
+                postClient = createClientBuilder(p, trustStore)
+                    .withBaseUrl(postBaseUrl)
+                    .build();
+                Cdoc2KeyCapsuleApiClient existing = POST_CLIENTS.putIfAbsent(config, postClient);
+                if (existing != null) {
+                    postClient = existing;
+                }
+            }
+            postClients.add(postClient);
+        }
+        return List.copyOf(postClients);
+    }
+
+    private static List<String> splitUrls(@Nullable String urls) {
+        if (urls == null) {
+            // client builder reports missing url
+            return Collections.singletonList(null);
+        }
+        return Arrays.stream(urls.split(","))
+            .map(String::trim)
+            .filter(url -> !url.isEmpty())
+            .toList();
+    }
+
+    private static Optional<LoadBalancing> getLoadBalancing(Properties p) {
+        String value = p.getProperty("cdoc2.client.server.load-balancing");
+        try {
+            return Optional.ofNullable(value)
+                .map(v -> LoadBalancing.valueOf(v.trim().toUpperCase(Locale.ROOT).replace('-', '_')));
+        } catch (IllegalArgumentException iae) {
+            log.warn("Invalid value {} for property cdoc2.client.server.load-balancing. Ignoring.", value);
+            return Optional.empty();
+        }
+    }
+
+    private static ResilienceOptions loadResilienceOptions(Properties p) {
+        ResilienceOptions options = new ResilienceOptions();
+        getInteger(p, "cdoc2.client.server.retry.max-attempts")
+            .ifPresent(options::withMaxAttempts);
+        options.withBackoff(
+            getInteger(p, "cdoc2.client.server.retry.initial-backoff-ms")
+                .map(Duration::ofMillis)
+                .orElse(ResilienceOptions.DEFAULT_INITIAL_BACKOFF),
+            getInteger(p, "cdoc2.client.server.retry.max-backoff-ms")
+                .map(Duration::ofMillis)
+                .orElse(ResilienceOptions.DEFAULT_MAX_BACKOFF)
+        );
+        getInteger(p, "cdoc2.client.server.hedge-delay-ms")
+            .map(Duration::ofMillis)
+            .ifPresent(options::withHedgeDelay);
+        getInteger(p, "cdoc2.client.server.latency-budget-ms")
+            .map(Duration::ofMillis)
+            .ifPresent(options::withLatencyBudget);
+        getInteger(p, "cdoc2.client.server.circuit-breaker.failure-threshold")
+            .ifPresent(threshold -> options.withCircuitBreaker(threshold,
+                getInteger(p, "cdoc2.client.server.circuit-breaker.open-ms")
+                    .map(Duration::ofMillis)
+                    .orElse(ResilienceOptions.DEFAULT_CIRCUIT_OPEN_DURATION)));
+        return options;
+    }
+
+    private static Cdoc2KeyCapsuleApiClient.Builder createClientBuilder(Properties p)
+            throws GeneralSecurityException, IOException {
+
+        return createClientBuilder(p, readTrustStore(p));
+    }
+
+    private static Cdoc2KeyCapsuleApiClient.Builder createClientBuilder(Properties p, @Nullable byte[] trustStore)
+            throws GeneralSecurityException, IOException {
 
         Cdoc2KeyCapsuleApiClient.Builder builder = Cdoc2KeyCapsuleApiClient.builder()
-            .withTrustKeyStore(loadTrustKeyStore(p));
+            .withTrustKeyStore(loadTrustKeyStore(p, trustStore));
 
         getInteger(p, "cdoc2.client.server.connect-timeout")
             .ifPresent(builder::withConnectTimeoutMs);
@@ -92,28 +293,7 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
             .ifPresent(builder::withReadTimeoutMs);
         getBoolean(p, "cdoc2.client.server.debug")
             .ifPresent(builder::withDebuggingEnabled);
-
-        String postBaseUrl = p.getProperty("cdoc2.client.server.base-url.post");
-        String getBaseUrl = p.getProperty("cdoc2.client.server.base-url.get");
-
-        // postClient can be configured with client key store,
-        Cdoc2KeyCapsuleApiClient postClient = builder
-            .withBaseUrl(postBaseUrl)
-            .build();
-
-        // client key store configuration required
-        Cdoc2KeyCapsuleApiClient getClient = null;
-        KeyStore clientKeyStore = null;
-        if (initMutualTlsClient) {
-            clientKeyStore = loadClientKeyStore(p);
-            getClient = builder
-                .withClientKeyStore(clientKeyStore)
-                .withClientKeyStoreProtectionParameter(loadClientKeyStoreProtectionParameter(p))
-                .withBaseUrl(getBaseUrl)
-                .build();
-        }
-
-        return new KeyCapsuleClientImpl(serverId, postClient, getClient, clientKeyStore);
+        return builder;
     }
 
     public static KeyCapsuleClientFactory createFactory(Properties p) throws GeneralSecurityException, IOException {
@@ -209,22 +389,33 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
      * @throws KeyStoreException
      * @throws CertificateException – if any of the certificates in the keystore could not be loaded
      */
-    private static KeyStore loadTrustKeyStore(Properties p) throws KeyStoreException, IOException,
-            CertificateException, NoSuchAlgorithmException {
+    private static KeyStore loadTrustKeyStore(Properties p, @Nullable byte[] trustStore) throws KeyStoreException,
+            IOException, CertificateException, NoSuchAlgorithmException {
         KeyStore trustKeyStore;
 
         String type = p.getProperty("cdoc2.client.ssl.trust-store.type", "JKS");
-
-        String trustStoreFile = p.getProperty("cdoc2.client.ssl.trust-store");
         String passwd = p.getProperty("cdoc2.client.ssl.trust-store-password");
 
         trustKeyStore = KeyStore.getInstance(type);
-        trustKeyStore.load(Resources.getResourceAsStream(trustStoreFile),
+        trustKeyStore.load((trustStore != null) ? new ByteArrayInputStream(trustStore) : null,
             (passwd != null) ? passwd.toCharArray() : null);
 
         return trustKeyStore;
     }
 
+    /**
+     * @param p properties with trust store location
+     * @return trust store file contents or null, if classpath resource was not found
+     * @throws IOException if trust store reading has failed
+     */
+    @Nullable
+    private static byte[] readTrustStore(Properties p) throws IOException {
+        String trustStoreFile = p.getProperty("cdoc2.client.ssl.trust-store");
+        try (InputStream is = Resources.getResourceAsStream(trustStoreFile)) {
+            return (is != null) ? is.readAllBytes() : null;
+        }
+    }
+
     @Override
     public void setExpiryDuration(Duration duration) {
         this.capsuleExpiryDuration = duration;
@@ -232,7 +423,7 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
 
     @Override
     public String storeCapsule(Capsule capsule) throws ExtApiException {
-        Objects.requireNonNull(postClient);
+        checkPostClients();
 
         String result = null;
         try {
@@ -244,28 +435,200 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         return result;
     }
 
-    private String createCapsule(Capsule capsule) throws ApiException {
-        if (null != capsuleExpiryDuration) {
-            OffsetDateTime expiryTime = getExpiryTime(capsuleExpiryDuration);
-            return postClient.createCapsule(capsule, expiryTime);
-        } else {
-            return postClient.createCapsule(capsule);
+    /**
+     * Store capsules with concurrent requests on shared key server executor, at most
+     * {@link #setMaxConcurrentRequests(int)} requests are sent at the same time. Key server API doesn't have bulk
+     * create, so each capsule is still a separate request. When a request fails, no new requests are started and
+     * requests already sent are completed (not interrupted) before the exception is thrown.
+     * @param capsules capsules to store
+     * @return transactionIds in the same order as capsules
+     * @throws ExtApiException if storing any of the capsules has failed
+     */
+    @Override
+    public List<String> storeCapsules(List<Capsule> capsules) throws ExtApiException {
+        checkPostClients();
+        Objects.requireNonNull(capsules);
+
+        if ((capsules.size() <= 1) || (maxConcurrentRequests <= 1)) {
+            return KeyCapsuleClient.super.storeCapsules(capsules);
+        }
+
+        int maxRequests = maxConcurrentRequests;
+        Semaphore inProgress = new Semaphore(maxRequests);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<CompletableFuture<String>> futures = new ArrayList<>(capsules.size());
+        try {
+            for (Capsule capsule : capsules) {
+                inProgress.acquire();
+                if (failure.get() != null) {
+                    inProgress.release();
+                    break;
+                }
+
+                CompletableFuture<String> future = new CompletableFuture<>();
+                futures.add(future);
+                try {
+                    KeyServerExecutor.get().execute(() -> {
+                        try {
+                            future.complete(createCapsule(capsule));
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                            future.completeExceptionally(e);
+                        } finally {
+                            inProgress.release();
+                        }
+                    });
+                } catch (RuntimeException e) { // RejectedExecutionException
+                    inProgress.release();
+                    throw e;
+                }
+            }
+
+            // wait for requests in flight
+            inProgress.acquire(maxRequests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExtApiException("Interrupted while creating capsules", e);
+        }
+
+        Exception ex = failure.get();
+        if (ex != null) {
+            log.error("Failed to create capsule", ex);
+            handleOpenApiException(ex);
+        }
+        return futures.stream()
+            .map(CompletableFuture::join)
+            .toList();
+    }
+
+    /**
+     * Max number of concurrent requests sent by {@link #storeCapsules(List)}. Can be configured with
+     * "cdoc2.client.server.max-concurrent-requests" property.
+     * @param maxRequests max concurrent requests, 1 to send requests one by one
+     */
+    public void setMaxConcurrentRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Invalid max concurrent requests " + maxRequests);
+        }
+        this.maxConcurrentRequests = maxRequests;
+    }
+
+    /**
+     * Cache capsules downloaded by {@link #getCapsule(String)}. Can be enabled with
+     * "cdoc2.client.server.capsule-cache.enabled" property. Cache may be shared by clients of different servers.
+     * @param cache capsule cache, null to disable caching
+     */
+    public void setCapsuleCache(@Nullable CapsuleCache cache) {
+        this.capsuleCache = cache;
+    }
+
+    /**
+     * Retry, hedging and circuit breaker options for {@link #getCapsule(String)}. Can be configured with
+     * "cdoc2.client.server.retry.*", "cdoc2.client.server.hedge-delay-ms", "cdoc2.client.server.latency-budget-ms"
+     * and "cdoc2.client.server.circuit-breaker.*" properties. Resets circuit breakers.
+     * @param options resilience options
+     */
+    public void setResilienceOptions(ResilienceOptions options) {
+        this.resilienceOptions = Objects.requireNonNull(options);
+        configureEndpoints();
+    }
+
+    /**
+     * How requests are spread over key server replicas. Can be configured with "cdoc2.client.server.load-balancing"
+     * property (ordered, least-outstanding or ewma-latency). Resets replica statistics and circuit breakers.
+     * @param policy load balancing policy
+     */
+    public void setLoadBalancing(LoadBalancing policy) {
+        this.loadBalancing = Objects.requireNonNull(policy);
+        configureEndpoints();
+    }
+
+    private void configureEndpoints() {
+        this.postEndpoints = new EndpointSelector(createEndpoints(postClients), loadBalancing);
+        this.capsuleGetter = new ResilientCapsuleGetter(
+            new EndpointSelector(createEndpoints(getClients), loadBalancing), resilienceOptions);
+    }
+
+    private List<KeyServerEndpoint> createEndpoints(List<Cdoc2KeyCapsuleApiClient> clients) {
+        return clients.stream()
+            .map(client -> new KeyServerEndpoint(client, new CircuitBreaker(
+                resilienceOptions.getFailureThreshold(), resilienceOptions.getCircuitOpenDuration())))
+            .toList();
+    }
+
+    private void checkPostClients() {
+        if (postEndpoints.isEmpty()) {
+            throw new IllegalStateException("post-server client not initialized");
+        }
+    }
+
+    /**
+     * Create capsule on the most preferred post-server replica with closed circuit breaker. Capsule creation is not
+     * idempotent, so failed request is not sent to other replicas.
+     */
+    private String createCapsule(Capsule capsule) throws ApiException, ExtApiException {
+        KeyServerEndpoint endpoint = null;
+        for (KeyServerEndpoint candidate : postEndpoints.order()) {
+            if (candidate.breaker().tryAcquire()) {
+                endpoint = candidate;
+                break;
+            }
+        }
+        if (endpoint == null) {
+            throw new ExtApiException("Circuit breaker is open for all key server replicas");
+        }
+
+        long start = endpoint.begin();
+        try {
+            String transactionId;
+            if (null != capsuleExpiryDuration) {
+                OffsetDateTime expiryTime = getExpiryTime(capsuleExpiryDuration);
+                transactionId = endpoint.client().createCapsule(capsule, expiryTime);
+            } else {
+                transactionId = endpoint.client().createCapsule(capsule);
+            }
+            endpoint.breaker().onSuccess();
+            return transactionId;
+        } catch (ApiException | RuntimeException e) {
+            if (ResilientCapsuleGetter.isRetryable(e)) {
+                endpoint.breaker().onFailure();
+            } else {
+                endpoint.breaker().onSuccess();
+            }
+            throw e;
+        } finally {
+            endpoint.end(start);
         }
     }
 
     @Override
     public Optional<Capsule> getCapsule(String id) throws ExtApiException {
-        if (getClient == null) {
+        if (getClients.isEmpty()) {
             throw new IllegalStateException("get-server client not initialized");
         }
 
+        if (capsuleCache != null) {
+            Optional<Capsule> cached = capsuleCache.get(serverId, id);
+            if (cached.isPresent()) {
+                log.debug("Capsule {} found from cache", id);
+                return cached;
+            }
+        }
+
         Optional<Capsule> result = Optional.empty();
         try {
-            result = getClient.getCapsule(id);
+            result = capsuleGetter.getCapsule(id);
+        } catch (ExtApiException e) {
+            log.error("Failed to get capsule: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
             log.error("Failed to get capsule", e);
             handleOpenApiException(e);
         }
+
+        if (capsuleCache != null && result.isPresent()) {
+            capsuleCache.put(serverId, id, result.get());
+        }
         return result;
     }
 
@@ -345,14 +708,14 @@ public final class KeyCapsuleClientImpl implements KeyCapsuleClient, KeyCapsuleC
         if (o == null || getClass() != o.getClass()) return false;
         KeyCapsuleClientImpl that = (KeyCapsuleClientImpl) o;
         return Objects.equals(serverId, that.serverId)
-            && Objects.equals(postClient, that.postClient)
-            && Objects.equals(getClient, that.getClient)
+            && Objects.equals(postClients, that.postClients)
+            && Objects.equals(getClients, that.getClients)
             && Objects.equals(clientKeyStore, that.clientKeyStore);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(serverId, postClient, getClient, clientKeyStore);
+        return Objects.hash(serverId, postClients, getClients, clientKeyStore);
     }
 
 }
@@ -0,0 +1,62 @@
+package ee.cyber.cdoc2.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Single key server replica with health and load statistics, used by {@link EndpointSelector}
+ */
+final class KeyServerEndpoint {
+
+    /** Weight of the latest request in exponentially weighted moving average latency */
+    static final double EWMA_ALPHA = 0.3;
+
+    private final Cdoc2KeyCapsuleApiClient client;
+    private final CircuitBreaker breaker;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private double ewmaLatencyNanos; // 0 until first request has completed
+
+    KeyServerEndpoint(Cdoc2KeyCapsuleApiClient client, CircuitBreaker breaker) {
+        this.client = client;
+        this.breaker = breaker;
+    }
+
+    Cdoc2KeyCapsuleApiClient client() {
+        return client;
+    }
+
+    CircuitBreaker breaker() {
+        return breaker;
+    }
+
+    /**
+     * Request to endpoint has started
+     * @return request start time for {@link #end(long)}
+     */
+    long begin() {
+        outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Request to endpoint has completed (successfully or not)
+     * @param start value returned by {@link #begin()}
+     */
+    void end(long start) {
+        long latency = System.nanoTime() - start;
+        outstanding.decrementAndGet();
+        synchronized (this) {
+            ewmaLatencyNanos = (ewmaLatencyNanos == 0)
+                ? latency
+                : EWMA_ALPHA * latency + (1 - EWMA_ALPHA) * ewmaLatencyNanos;
+        }
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    synchronized double getEwmaLatencyNanos() {
+        return ewmaLatencyNanos;
+    }
+}
@@ -0,0 +1,55 @@
+package ee.cyber.cdoc2.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Executors for running blocking key server requests of {@link KeyCapsuleClient} asynchronously. Number of
+ * threads is bounded, requests over the limit wait in the queue. Threads are daemon threads and are stopped when idle.
+ */
+final class KeyServerExecutor {
+
+    static final int MAX_THREADS = 64;
+    static final int MAX_REPLICA_THREADS = 32;
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor(MAX_THREADS, "cdoc2-key-server-");
+
+    // separate pool, so that hedged replica requests never wait behind async requests that are waiting for them
+    private static final ThreadPoolExecutor REPLICA_EXECUTOR =
+        createExecutor(MAX_REPLICA_THREADS, "cdoc2-key-server-replica-");
+
+    private KeyServerExecutor() { }
+
+    static Executor get() {
+        return EXECUTOR;
+    }
+
+    /**
+     * @return executor for replica requests started by {@link ResilientCapsuleGetter}
+     */
+    static ExecutorService getReplicaExecutor() {
+        return REPLICA_EXECUTOR;
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, String namePrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), daemonThreadFactory(namePrefix));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
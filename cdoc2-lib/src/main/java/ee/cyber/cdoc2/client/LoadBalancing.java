@@ -0,0 +1,17 @@
+package ee.cyber.cdoc2.client;
+
+
+/**
+ * How requests are spread over key server replicas, configured with "cdoc2.client.server.load-balancing" property
+ */
+public enum LoadBalancing {
+    /** Use replicas in configured order, next replica is used only when previous fails (failover) */
+    ORDERED,
+    /** Prefer replica with the least requests in progress, ties are spread round-robin */
+    LEAST_OUTSTANDING,
+    /**
+     * Prefer replica with the lowest exponentially weighted moving average latency, multiplied by number of
+     * requests in progress. Replicas without latency measurements are tried first.
+     */
+    EWMA_LATENCY
+}
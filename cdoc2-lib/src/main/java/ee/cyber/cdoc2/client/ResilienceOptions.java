@@ -0,0 +1,132 @@
+package ee.cyber.cdoc2.client;
+
+import java.time.Duration;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+
+/**
+ * Retry, hedging and circuit breaker options for downloading key capsules ({@link KeyCapsuleClient#getCapsule})
+ * from key server replicas. Capsule creation is not retried, as it is not idempotent.
+ * <p>
+ * By default, request is sent once to each replica until one responds, without hedging, latency budget or
+ * circuit breaker.
+ */
+public final class ResilienceOptions {
+
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(100);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(2);
+    public static final Duration DEFAULT_CIRCUIT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    private int maxAttempts = 1;
+    private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+    @Nullable
+    private Duration hedgeDelay;
+    @Nullable
+    private Duration latencyBudget;
+    private int failureThreshold;
+    private Duration circuitOpenDuration = DEFAULT_CIRCUIT_OPEN_DURATION;
+
+    /**
+     * Max number of attempts, when all replicas failed with network error, HTTP 429 or 5xx. Attempts are separated
+     * by exponential backoff with jitter.
+     * @param attempts max attempts, 1 to disable retries
+     * @return this ResilienceOptions
+     */
+    public ResilienceOptions withMaxAttempts(int attempts) {
+        if (attempts < 1) {
+            throw new IllegalArgumentException("Invalid max attempts " + attempts);
+        }
+        this.maxAttempts = attempts;
+        return this;
+    }
+
+    /**
+     * @param initial backoff before the second attempt, doubled for every next attempt
+     * @param max max backoff
+     * @return this ResilienceOptions
+     */
+    public ResilienceOptions withBackoff(Duration initial, Duration max) {
+        if (initial.isNegative() || max.compareTo(initial) < 0) {
+            throw new IllegalArgumentException("Invalid backoff " + initial + ", " + max);
+        }
+        this.initialBackoff = initial;
+        this.maxBackoff = max;
+        return this;
+    }
+
+    /**
+     * Send the same request to the next replica, when previous replica hasn't responded in hedgeDelay.
+     * First response is used.
+     * @param delay hedge delay, null to disable hedging
+     * @return this ResilienceOptions
+     */
+    public ResilienceOptions withHedgeDelay(@Nullable Duration delay) {
+        if (delay != null && (delay.isNegative() || delay.isZero())) {
+            throw new IllegalArgumentException("Invalid hedge delay " + delay);
+        }
+        this.hedgeDelay = delay;
+        return this;
+    }
+
+    /**
+     * Max time for getting capsule, including retries. Replica requests slower than latency budget are counted as
+     * failures by circuit breaker.
+     * @param budget latency budget, null for no limit
+     * @return this ResilienceOptions
+     */
+    public ResilienceOptions withLatencyBudget(@Nullable Duration budget) {
+        if (budget != null && (budget.isNegative() || budget.isZero())) {
+            throw new IllegalArgumentException("Invalid latency budget " + budget);
+        }
+        this.latencyBudget = budget;
+        return this;
+    }
+
+    /**
+     * Per replica circuit breaker. After failureThreshold consecutive failures, replica is not used for
+     * openDuration. After that single trial request is allowed, that closes or re-opens the circuit.
+     * @param threshold consecutive failures that open the circuit, 0 to disable circuit breaker
+     * @param openDuration how long circuit stays open
+     * @return this ResilienceOptions
+     */
+    public ResilienceOptions withCircuitBreaker(int threshold, Duration openDuration) {
+        if (threshold < 0 || openDuration.isNegative()) {
+            throw new IllegalArgumentException("Invalid circuit breaker " + threshold + ", " + openDuration);
+        }
+        this.failureThreshold = threshold;
+        this.circuitOpenDuration = Objects.requireNonNull(openDuration);
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    @Nullable
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    @Nullable
+    public Duration getLatencyBudget() {
+        return latencyBudget;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public Duration getCircuitOpenDuration() {
+        return circuitOpenDuration;
+    }
+}
@@ -0,0 +1,274 @@
+package ee.cyber.cdoc2.client;
+
+import ee.cyber.cdoc2.client.api.ApiException;
+import ee.cyber.cdoc2.client.model.Capsule;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Downloads key capsule from key server replicas according to {@link ResilienceOptions}: fails over to the next
+ * replica on network and server errors, hedges slow requests, retries with exponential backoff and skips replicas
+ * with open circuit breaker. Replicas are tried in order given by {@link EndpointSelector}.
+ */
+final class ResilientCapsuleGetter {
+    private static final Logger log = LoggerFactory.getLogger(ResilientCapsuleGetter.class);
+
+    /**
+     * Result of single replica request
+     * @param capsule downloaded capsule, null when request failed
+     * @param error request error, null when request succeeded
+     */
+    private record Outcome(@Nullable Optional<Capsule> capsule, @Nullable Exception error) {
+    }
+
+    /**
+     * Replica request running on {@link KeyServerExecutor#getReplicaExecutor()}. When cancelled, request that has
+     * not started yet is skipped and request in progress is interrupted.
+     */
+    private final class ReplicaCall implements Runnable {
+        private final KeyServerEndpoint replica;
+        private final String id;
+        private final BlockingQueue<Outcome> outcomes;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private Future<?> future;
+
+        ReplicaCall(KeyServerEndpoint replica, String id, BlockingQueue<Outcome> outcomes) {
+            this.replica = replica;
+            this.id = id;
+            this.outcomes = outcomes;
+        }
+
+        void start() {
+            future = KeyServerExecutor.getReplicaExecutor().submit(this);
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                outcomes.add(call(replica, id));
+            }
+        }
+
+        void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                future.cancel(false);
+                replica.breaker().release(); // request was never sent
+            } else {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private final EndpointSelector replicas;
+    private final ResilienceOptions options;
+
+    /**
+     * @param replicas get-server replicas, circuit breakers of the replicas must be created with the same options
+     * @param options retry, hedging and latency budget options
+     */
+    ResilientCapsuleGetter(EndpointSelector replicas, ResilienceOptions options) {
+        this.replicas = replicas;
+        this.options = options;
+    }
+
+    /**
+     * Get capsule from the first replica that responds
+     * @param id transactionId
+     * @return capsule or empty, if capsule was not found
+     * @throws ApiException if key server returned an error
+     * @throws ExtApiException if latency budget was exceeded or circuit breakers of all replicas are open
+     * @throws Exception other errors from OpenAPI client, for example network errors
+     */
+    Optional<Capsule> getCapsule(String id) throws Exception {
+        long start = System.nanoTime();
+        Duration backoff = options.getInitialBackoff();
+        for (int attempt = 1;; attempt++) {
+            try {
+                return getFromReplicas(id, start);
+            } catch (Exception ex) {
+                long sleepMs = jitter(backoff);
+                if (attempt >= options.getMaxAttempts() || !isRetryable(ex)
+                    || remainingNanos(start) <= TimeUnit.MILLISECONDS.toNanos(sleepMs)) {
+                    throw ex;
+                }
+
+                log.info("Key capsule request failed ({}), retrying in {}ms", ex.getMessage(), sleepMs);
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new ExtApiException("Interrupted while waiting for retry", ie);
+                }
+                backoff = min(backoff.multipliedBy(2), options.getMaxBackoff());
+            }
+        }
+    }
+
+    private Optional<Capsule> getFromReplicas(String id, long start) throws Exception {
+        if (options.getHedgeDelay() == null && options.getLatencyBudget() == null) {
+            return getSequentially(id);
+        }
+
+        BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        List<ReplicaCall> calls = new ArrayList<>();
+        try {
+            return awaitReplicas(replicas.order().iterator(), id, start, outcomes, calls);
+        } finally {
+            // the winner has finished, free pool threads and connections used by the remaining requests
+            calls.forEach(ReplicaCall::cancel);
+        }
+    }
+
+    private Optional<Capsule> awaitReplicas(Iterator<KeyServerEndpoint> next, String id, long start,
+                                            BlockingQueue<Outcome> outcomes, List<ReplicaCall> calls)
+        throws Exception {
+
+        if (!startNext(next, id, outcomes, calls)) {
+            throw new ExtApiException("Circuit breaker is open for all key server replicas");
+        }
+
+        int inFlight = 1;
+        Exception lastError = null;
+        while (inFlight > 0) {
+            long waitNanos = remainingNanos(start);
+            boolean canHedge = (options.getHedgeDelay() != null) && next.hasNext();
+            if (canHedge) {
+                waitNanos = Math.min(waitNanos, options.getHedgeDelay().toNanos());
+            }
+
+            Outcome outcome = outcomes.poll(waitNanos, TimeUnit.NANOSECONDS);
+            if (outcome == null) {
+                if (remainingNanos(start) <= 0) {
+                    throw new ExtApiException("Key server latency budget " + options.getLatencyBudget()
+                        + " exceeded");
+                }
+                if (startNext(next, id, outcomes, calls)) {
+                    log.debug("Hedging key capsule request");
+                    inFlight++;
+                }
+                continue;
+            }
+
+            inFlight--;
+            if (outcome.error() == null) {
+                return outcome.capsule();
+            }
+            lastError = outcome.error();
+            if (!isRetryable(lastError)) {
+                throw lastError;
+            }
+            if (startNext(next, id, outcomes, calls)) {
+                inFlight++;
+            }
+        }
+        throw lastError;
+    }
+
+    private Optional<Capsule> getSequentially(String id) throws Exception {
+        Exception lastError = null;
+        for (KeyServerEndpoint replica : replicas.order()) {
+            if (!replica.breaker().tryAcquire()) {
+                continue;
+            }
+
+            Outcome outcome = call(replica, id);
+            if (outcome.error() == null) {
+                return outcome.capsule();
+            }
+            lastError = outcome.error();
+            if (!isRetryable(lastError)) {
+                throw lastError;
+            }
+        }
+
+        if (lastError == null) {
+            throw new ExtApiException("Circuit breaker is open for all key server replicas");
+        }
+        throw lastError;
+    }
+
+    private boolean startNext(Iterator<KeyServerEndpoint> next, String id, BlockingQueue<Outcome> outcomes,
+                              List<ReplicaCall> calls) {
+        while (next.hasNext()) {
+            KeyServerEndpoint replica = next.next();
+            if (replica.breaker().tryAcquire()) {
+                ReplicaCall replicaCall = new ReplicaCall(replica, id, outcomes);
+                calls.add(replicaCall);
+                replicaCall.start();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Outcome call(KeyServerEndpoint replica, String id) {
+        long start = replica.begin();
+        try {
+            Optional<Capsule> capsule = replica.client().getCapsule(id);
+            if (isSlow(start)) {
+                replica.breaker().onFailure();
+            } else {
+                replica.breaker().onSuccess();
+            }
+            return new Outcome(capsule, null);
+        } catch (Exception ex) {
+            if (Thread.currentThread().isInterrupted()) {
+                replica.breaker().release(); // cancelled, says nothing about the replica
+            } else if (isRetryable(ex) || isSlow(start)) {
+                replica.breaker().onFailure();
+            } else {
+                replica.breaker().onSuccess(); // replica is up, request was invalid
+            }
+            return new Outcome(null, ex);
+        } finally {
+            replica.end(start);
+        }
+    }
+
+    private boolean isSlow(long start) {
+        return (options.getLatencyBudget() != null)
+            && (System.nanoTime() - start > options.getLatencyBudget().toNanos());
+    }
+
+    private long remainingNanos(long start) {
+        if (options.getLatencyBudget() == null) {
+            return Long.MAX_VALUE;
+        }
+        return options.getLatencyBudget().toNanos() - (System.nanoTime() - start);
+    }
+
+    /**
+     * Network errors, HTTP 429 and 5xx are retryable
+     */
+    static boolean isRetryable(Exception ex) {
+        if (ex instanceof ApiException apiException) {
+            int code = apiException.getCode();
+            return code == 0 || code == 429 || code >= 500;
+        }
+        return !(ex instanceof ExtApiException) && !(ex instanceof IllegalArgumentException);
+    }
+
+    private static long jitter(Duration backoff) {
+        long ms = backoff.toMillis();
+        return (ms <= 1) ? ms : ms / 2 + ThreadLocalRandom.current().nextLong(ms / 2 + 1);
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return (a.compareTo(b) <= 0) ? a : b;
+    }
+}
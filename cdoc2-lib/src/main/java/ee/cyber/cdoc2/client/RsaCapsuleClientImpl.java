@@ -1,6 +1,6 @@
 package ee.cyber.cdoc2.client;
 
-import ee.cyber.cdoc2.crypto.RsaUtils;
+import ee.cyber.cdoc2.crypto.RecipientKeyCache;
 import ee.cyber.cdoc2.client.model.Capsule;
 
 import java.security.interfaces.RSAPublicKey;
@@ -19,12 +19,20 @@ public class RsaCapsuleClientImpl implements RsaCapsuleClient {
         byte[] encryptedKek
 
     ) throws ExtApiException {
-        Capsule capsule = new Capsule()
+        return keyCapsulesClient.storeCapsule(createCapsule(recipient, encryptedKek));
+    }
+
+    /**
+     * Create capsule for storing encrypted KEK in server
+     * @param recipient recipient RSA public key
+     * @param encryptedKek KEK encrypted with recipient public key
+     * @return capsule that can be stored with {@link KeyCapsuleClient}
+     */
+    public static Capsule createCapsule(RSAPublicKey recipient, byte[] encryptedKek) {
+        return new Capsule()
             .capsuleType(Capsule.CapsuleTypeEnum.RSA)
-            .recipientId(RsaUtils.encodeRsaPubKey(recipient))
+            .recipientId(RecipientKeyCache.encodeRsaPubKey(recipient))
             .ephemeralKeyMaterial(encryptedKek);
-
-        return keyCapsulesClient.storeCapsule(capsule);
     }
 
     @Override
@@ -0,0 +1,138 @@
+package ee.cyber.cdoc2.container;
+
+import java.util.zip.Deflater;
+
+
+/**
+ * Deflate compression level used for payload files. Payload is always zlib stream, changing the level (including
+ * {@link #store()} that writes deflate stored blocks) doesn't require any changes from the reader.
+ * <p>
+ * {@link #auto()} policy compresses first {@link #getProbeSize()} bytes of each file with fastest level. If that
+ * doesn't save at least {@code 1 - }{@link #STORE_RATIO_THRESHOLD} of the size, then file is considered already
+ * compressed (PDF, JPEG, ZIP etc.) and stored without compression.
+ */
+public final class CompressionPolicy {
+
+    public static final int DEFAULT_PROBE_SIZE = 64 * 1024;
+
+    /** Max compressed/uncompressed ratio of the probe, for the file to be compressed in auto mode */
+    public static final double STORE_RATIO_THRESHOLD = 0.95;
+
+    private static final CompressionPolicy DEFAULT = new CompressionPolicy(Deflater.DEFAULT_COMPRESSION, 0);
+
+    private final int level;
+    private final int probeSize;
+
+    private CompressionPolicy(int level, int probeSize) {
+        this.level = level;
+        this.probeSize = probeSize;
+    }
+
+    /**
+     * Compress all files with zlib default compression level. This is the default policy.
+     * @return default CompressionPolicy
+     */
+    public static CompressionPolicy defaultPolicy() {
+        return DEFAULT;
+    }
+
+    /**
+     * Compress all files with the same compression level
+     * @param level compression level, {@link Deflater#DEFAULT_COMPRESSION} or between
+     *              {@link Deflater#NO_COMPRESSION} and {@link Deflater#BEST_COMPRESSION}
+     * @return CompressionPolicy with fixed level
+     */
+    public static CompressionPolicy level(int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            && (level != Deflater.DEFAULT_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        return new CompressionPolicy(level, 0);
+    }
+
+    /**
+     * Store all files without compression
+     * @return CompressionPolicy with {@link Deflater#NO_COMPRESSION} level
+     */
+    public static CompressionPolicy store() {
+        return level(Deflater.NO_COMPRESSION);
+    }
+
+    /**
+     * Choose store or default compression for each file by compressing first {@link #DEFAULT_PROBE_SIZE} bytes
+     * @return auto CompressionPolicy
+     */
+    public static CompressionPolicy auto() {
+        return auto(DEFAULT_PROBE_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Choose store or {@code level} compression for each file by compressing first {@code probeSizeBytes} bytes
+     * @param probeSizeBytes bytes to probe from the beginning of each file, positive
+     * @param level compression level used for compressible files, see {@link #level(int)}
+     * @return auto CompressionPolicy
+     */
+    public static CompressionPolicy auto(int probeSizeBytes, int level) {
+        if (probeSizeBytes <= 0) {
+            throw new IllegalArgumentException("Invalid probe size " + probeSizeBytes);
+        }
+        return new CompressionPolicy(level(level).level, probeSizeBytes);
+    }
+
+    public boolean isAuto() {
+        return probeSize > 0;
+    }
+
+    /**
+     * @return compression level for compressible files
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return bytes probed from the beginning of each file in auto mode, 0 when policy is not auto
+     */
+    public int getProbeSize() {
+        return probeSize;
+    }
+
+    /**
+     * Choose compression level for data starting with probe
+     * @param probe first (up to {@link #getProbeSize()}) bytes of data to be compressed
+     * @return compression level for the data
+     */
+    int levelFor(byte[] probe) {
+        if (!isAuto() || (probe.length == 0)) {
+            return level;
+        }
+
+        return isCompressible(probe) ? level : Deflater.NO_COMPRESSION;
+    }
+
+    private static boolean isCompressible(byte[] probe) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(probe);
+            deflater.finish();
+            byte[] out = new byte[probe.length];
+            long maxCompressed = (long) (probe.length * STORE_RATIO_THRESHOLD);
+            while (!deflater.finished()) {
+                deflater.deflate(out);
+                if (deflater.getBytesWritten() > maxCompressed) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isAuto()
+            ? "CompressionPolicy{auto, level=" + level + ", probeSize=" + probeSize + '}'
+            : "CompressionPolicy{level=" + level + '}';
+    }
+}
@@ -0,0 +1,26 @@
+package ee.cyber.cdoc2.container;
+
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+
+
+/**
+ * Item published by {@link Envelope#decryptToPublisher}. For each payload entry, entry header item (data is null)
+ * is published first, followed by zero or more data items of the same entry.
+ * <p>
+ * Payload is authenticated (Poly1305 MAC is checked) only at the end of the payload, so published data must be
+ * considered unauthenticated until {@link java.util.concurrent.Flow.Subscriber#onComplete()} is received.
+ * @param entry payload (tar) entry
+ * @param data read-only chunk of entry data, null for entry header item
+ */
+public record DecryptedItem(ArchiveEntry entry, @Nullable ByteBuffer data) {
+
+    /**
+     * @return true if this item starts new entry and has no data
+     */
+    public boolean isEntryHeader() {
+        return data == null;
+    }
+}
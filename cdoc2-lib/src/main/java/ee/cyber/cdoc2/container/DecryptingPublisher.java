@@ -0,0 +1,209 @@
+package ee.cyber.cdoc2.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * {@link Flow.Publisher} of decrypted payload entries. Payload is decrypted on executor, when subscriber has
+ * subscribed. Decryption is blocked while subscriber has no outstanding demand (backpressure).
+ * <p>
+ * Only single subscriber is supported, as payload can be decrypted only once. Publisher completes after
+ * the whole payload was processed and Poly1305 MAC was checked; any decryption, tar or MAC check error is
+ * signalled with {@link Flow.Subscriber#onError(Throwable)}. After cancel, decryption stops without reading the
+ * rest of the payload (nothing is published after cancel, so MAC is not checked) and no more signals are sent.
+ */
+final class DecryptingPublisher implements Flow.Publisher<DecryptedItem> {
+
+    private static final Logger log = LoggerFactory.getLogger(DecryptingPublisher.class);
+
+    /**
+     * Process (decrypt) container with delegate. Returns normally only after payload MAC has been checked.
+     */
+    @FunctionalInterface
+    interface ContainerProcessor {
+        void process(TarEntryProcessingDelegate delegate) throws Exception;
+    }
+
+    private final ContainerProcessor processor;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    DecryptingPublisher(ContainerProcessor processor, Executor executor) {
+        this.processor = Objects.requireNonNull(processor);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DecryptedItem> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // already terminated
+                }
+
+                @Override
+                public void cancel() {
+                    // already terminated
+                }
+            });
+            subscriber.onError(new IllegalStateException("Publisher supports only single subscriber"));
+            return;
+        }
+
+        DecryptingSubscription subscription = new DecryptingSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        try {
+            executor.execute(subscription::run);
+        } catch (RejectedExecutionException ex) {
+            subscriber.onError(ex);
+        }
+    }
+
+    /**
+     * Subscription that is also {@link TarEntryProcessingDelegate}. Delegate methods are called from decrypting
+     * thread, and only decrypting thread signals subscriber.
+     */
+    private final class DecryptingSubscription implements Flow.Subscription, TarEntryProcessingDelegate {
+
+        private final Flow.Subscriber<? super DecryptedItem> subscriber;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition demandChanged = lock.newCondition();
+        private long demand;
+        private boolean cancelled;
+
+        /** non-positive request, signalled as onError after processing has stopped */
+        @Nullable
+        private IllegalArgumentException invalidRequest;
+
+        private TarArchiveEntry currentEntry;
+
+        DecryptingSubscription(Flow.Subscriber<? super DecryptedItem> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void run() {
+            Exception processingException = null;
+            try {
+                processor.process(this);
+            } catch (Exception ex) {
+                processingException = ex;
+            }
+
+            lock.lock();
+            boolean wasCancelled = cancelled;
+            IllegalArgumentException requestException = invalidRequest;
+            lock.unlock();
+
+            if (requestException != null) {
+                subscriber.onError(requestException);
+            } else if (wasCancelled) {
+                log.debug("Subscription cancelled");
+            } else if (processingException != null) {
+                subscriber.onError(processingException);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (n <= 0) {
+                    invalidRequest = new IllegalArgumentException("Non-positive request " + n);
+                    cancelled = true;
+                } else {
+                    demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                }
+                demandChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                demandChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void publish(DecryptedItem item) throws IOException {
+            lock.lock();
+            try {
+                while ((demand == 0) && !cancelled) {
+                    demandChanged.await();
+                }
+                if (cancelled) {
+                    throw new CancellationException("Subscription cancelled");
+                }
+                demand--;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for demand");
+            } finally {
+                lock.unlock();
+            }
+
+            subscriber.onNext(item);
+        }
+
+        @Override
+        public OP getType() {
+            return OP.STREAM;
+        }
+
+        @Nullable
+        @Override
+        public File onTarEntry(TarArchiveEntry tarEntry) throws IOException {
+            FileNameValidator.validate(tarEntry.getName());
+            currentEntry = tarEntry;
+            publish(new DecryptedItem(tarEntry, null));
+            return null;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            if (len > 0) {
+                // buf is reused by caller
+                publish(new DecryptedItem(currentEntry,
+                    ByteBuffer.wrap(Arrays.copyOfRange(buf, off, off + len)).asReadOnlyBuffer()));
+            }
+        }
+
+        @Override
+        public boolean onEndOfTarEntry() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public File getOutputDir() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ee.cyber.cdoc2.container;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Guards that extraction doesn't fill disk over disk usage threshold
+ * ({@link ee.cyber.cdoc2.CDocConfiguration#DISK_USAGE_THRESHOLD_PROPERTY}). Instead of querying file system for
+ * every written buffer or entry, usable space is probed when the first entry starts and then again after a number
+ * of bytes is written. Bytes written between probes never exceed half of the remaining headroom (bytes that can be
+ * written, before disk usage reaches threshold), so that threshold can't be crossed unnoticed by extraction. Single
+ * guard is used for all entries of an archive, so that the budget of bytes between probes carries across entries.
+ */
+final class DiskUsageGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskUsageGuard.class);
+
+    @Nullable
+    private final LongSupplier usableSpace;
+    private final double diskUsageThreshold;
+    private final long probeIntervalBytes;
+    private final long totalSpace;
+
+    private boolean probed;
+    private long headroom;
+    private long writtenSinceProbe;
+    private long nextProbeAfter;
+    private long probeCount;
+
+    /**
+     * @param destDir directory (and partition) where disk usage is checked. If null or doesn't exist, then
+     *                disk usage is not checked
+     * @param diskUsageThreshold max disk used percentage
+     * @param probeIntervalBytes max bytes written between probes
+     */
+    DiskUsageGuard(@Nullable File destDir, double diskUsageThreshold, long probeIntervalBytes) {
+        this(usableSpaceOf(destDir), totalSpaceOf(destDir), diskUsageThreshold, probeIntervalBytes);
+    }
+
+    /**
+     * @param usableSpace returns usable space of the partition in bytes, null if disk usage is not checked
+     * @param totalSpace total space of the partition in bytes
+     * @param diskUsageThreshold max disk used percentage
+     * @param probeIntervalBytes max bytes written between probes
+     */
+    DiskUsageGuard(@Nullable LongSupplier usableSpace, long totalSpace, double diskUsageThreshold,
+                   long probeIntervalBytes) {
+        if (probeIntervalBytes <= 0) {
+            throw new IllegalArgumentException("Invalid probe interval " + probeIntervalBytes);
+        }
+        this.usableSpace = usableSpace;
+        this.diskUsageThreshold = diskUsageThreshold;
+        this.probeIntervalBytes = probeIntervalBytes;
+        this.totalSpace = totalSpace;
+    }
+
+    /**
+     * Create guard configured from system properties
+     * @param destDir directory where files are extracted, null when output is not written to file system
+     * @return DiskUsageGuard
+     */
+    static DiskUsageGuard forDir(@Nullable File destDir) {
+        return new DiskUsageGuard(destDir, Tar.getDiskUsedPercentageThreshold(), Tar.getDiskUsageProbeInterval());
+    }
+
+    /**
+     * Called before entry is written. Checks that entry fits under threshold. Disk usage is probed only for the
+     * first entry and when entry doesn't fit into headroom left from the last probe.
+     * @param declaredSize entry size from tar header
+     * @throws IllegalStateException if disk usage is over threshold or entry doesn't fit under threshold
+     */
+    void onEntry(long declaredSize) {
+        if (!probed || (declaredSize > headroom - writtenSinceProbe)) {
+            probe();
+        }
+        if (declaredSize > headroom - writtenSinceProbe) {
+            throw overThreshold();
+        }
+    }
+
+    /**
+     * Called after bytes were written. Probes disk usage, when enough bytes were written since last probe.
+     * @param bytes number of bytes written
+     * @throws IllegalStateException if disk usage is over threshold
+     */
+    void onWrite(long bytes) {
+        writtenSinceProbe += bytes;
+        if (writtenSinceProbe >= nextProbeAfter) {
+            probe();
+        }
+    }
+
+    /**
+     * @return number of times disk usage was probed
+     */
+    long getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * Query usable space, update headroom (bytes that can be written before disk usage reaches threshold) and
+     * schedule next probe
+     */
+    private void probe() {
+        probed = true;
+        writtenSinceProbe = 0;
+        if ((usableSpace == null) || (totalSpace <= 0)) {
+            headroom = Long.MAX_VALUE;
+            nextProbeAfter = Long.MAX_VALUE;
+            return;
+        }
+
+        probeCount++;
+        long usable = usableSpace.getAsLong();
+        double usedPercentage = (double) (totalSpace - usable) / (double) totalSpace * 100;
+        if (usedPercentage >= diskUsageThreshold) {
+            throw overThreshold();
+        }
+
+        headroom = (long) (totalSpace * (diskUsageThreshold - usedPercentage) / 100);
+        nextProbeAfter = Math.max(1, Math.min(probeIntervalBytes, headroom / 2));
+        log.trace("Disk used {}%, next probe after {}B", usedPercentage, nextProbeAfter);
+    }
+
+    @Nullable
+    private static LongSupplier usableSpaceOf(@Nullable File destDir) {
+        return ((destDir != null) && destDir.exists()) ? destDir::getUsableSpace : null;
+    }
+
+    private static long totalSpaceOf(@Nullable File destDir) {
+        return ((destDir != null) && destDir.exists()) ? destDir.getTotalSpace() : 0;
+    }
+
+    private IllegalStateException overThreshold() {
+        String err = String.format("More than  %.2f%% disk space used. Aborting", diskUsageThreshold);
+        log.error(err);
+        return new IllegalStateException(err);
+    }
+}
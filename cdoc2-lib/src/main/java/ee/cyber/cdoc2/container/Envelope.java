@@ -5,19 +5,28 @@ import com.google.flatbuffers.FlatBufferBuilder;
 import ee.cyber.cdoc2.container.recipients.Recipient;
 import ee.cyber.cdoc2.container.recipients.RecipientDeserializer;
 import ee.cyber.cdoc2.container.recipients.RecipientFactory;
+import ee.cyber.cdoc2.container.recipients.ServerRecipient;
+import ee.cyber.cdoc2.container.recipients.ValidatedRecipientKeys;
 import ee.cyber.cdoc2.CDocException;
+import ee.cyber.cdoc2.CDocUserException;
 import ee.cyber.cdoc2.client.ExtApiException;
 import ee.cyber.cdoc2.client.KeyCapsuleClient;
 import ee.cyber.cdoc2.client.KeyCapsuleClientFactory;
 import ee.cyber.cdoc2.crypto.ChaChaCipher;
 import ee.cyber.cdoc2.crypto.Crypto;
+import ee.cyber.cdoc2.crypto.ECKeys;
+import ee.cyber.cdoc2.crypto.RsaUtils;
+import ee.cyber.cdoc2.crypto.SegmentedChaChaCipher;
+import ee.cyber.cdoc2.crypto.SegmentedChaChaSeekableReader;
 import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
 import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
 import ee.cyber.cdoc2.fbs.header.FMKEncryptionMethod;
 import ee.cyber.cdoc2.fbs.header.Header;
+import ee.cyber.cdoc2.fbs.header.PayloadCompressionMethod;
 import ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod;
 import ee.cyber.cdoc2.fbs.header.RecipientRecord;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -25,22 +34,34 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HexFormat;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import javax.annotation.Nullable;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.compressors.deflate.DeflateParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,6 +91,10 @@ public final class Envelope {
 
     public static final int MAX_HEADER_LEN = 1024 * 1024; //1MB
 
+    /** prelude, version, header length, max header, hmac and at least one payload byte */
+    private static final long MAX_HEADER_REGION_LEN = PRELUDE.length + 1L + Integer.BYTES + MAX_HEADER_LEN
+        + Crypto.HHK_LEN_BYTES + 1;
+
     /**Minimal valid envelope size in bytes*/
     public static final int MIN_ENVELOPE_SIZE = PRELUDE.length
         + Byte.BYTES //version 0x02
@@ -78,20 +103,19 @@ public final class Envelope {
         + Crypto.HHK_LEN_BYTES
         + MIN_PAYLOAD_LEN;
 
-    // payload encryption method
-    private static final byte PAYLOAD_ENC_BYTE = PayloadEncryptionMethod.CHACHA20POLY1305;
-
     //FMK encryption method
     public static final byte FMK_ENC_METHOD_BYTE = FMKEncryptionMethod.XOR;
 
     private final Recipient[] recipients;
     private final SecretKey hmacKey;
     private final SecretKey cekKey;
+    private final PayloadOptions payloadOptions;
 
-    private Envelope(Recipient[] recipients, byte[] fmk) {
+    private Envelope(Recipient[] recipients, byte[] fmk, PayloadOptions payloadOptions) {
         this.recipients = recipients;
         this.hmacKey = Crypto.deriveHeaderHmacKey(fmk);
         this.cekKey = Crypto.deriveContentEncryptionKey(fmk);
+        this.payloadOptions = payloadOptions;
     }
 
     /**
@@ -113,15 +137,82 @@ public final class Envelope {
         @Nullable KeyCapsuleClient capsuleClient
     ) throws GeneralSecurityException, ExtApiException {
 
+        return prepare(recipients, capsuleClient, new PayloadOptions());
+    }
+
+    /**
+     * Prepare Envelope for encryption with payload options.
+     * @param recipients encryption key material either with public key or symmetric key and key label
+     * @param capsuleClient if capsuleClient is provided then store generated ephemeral key material in the server
+     * @param payloadOptions payload creation options, e.g. segmented payload encryption
+     * @return Envelope that has key material prepared and can be used for
+     *          {@link #encrypt(List, OutputStream) encryption}
+     * @throws GeneralSecurityException if fmk generation has failed
+     * @throws ExtApiException if communication with capsuleClient to store ephemeral key material fails
+     * @see #prepare(List, KeyCapsuleClient)
+     */
+    public static Envelope prepare(
+        List<EncryptionKeyMaterial> recipients,
+        @Nullable KeyCapsuleClient capsuleClient,
+        PayloadOptions payloadOptions
+    ) throws GeneralSecurityException, ExtApiException {
+
         Objects.requireNonNull(recipients);
+        validatePayloadOptions(payloadOptions);
 
         byte[] fmk = Crypto.generateFileMasterKey();
         return new Envelope(
-            RecipientFactory.buildRecipients(fmk, recipients, capsuleClient),
-            fmk
+            RecipientFactory.buildRecipients(fmk, recipients, capsuleClient, getRecipientExecutor(payloadOptions)),
+            fmk,
+            payloadOptions
         );
     }
 
+    /**
+     * Prepare Envelope for encryption for recipients, whose keys were already validated. Used for creating many
+     * envelopes for the same recipients, each envelope gets its own FMK.
+     * @param recipients validated encryption key material
+     * @param capsuleClient if capsuleClient is provided then store generated ephemeral key material in the server
+     * @param payloadOptions payload creation options, e.g. segmented payload encryption
+     * @return Envelope that has key material prepared and can be used for
+     *          {@link #encrypt(List, OutputStream) encryption}
+     * @throws GeneralSecurityException if fmk generation has failed
+     * @throws ExtApiException if communication with capsuleClient to store ephemeral key material fails
+     * @see #prepare(List, KeyCapsuleClient, PayloadOptions)
+     */
+    public static Envelope prepare(
+        ValidatedRecipientKeys recipients,
+        @Nullable KeyCapsuleClient capsuleClient,
+        PayloadOptions payloadOptions
+    ) throws GeneralSecurityException, ExtApiException {
+
+        Objects.requireNonNull(recipients);
+        validatePayloadOptions(payloadOptions);
+
+        byte[] fmk = Crypto.generateFileMasterKey();
+        return new Envelope(
+            RecipientFactory.buildRecipients(fmk, recipients, capsuleClient, getRecipientExecutor(payloadOptions)),
+            fmk,
+            payloadOptions
+        );
+    }
+
+    @Nullable
+    private static Executor getRecipientExecutor(PayloadOptions payloadOptions) {
+        return payloadOptions.isParallelRecipients() ? payloadOptions.getExecutor() : null;
+    }
+
+    private static void validatePayloadOptions(PayloadOptions payloadOptions) {
+        Objects.requireNonNull(payloadOptions);
+        if (payloadOptions.isEntryIndex() && !payloadOptions.isSegmented()) {
+            throw new IllegalArgumentException("Payload entry index requires segmented payload encryption");
+        }
+        if (payloadOptions.isEntryIndex()
+            && (payloadOptions.getPayloadCompressionMethod() != PayloadCompressionMethod.ZLIB)) {
+            throw new IllegalArgumentException("Payload entry index requires zlib payload compression");
+        }
+    }
+
     /**
      * Read envelope header until HMAC start and return FlatBuffers header
      * @param envelopeIs input stream that contain CDOC
@@ -155,6 +246,41 @@ public final class Envelope {
         return envelopeIs.readNBytes(headerLen);
     }
 
+    /**
+     * Read envelope header until HMAC start and return FlatBuffers header. Same as
+     * {@link #readFBSHeader(InputStream)}, but reads from buffer (memory mapped file region).
+     * @param envelopeBuf buffer that contains CDOC, after return positioned at HMAC start
+     * @return byte array containing FlatBuffers header
+     * @throws CDocParseException if a CDOC parsing error has occurred
+     */
+    static byte[] readFBSHeader(ByteBuffer envelopeBuf) throws CDocParseException {
+        if (envelopeBuf.remaining() < MIN_ENVELOPE_SIZE) {
+            throw new CDocParseException("not enough bytes to read, expected min of " + MIN_ENVELOPE_SIZE);
+        }
+
+        byte[] prelude = new byte[PRELUDE.length];
+        envelopeBuf.get(prelude);
+        if (!Arrays.equals(PRELUDE, prelude)) {
+            throw new CDocParseException("stream is not CDOC");
+        }
+
+        byte version = envelopeBuf.get();
+        if (VERSION != version) {
+            throw new CDocParseException("Unsupported CDOC version " + version);
+        }
+
+        int headerLen = envelopeBuf.order(ByteOrder.BIG_ENDIAN).getInt();
+
+        if ((envelopeBuf.remaining() < headerLen + Crypto.HHK_LEN_BYTES)
+            || (headerLen < MIN_HEADER_LEN) || (headerLen > MAX_HEADER_LEN))  {
+            throw new CDocParseException("invalid CDOC header length: " + headerLen);
+        }
+
+        byte[] fbsHeaderBytes = new byte[headerLen];
+        envelopeBuf.get(fbsHeaderBytes);
+        return fbsHeaderBytes;
+    }
+
     /**
      * Parse header section from CDOC2.
      * @param envelopeIs InputStream that contains CDOC2 file (envelope)
@@ -176,17 +302,30 @@ public final class Envelope {
 
         List<Recipient> recipientList = new LinkedList<>();
         for (int i = 0; i < header.recipientsLength(); i++) {
-            RecipientRecord r = header.recipients(i);
-
-            try {
-                recipientList.add(RecipientDeserializer.deserialize(r));
-            } catch (UnknownFlatBufferTypeException e) { //ignore unknown recipients
-                log.warn("Unknown Capsule type {}. Ignoring.", r.capsuleType());
+            Recipient recipient = deserializeRecipient(header.recipients(i));
+            if (recipient != null) {
+                recipientList.add(recipient);
             }
         }
         return recipientList;
     }
 
+    /**
+     * Deserialize recipient record
+     * @return deserialized recipient or null, if recipient record type is unknown
+     */
+    @Nullable
+    private static Recipient deserializeRecipient(RecipientRecord r)
+        throws CDocParseException, GeneralSecurityException {
+
+        try {
+            return RecipientDeserializer.deserialize(r);
+        } catch (UnknownFlatBufferTypeException e) { //ignore unknown recipients
+            log.warn("Unknown Capsule type {}. Ignoring.", r.capsuleType());
+            return null;
+        }
+    }
+
     /**
      * Deserialize FlatBuffers header
      * @param buf buffer containing FlatBuffers header
@@ -222,8 +361,45 @@ public final class Envelope {
         throws IOException, GeneralSecurityException {
 
         log.trace("encrypt");
-        try (CipherOutputStream cipherOutputStream = prepareContainerForPayload(os)) {
-            Tar.archiveFiles(cipherOutputStream, payloadFiles);
+        try (OutputStream cipherOutputStream = prepareContainerForPayload(os)) {
+            if (payloadOptions.isEntryIndex()) {
+                Tar.archiveFilesWithIndex(cipherOutputStream, payloadFiles, payloadOptions.getBufferSize(),
+                    payloadOptions.getCompressionPolicy());
+            } else if (payloadOptions.isParallelCompression()
+                && (payloadOptions.getPayloadCompressionMethod() == PayloadCompressionMethod.ZLIB)) {
+                Tar.archiveFilesParallel(cipherOutputStream, payloadFiles, payloadOptions.getBufferSize(),
+                    payloadOptions.getCompressionPolicy(), payloadOptions.getExecutor());
+            } else {
+                Tar.archiveFiles(cipherOutputStream, payloadFiles, payloadOptions.getPayloadCompressionMethod(),
+                    payloadOptions.getBufferSize(), payloadOptions.getCompressionPolicy());
+            }
+        }
+    }
+
+    /**
+     * Encrypt payload entries. Create CDOC2 container and write it to OutputStream. Entry data is streamed
+     * from entry InputStreams into the container, temporary files are not created.
+     * @param payloadEntries entries to be encrypted and added to the container
+     * @param os           OutputStream to write CDOC2 container
+     * @throws IOException if an I/O error has occurred or entry data size doesn't match entry size
+     * @throws GeneralSecurityException if HMAC calculation or CipherOutputStream initialization
+     *                                  has failed
+     * @throws IllegalArgumentException if payload entry index is enabled, as it's not supported for entries
+     */
+    public void encryptEntries(List<PayloadEntry> payloadEntries, OutputStream os)
+        throws IOException, GeneralSecurityException {
+
+        log.trace("encryptEntries");
+        if (payloadOptions.isEntryIndex()) {
+            throw new IllegalArgumentException("Payload entry index is not supported for payload entries");
+        }
+
+        Executor compressionExecutor = payloadOptions.isParallelCompression()
+            ? payloadOptions.getExecutor()
+            : null;
+        try (OutputStream cipherOutputStream = prepareContainerForPayload(os)) {
+            Tar.archiveEntries(cipherOutputStream, payloadEntries, payloadOptions.getPayloadCompressionMethod(),
+                payloadOptions.getBufferSize(), payloadOptions.getCompressionPolicy(), compressionExecutor);
         }
     }
 
@@ -267,7 +443,7 @@ public final class Envelope {
 
         Envelope newContainer = Envelope.prepare(List.of(reEncryptionKeyMaterial), null);
 
-        try (CipherOutputStream cipherOs = newContainer.prepareContainerForPayload(destReEncryptedCdoc);
+        try (OutputStream cipherOs = newContainer.prepareContainerForPayload(destReEncryptedCdoc);
             TarArchiveOutputStream transferToOs = Tar.createPosixTarZArchiveOutputStream(cipherOs)) {
 
             processContainer(cdocInputStream,
@@ -281,10 +457,11 @@ public final class Envelope {
      * Write CDOC header, HMAC to os and initialize cipher output stream for encryption.
      * Will use cekKey  created {@link Envelope#prepare(List, KeyCapsuleClient)}
      * @param os OutputStream to write CDOC2 container
-     * @return CipherOutputStream constructed from CEK and os.
-     *         Ready to write (encrypt) data. {@link CipherOutputStream#close()} must be called by caller.
+     * @return OutputStream constructed from CEK and os, either CipherOutputStream or segmented cipher stream
+     *         depending on payload options. Ready to write (encrypt) data. {@link OutputStream#close()}
+     *         must be called by caller.
      */
-    private CipherOutputStream prepareContainerForPayload(OutputStream os)
+    private OutputStream prepareContainerForPayload(OutputStream os)
         throws IOException, GeneralSecurityException {
 
         os.write(PRELUDE);
@@ -304,6 +481,10 @@ public final class Envelope {
         os.write(hmac);
         byte[] additionalData = getAdditionalData(headerBytes, hmac);
 
+        if (payloadOptions.isSegmented()) {
+            return SegmentedChaChaCipher.initOutputStream(os, cekKey, additionalData,
+                payloadOptions.getSegmentSize(), payloadOptions.getExecutor());
+        }
         return ChaChaCipher.initChaChaOutputStream(os, cekKey, additionalData);
     }
 
@@ -327,32 +508,150 @@ public final class Envelope {
         @Nullable KeyCapsuleClientFactory capsulesClientFac
     ) throws GeneralSecurityException, IOException, CDocException {
 
-        CountingInputStream containerIs = new CountingInputStream(cdocInputStream);
+        int bufferSize = Tar.getBufferSize();
+        // cipher streams read underlying stream in small blocks, buffer to reduce read calls
+        BufferedInputStream bufferedIs = new BufferedInputStream(cdocInputStream, bufferSize);
+        CountingInputStream containerIs = new CountingInputStream(bufferedIs);
+        DecryptedHeader decryptedHeader = decryptHeader(containerIs, bufferedIs, keyMaterial, capsulesClientFac);
+
+        byte compressionMethod = getPayloadCompressionMethod(decryptedHeader.header());
+        InputStream payloadIs = initPayloadInputStream(
+            containerIs, decryptedHeader.header(), decryptedHeader.cekKey(), decryptedHeader.additionalData(),
+            ForkJoinPool.commonPool()
+        );
+        return processPayload(containerIs, payloadIs, compressionMethod, tarProcessingDelegate, bufferSize);
+    }
+
+    /**
+     * Header that was read from CDOC2 and authenticated (HMAC checked) with recipient key material
+     * @param header parsed FlatBuffers header
+     * @param cekKey content encryption key
+     * @param additionalData used to initialize ChaChaCipher AAD
+     */
+    private record DecryptedHeader(Header header, SecretKey cekKey, byte[] additionalData) {
+    }
+
+    /**
+     * Read CDOC2 header and HMAC, find recipient for keyMaterial and decrypt FMK. Check header HMAC.
+     * For key server recipients, key capsule is requested from key server as soon as recipient is found and
+     * rest of the header (and start of the payload, when readAheadIs is set) is read while waiting for response.
+     * @param containerIs InputStream containing CDOC2. After return, position is just before payload.
+     * @param readAheadIs underlying buffered stream of containerIs, used to buffer start of the payload while
+     *                    waiting for key server. May be null.
+     * @param keyMaterial decryption key material
+     * @param capsulesClientFac configured key servers clients factory for decryption
+     * @return authenticated header and content encryption key
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if header is in invalid format or recipient is not found
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    private static DecryptedHeader decryptHeader(
+        CountingInputStream containerIs,
+        @Nullable BufferedInputStream readAheadIs,
+        DecryptionKeyMaterial keyMaterial,
+        @Nullable KeyCapsuleClientFactory capsulesClientFac
+    ) throws GeneralSecurityException, IOException, CDocException {
+
         byte[] fbsHeaderBytes = readFBSHeader(containerIs);
+        Header header = deserializeFBSHeader(fbsHeaderBytes);
+        Recipient recipient = findRecipient(header, keyMaterial);
+
+        KeyCapsuleClientFactory clientFac = capsulesClientFac;
+        if (capsulesClientFac != null && recipient instanceof ServerRecipient serverRecipient
+            && serverRecipient.getKeyServerId() != null && serverRecipient.getTransactionId() != null) {
+            try {
+                clientFac = PrefetchedCapsuleClient.prefetch(capsulesClientFac, serverRecipient.getKeyServerId(),
+                    serverRecipient.getTransactionId());
+            } catch (CDocUserException ex) {
+                // server not configured, reported by recipient.deriveKek
+                log.debug("Key capsule not prefetched: {}", ex.getMessage());
+            }
+        }
+
         byte[] hmac = readHmac(containerIs);
+        if (readAheadIs != null && clientFac != capsulesClientFac) {
+            readAhead(readAheadIs, Tar.getBufferSize());
+        }
+        DecryptedHeader decryptedHeader = decryptHeader(header, fbsHeaderBytes, hmac, recipient, keyMaterial,
+            clientFac);
+
+        log.debug("Processed {} header bytes", containerIs.getByteCount());
+        log.debug("payload available (at least) {}", containerIs.available());
+        return decryptedHeader;
+    }
+
+    /**
+     * Find recipient for keyMaterial from FlatBuffers header and decrypt FMK. Check header HMAC.
+     * @param fbsHeaderBytes FlatBuffers header read from CDOC2
+     * @param hmac header HMAC read from CDOC2
+     * @param keyMaterial decryption key material
+     * @param capsulesClientFac configured key servers clients factory for decryption
+     * @return authenticated header and content encryption key
+     */
+    private static DecryptedHeader decryptHeader(
+        byte[] fbsHeaderBytes,
+        byte[] hmac,
+        DecryptionKeyMaterial keyMaterial,
+        @Nullable KeyCapsuleClientFactory capsulesClientFac
+    ) throws GeneralSecurityException, IOException, CDocException {
+
         Header header = deserializeFBSHeader(fbsHeaderBytes);
-        List<Recipient> recipients = getRecipients(header);
+        Recipient recipient = findRecipient(header, keyMaterial);
+        return decryptHeader(header, fbsHeaderBytes, hmac, recipient, keyMaterial, capsulesClientFac);
+    }
+
+    private static DecryptedHeader decryptHeader(
+        Header header,
+        byte[] fbsHeaderBytes,
+        byte[] hmac,
+        Recipient recipient,
+        DecryptionKeyMaterial keyMaterial,
+        @Nullable KeyCapsuleClientFactory capsulesClientFac
+    ) throws GeneralSecurityException, IOException, CDocException {
 
-        for (Recipient recipient : recipients) {
-            if (recipient.getRecipientId().equals(keyMaterial.getRecipientId())) {
-                byte[] kek = recipient.deriveKek(keyMaterial, capsulesClientFac);
-                byte[] fmk = decryptRecipientFmk(recipient, kek);
+        byte[] kek = recipient.deriveKek(keyMaterial, capsulesClientFac);
+        byte[] fmk = decryptRecipientFmk(recipient, kek);
 
-                SecretKey hmacKey = Crypto.deriveHeaderHmacKey(fmk);
-                SecretKey cekKey = Crypto.deriveContentEncryptionKey(fmk);
+        SecretKey hmacKey = Crypto.deriveHeaderHmacKey(fmk);
+        SecretKey cekKey = Crypto.deriveContentEncryptionKey(fmk);
 
-                checkHmac(hmac, fbsHeaderBytes, hmacKey);
+        checkHmac(hmac, fbsHeaderBytes, hmacKey);
+        return new DecryptedHeader(header, cekKey, getAdditionalData(fbsHeaderBytes, hmac));
+    }
 
-                log.debug("Processed {} header bytes", containerIs.getByteCount());
-                log.debug("payload available (at least) {}", containerIs.available());
+    /**
+     * Find recipient for keyMaterial from header
+     * @param header parsed FlatBuffers header
+     * @param keyMaterial decryption key material
+     * @return recipient matching keyMaterial recipient id
+     * @throws CDocParseException if header is in invalid format or recipient is not found
+     */
+    private static Recipient findRecipient(Header header, DecryptionKeyMaterial keyMaterial)
+        throws GeneralSecurityException, CDocParseException {
+
+        // Public key recipients are matched by raw recipient public key bytes, so that only the matching record
+        // is deserialized (decoding EC public key includes expensive EC point validation)
+        Object recipientId = keyMaterial.getRecipientId();
+        boolean publicKeyMaterial = recipientId instanceof PublicKey;
+        ByteBuffer encodedPublicKey = publicKeyMaterial ? encodeRecipientPublicKey((PublicKey) recipientId) : null;
+
+        for (int i = 0; i < header.recipientsLength(); i++) {
+            RecipientRecord r = header.recipients(i);
+            ByteBuffer recordPublicKey = RecipientDeserializer.getRecipientPublicKey(r);
+
+            boolean candidate;
+            if (encodedPublicKey != null) {
+                candidate = encodedPublicKey.equals(recordPublicKey);
+            } else {
+                // public key that can't be encoded is compared to all records, labels only to non public key
+                candidate = publicKeyMaterial || recordPublicKey == null;
+            }
 
-                if (header.payloadEncryptionMethod() == PayloadEncryptionMethod.CHACHA20POLY1305) {
-                    return processPayload(
-                        containerIs, cekKey, getAdditionalData(fbsHeaderBytes, hmac), tarProcessingDelegate
-                    );
-                } else {
-                    throw new CDocParseException("Unknown payload encryption method "
-                        + header.payloadEncryptionMethod());
+            if (candidate) {
+                Recipient recipient = deserializeRecipient(r);
+                if (recipient != null && recipient.getRecipientId().equals(recipientId)) {
+                    return recipient;
                 }
             }
         }
@@ -361,6 +660,83 @@ public final class Envelope {
         throw new CDocParseException("Recipient " + keyMaterial.getRecipientId() + " not found, cannot decrypt");
     }
 
+    /**
+     * Encode recipient public key as it is stored in recipient record
+     * @param publicKey recipient public key
+     * @return TLS 1.3 encoded EC or DER encoded RSA public key, null if key can't be encoded
+     */
+    @Nullable
+    private static ByteBuffer encodeRecipientPublicKey(PublicKey publicKey) {
+        try {
+            if (publicKey instanceof ECPublicKey ecPublicKey) {
+                return ByteBuffer.wrap(ECKeys.encodeEcPubKeyForTls(ecPublicKey));
+            } else if (publicKey instanceof RSAPublicKey rsaPublicKey) {
+                return ByteBuffer.wrap(RsaUtils.encodeRsaPubKey(rsaPublicKey));
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            log.debug("Failed to encode recipient public key: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Fill buffer of bufferedIs without consuming bytes from it
+     * @param bufferedIs buffered stream positioned at the start of payload
+     * @param len number of bytes to buffer, not more than bufferedIs buffer size
+     */
+    private static void readAhead(BufferedInputStream bufferedIs, int len) throws IOException {
+        bufferedIs.mark(len);
+        bufferedIs.readNBytes(len);
+        bufferedIs.reset();
+    }
+
+    /**
+     * Init decrypting input stream for payload encryption method defined in header
+     * @param containerIs InputStream containing CDOC2. InputStream position is just before payload.
+     * @param header parsed header
+     * @param cekKey content encryption key decrypted from header
+     * @param additionalData used to initialize ChaChaCipher AAD
+     * @param segmentExecutor executor where segmented payload is decrypted
+     * @return InputStream that decrypts payload
+     * @throws CDocParseException if payload encryption method is unknown or its parameters are invalid
+     */
+    private static InputStream initPayloadInputStream(
+        InputStream containerIs,
+        Header header,
+        SecretKey cekKey,
+        byte[] additionalData,
+        Executor segmentExecutor
+    ) throws GeneralSecurityException, IOException, CDocParseException {
+
+        byte method = header.payloadEncryptionMethod();
+        if (method == PayloadEncryptionMethod.CHACHA20POLY1305) {
+            return ChaChaCipher.initChaChaInputStream(containerIs, cekKey, additionalData);
+        } else if (method == PayloadEncryptionMethod.CHACHA20POLY1305_SEGMENTED) {
+            long segmentSize = header.payloadSegmentSize();
+            if (!SegmentedChaChaCipher.isValidSegmentSize(segmentSize)) {
+                throw new CDocParseException("Invalid payload segment size " + segmentSize);
+            }
+            return SegmentedChaChaCipher.initInputStream(containerIs, cekKey, additionalData,
+                (int) segmentSize, segmentExecutor);
+        } else {
+            throw new CDocParseException("Unknown payload encryption method " + method);
+        }
+    }
+
+    /**
+     * Get payload compression method from header
+     * @param header parsed header
+     * @return {@link PayloadCompressionMethod}
+     * @throws CDocParseException if payload compression method is unknown
+     */
+    private static byte getPayloadCompressionMethod(Header header) throws CDocParseException {
+        byte method = header.payloadCompressionMethod();
+        if (!Tar.isSupportedCompressionMethod(method)) {
+            throw new CDocParseException("Unknown payload compression method " + method);
+        }
+        return method;
+    }
+
     private static byte[] decryptRecipientFmk(Recipient recipient, byte[] keyEncryptionKey)
         throws CDocParseException {
 
@@ -374,37 +750,44 @@ public final class Envelope {
 
     /**
      * Process payload (content).
-     * @param containerIs InputStream containing CDOC2. InputStream position is just before payload.
-     * @param cekKey content encryption key decrypted from header
-     * @param additionalData used to initialize ChaChaCipher AAD
+     * @param containerIs InputStream containing CDOC2. Used for counting processed bytes.
+     * @param payloadIs decrypting InputStream, created from containerIs
+     * @param compressionMethod payload {@link PayloadCompressionMethod}
      * @param tarProcessingDelegate tar processing operation
+     * @param bufferSize buffer size for decompression and tar processing
      * @return archive entries processed
-     * @throws GeneralSecurityException if security/crypto error has occurred
      * @throws IOException if an I/O error occurs
      */
     private static List<ArchiveEntry> processPayload(
         CountingInputStream containerIs,
-        SecretKey cekKey,
-        byte[] additionalData,
-        TarEntryProcessingDelegate tarProcessingDelegate
-    ) throws GeneralSecurityException, IOException {
+        InputStream payloadIs,
+        byte compressionMethod,
+        TarEntryProcessingDelegate tarProcessingDelegate,
+        int bufferSize
+    ) throws IOException {
 
         long headerSize = containerIs.getByteCount();
         List<ArchiveEntry> result;
+        boolean cancelled = false;
 
         // lib must not report any exceptions before ChaCha Poly1305 mac is verified. Poly1305 MAC is
         // automatically verified, when all bytes were read from CipherInputStream
-        try (CipherInputStream cis = ChaChaCipher.initChaChaInputStream(containerIs, cekKey, additionalData);
-             TarDeflate tarDeflate = new TarDeflate(cis)) {
+        try (InputStream cis = payloadIs;
+             TarDeflate tarDeflate = openTarDeflate(containerIs, cis, compressionMethod, bufferSize)) {
 
             try {
                 result = tarDeflate.process(tarProcessingDelegate);
+            } catch (CancellationException cancelException) {
+                // cancelled by delegate (subscriber), nothing is reported from the rest of the payload, so it is
+                // not decrypted for MAC check. Created files are deleted by TarDeflate::close()
+                cancelled = true;
+                throw cancelException;
             } catch (Exception tarException) { // any exception from tar processing must not be
                                               // reported before Poly1305 MAC check has been performed
                 // read remaining bytes to force Poly1305 MAC check
                 // only report caught exception after ChaCha stream is drained and MAC checked
                 long processedBytes = containerIs.getByteCount();
-                drainStream(cis, null); //may throw IOException, tarException won't be re-thrown
+                drainStream(cis, null, bufferSize); //may throw IOException, tarException won't be re-thrown
 
                 // since exception was thrown from TarDeflate, then created files are deleted by
                 // TarDeflate::close() when exiting try with resources block
@@ -418,7 +801,9 @@ public final class Envelope {
 
                 // read all bytes (if any) from ChaCha stream and check Poly1305 MAC
                 // delete all created files when MAC check fails
-                forcePoly1305MacCheck(containerIs, cis, tarDeflate::deleteCreatedFiles);
+                if (!cancelled) {
+                    forcePoly1305MacCheck(containerIs, cis, tarDeflate::deleteCreatedFiles, bufferSize);
+                }
             }
 
         } finally  {
@@ -428,22 +813,49 @@ public final class Envelope {
         return result;
     }
 
+    /**
+     * Create TarDeflate for decrypting InputStream. Decompressor may read from cis when created (LZ4 frame header),
+     * exception from that is reported only after Poly1305 MAC is checked.
+     * @param countingIs input stream
+     * @param cis cipher input stream
+     * @param compressionMethod payload {@link PayloadCompressionMethod}
+     * @param bufferSize buffer size for decompression and tar processing
+     * @return TarDeflate reading from cis
+     * @throws IOException if an I/O error occurs
+     */
+    private static TarDeflate openTarDeflate(
+        CountingInputStream countingIs,
+        InputStream cis,
+        byte compressionMethod,
+        int bufferSize
+    ) throws IOException {
+
+        try {
+            return new TarDeflate(cis, compressionMethod, bufferSize);
+        } catch (IOException ex) {
+            forcePoly1305MacCheck(countingIs, cis, null, bufferSize); // throws if MAC check fails
+            throw ex;
+        }
+    }
+
     /**
      * Read any remaining bytes from cipher input stream to force MAC check at the end of stream.
      * @param countingIs input stream
      * @param cis cipher input stream to drain
      * @param cleanUpFunc clean up function to run, when IOException happened during MAC check
+     * @param bufferSize buffer size for draining
      * @throws IOException if an I/O error occurs
      */
     private static void forcePoly1305MacCheck(
         CountingInputStream countingIs,
-        CipherInputStream cis,
-        @Nullable Runnable cleanUpFunc
+        InputStream cis,
+        @Nullable Runnable cleanUpFunc,
+        int bufferSize
     ) throws IOException {
         // deflate/tar stream processing is finished, drain any remaining bytes to force
         // ChaCha Poly1305 MAC check
         long processedBytes = countingIs.getByteCount();
-        drainStream(cis, cleanUpFunc); //may throw IOException Poly1305 MAC check
+        drainStream(cis, cleanUpFunc, bufferSize); //may throw IOException Poly1305 MAC check
 
         if (countingIs.getByteCount() - processedBytes > 0) {
             log.debug("Decrypted {} unprocessed bytes ",
@@ -455,13 +867,14 @@ public final class Envelope {
      * Read all bytes from Cipher Input Stream
      * @param cis Cipher Input Stream to drain
      * @param cleanUpFunc clean up function to run, when IOException happened during draining
+     * @param bufferSize buffer size for draining
      * @throws IOException if an I/O error has occurred during draining
      */
     @SuppressWarnings("checkstyle:EmptyBlock")
-    private static void drainStream(CipherInputStream cis, @Nullable Runnable cleanUpFunc)
+    private static void drainStream(InputStream cis, @Nullable Runnable cleanUpFunc, int bufferSize)
         throws IOException {
 
-        byte[] ignored = new byte[1024];
+        byte[] ignored = new byte[bufferSize];
         try {
             while (cis.read(ignored) > 0) {
                 // do nothing
@@ -507,6 +920,16 @@ public final class Envelope {
         }
     }
 
+    private static byte[] readHmac(ByteBuffer cdocBuf) throws CDocParseException {
+        if (cdocBuf.remaining() > Crypto.HHK_LEN_BYTES) {
+            byte[] hmac = new byte[Crypto.HHK_LEN_BYTES];
+            cdocBuf.get(hmac);
+            return hmac;
+        } else {
+            throw new CDocParseException("No hmac");
+        }
+    }
+
     /**
      * Decrypt CDOC2 container, read from cdocInputStream.
      * @param cdocInputStream contains CDOC2 container
@@ -569,6 +992,269 @@ public final class Envelope {
             .toList();
     }
 
+    /**
+     * Decrypt CDOC2 container, read from cdocInputStream, as {@link Flow.Publisher} of decrypted entries. Container
+     * is decrypted on executor after subscription, without writing files to disk. Decryption waits for
+     * subscriber demand (backpressure), so entries can be streamed further while the rest of the container is
+     * still being decrypted.
+     * <p>
+     * Publisher completes only after Poly1305 MAC of the payload was checked. Decryption and MAC check errors are
+     * signalled with {@link Flow.Subscriber#onError(Throwable)}, so published data must be considered
+     * unauthenticated until completion.
+     * @param cdocInputStream contains CDOC2 container
+     * @param recipientKeyMaterial decryption key material
+     * @param keyServerClientFac configured key servers client factory.
+     * @param executor executor where container is decrypted. Decrypting thread is blocked while subscriber has
+     *                 no outstanding demand
+     * @return single subscriber Publisher of decrypted entries
+     */
+    public static Flow.Publisher<DecryptedItem> decryptToPublisher(
+        InputStream cdocInputStream,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac,
+        Executor executor
+    ) {
+        Objects.requireNonNull(cdocInputStream);
+        Objects.requireNonNull(recipientKeyMaterial);
+
+        log.trace("decryptToPublisher");
+        return new DecryptingPublisher(
+            delegate -> processContainer(cdocInputStream, recipientKeyMaterial, delegate, keyServerClientFac),
+            executor
+        );
+    }
+
+    /**
+     * Decrypt files from CDOC2 container, read from channel. If container has segmented payload with entry index
+     * ({@link PayloadOptions#withEntryIndex(boolean)}) and filesToExtract is not empty, then only segments
+     * containing filesToExtract are read, decrypted and authenticated. Otherwise, whole payload is decrypted as with
+     * {@link #decrypt(InputStream, DecryptionKeyMaterial, Path, List, KeyCapsuleClientFactory)}.
+     * @param cdocChannel channel containing CDOC2 container, positioned at the start of container
+     * @param recipientKeyMaterial decryption key material
+     * @param outputDir output directory where decrypted files are decrypted
+     * @param filesToExtract files to extract, if null or empty then all files. Files not found in the container
+     *                       are ignored
+     * @param keyServerClientFac configured key servers client factory.
+     * @return list of files decrypted and written into outputDir
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if container is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        SeekableByteChannel cdocChannel,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        Path outputDir,
+        @Nullable List<String> filesToExtract,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        return decrypt(cdocChannel, recipientKeyMaterial, outputDir, filesToExtract, keyServerClientFac,
+            new ExtractOptions());
+    }
+
+    /**
+     * Decrypt files from CDOC2 container, read from channel, as
+     * {@link #decrypt(SeekableByteChannel, DecryptionKeyMaterial, Path, List, KeyCapsuleClientFactory)}.
+     * Decrypted files are written with {@link FileChannelExtractDelegate} configured by extractOptions. If channel
+     * is {@link FileChannel} and {@link ExtractOptions#withMemoryMapping(boolean)} is enabled, then header and
+     * payload are read from memory mapped file regions.
+     * @param cdocChannel channel containing CDOC2 container, positioned at the start of container
+     * @param recipientKeyMaterial decryption key material
+     * @param outputDir output directory where decrypted files are decrypted
+     * @param filesToExtract files to extract, if null or empty then all files. Files not found in the container
+     *                       are ignored
+     * @param keyServerClientFac configured key servers client factory.
+     * @param extractOptions options for writing decrypted files
+     * @return list of files decrypted and written into outputDir
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws IOException if an I/O error has occurred
+     * @throws CDocParseException if container is invalid format
+     * @throws ExtApiException if error happened when communicating with key server
+     */
+    public static List<String> decrypt(
+        SeekableByteChannel cdocChannel,
+        DecryptionKeyMaterial recipientKeyMaterial,
+        Path outputDir,
+        @Nullable List<String> filesToExtract,
+        @Nullable KeyCapsuleClientFactory keyServerClientFac,
+        ExtractOptions extractOptions
+    ) throws GeneralSecurityException, IOException, CDocException {
+
+        log.trace("decrypt channel");
+        long containerStart = cdocChannel.position();
+
+        FileChannel mappedChannel = (extractOptions.isMemoryMapping() && (cdocChannel instanceof FileChannel fc))
+            ? fc : null;
+
+        DecryptedHeader decryptedHeader;
+        long payloadStart;
+        if (mappedChannel != null) {
+            ByteBuffer headerBuf = mapHeaderRegion(mappedChannel, containerStart);
+            byte[] fbsHeaderBytes;
+            byte[] hmac;
+            try {
+                fbsHeaderBytes = readFBSHeader(headerBuf);
+                hmac = readHmac(headerBuf);
+            } catch (InternalError e) { // mapped file was truncated
+                throw new IOException("Error reading memory mapped header", e);
+            }
+            decryptedHeader = decryptHeader(fbsHeaderBytes, hmac, recipientKeyMaterial, keyServerClientFac);
+            payloadStart = containerStart + headerBuf.position();
+            log.debug("Processed {} header bytes", headerBuf.position());
+        } else {
+            // don't close, channel is owned by caller
+            CountingInputStream headerIs = new CountingInputStream(Channels.newInputStream(cdocChannel));
+            decryptedHeader = decryptHeader(headerIs, null, recipientKeyMaterial, keyServerClientFac);
+            payloadStart = containerStart + headerIs.getByteCount();
+        }
+        Header header = decryptedHeader.header();
+        byte compressionMethod = getPayloadCompressionMethod(header);
+
+        boolean extractAll = (filesToExtract == null) || filesToExtract.isEmpty();
+        if (!extractAll
+            && (header.payloadEncryptionMethod() == PayloadEncryptionMethod.CHACHA20POLY1305_SEGMENTED)
+            && header.payloadEntryIndex()
+            && (compressionMethod == PayloadCompressionMethod.ZLIB)) {
+
+            long segmentSize = header.payloadSegmentSize();
+            if (!SegmentedChaChaCipher.isValidSegmentSize(segmentSize)) {
+                throw new CDocParseException("Invalid payload segment size " + segmentSize);
+            }
+
+            SegmentedChaChaSeekableReader payloadReader = SegmentedChaChaSeekableReader.open(cdocChannel,
+                payloadStart, decryptedHeader.cekKey(), decryptedHeader.additionalData(), (int) segmentSize);
+
+            PayloadIndex index = readPayloadIndex(payloadReader);
+            return extractIndexedEntries(payloadReader, index, outputDir, filesToExtract, extractOptions);
+        }
+
+        TarEntryProcessingDelegate extractDelegate = extractOptions.newDelegate(outputDir,
+            extractAll ? null : filesToExtract);
+        List<ArchiveEntry> result;
+        if ((mappedChannel != null)
+            && (header.payloadEncryptionMethod() == PayloadEncryptionMethod.CHACHA20POLY1305)) {
+
+            log.debug("Decrypting memory mapped payload");
+            InputStream payloadIs = ChaChaCipher.initChaChaInputStream(mappedChannel, payloadStart,
+                decryptedHeader.cekKey(), decryptedHeader.additionalData());
+            // there is no container stream, count decrypted bytes instead
+            CountingInputStream plaintextIs = new CountingInputStream(payloadIs);
+            result = processPayload(plaintextIs, plaintextIs, compressionMethod, extractDelegate,
+                extractOptions.getStreamBufferSize());
+        } else {
+            cdocChannel.position(payloadStart);
+            // don't close, channel is owned by caller
+            CountingInputStream containerIs = new CountingInputStream(new BufferedInputStream(
+                CloseShieldInputStream.wrap(Channels.newInputStream(cdocChannel)),
+                extractOptions.getStreamBufferSize()));
+            InputStream payloadIs = initPayloadInputStream(
+                containerIs, header, decryptedHeader.cekKey(), decryptedHeader.additionalData(),
+                extractOptions.getExecutor()
+            );
+            result = processPayload(containerIs, payloadIs, compressionMethod, extractDelegate,
+                extractOptions.getStreamBufferSize());
+        }
+
+        return result.stream()
+            .map(ArchiveEntry::getName)
+            .toList();
+    }
+
+    /**
+     * Map region containing CDOC2 header and HMAC from file channel
+     * @param channel channel containing CDOC2 container
+     * @param containerStart container start position in channel
+     * @return buffer containing header region, positioned at container start
+     * @throws IOException if an I/O error has occurred
+     */
+    private static ByteBuffer mapHeaderRegion(FileChannel channel, long containerStart) throws IOException {
+        long regionLen = Math.max(0, Math.min(channel.size() - containerStart, MAX_HEADER_REGION_LEN));
+        return channel.map(FileChannel.MapMode.READ_ONLY, containerStart, regionLen);
+    }
+
+    /**
+     * Read and authenticate payload entry index from the end of segmented payload
+     * @param payloadReader segmented payload reader
+     * @return payload entry index
+     * @throws IOException if an I/O error has occurred or segment authentication failed
+     * @throws CDocParseException if index is invalid
+     */
+    private static PayloadIndex readPayloadIndex(SegmentedChaChaSeekableReader payloadReader)
+        throws IOException, CDocParseException {
+
+        long plaintextLen = payloadReader.getPlaintextLength();
+        if (plaintextLen < PayloadIndex.INDEX_LEN_BYTES) {
+            throw new CDocParseException("Payload entry index missing");
+        }
+
+        int indexLen;
+        try (InputStream is = payloadReader.newInputStream(plaintextLen - PayloadIndex.INDEX_LEN_BYTES,
+            plaintextLen)) {
+            indexLen = ByteBuffer.wrap(is.readNBytes(PayloadIndex.INDEX_LEN_BYTES)).order(ByteOrder.BIG_ENDIAN)
+                .getInt();
+        }
+
+        long indexStart = plaintextLen - PayloadIndex.INDEX_LEN_BYTES - indexLen;
+        if ((indexLen <= 0) || (indexLen > PayloadIndex.MAX_INDEX_LEN) || (indexStart < 0)) {
+            throw new CDocParseException("Invalid payload entry index length " + indexLen);
+        }
+
+        try (InputStream is = payloadReader.newInputStream(indexStart, indexStart + indexLen)) {
+            return PayloadIndex.deserialize(is.readNBytes(indexLen), indexStart);
+        }
+    }
+
+    /**
+     * Extract indexed entries. Each entry is decompressed (raw deflate) from its offset in compressed tar. If any
+     * entry fails, then files already extracted are deleted.
+     */
+    private static List<String> extractIndexedEntries(
+        SegmentedChaChaSeekableReader payloadReader,
+        PayloadIndex index,
+        Path outputDir,
+        List<String> filesToExtract,
+        ExtractOptions extractOptions
+    ) throws IOException {
+
+        TarEntryProcessingDelegate extractDelegate = extractOptions.newDelegate(outputDir, filesToExtract);
+        DiskUsageGuard diskUsageGuard = DiskUsageGuard.forDir(extractDelegate.getOutputDir());
+        DeflateParameters rawDeflate = new DeflateParameters();
+        rawDeflate.setWithZlibHeader(false);
+
+        List<String> extracted = new ArrayList<>();
+        try {
+            for (String fileName : filesToExtract) {
+                PayloadIndex.Entry entry = index.find(fileName);
+                if (entry == null) {
+                    log.info("{} not found in payload entry index", fileName);
+                    continue;
+                }
+
+                try (TarDeflate tarDeflate = new TarDeflate(payloadReader.newInputStream(entry.compressedOffset(),
+                    index.getCompressedEndOffset(entry)), rawDeflate, extractOptions.getStreamBufferSize())) {
+
+                    tarDeflate.processEntry(entry.name(), extractDelegate, diskUsageGuard)
+                        .forEach(archiveEntry -> extracted.add(archiveEntry.getName()));
+                }
+            }
+            extractDelegate.onEndOfArchive();
+        } catch (IOException | RuntimeException ex) {
+            // files extracted from entries processed before failure
+            extracted.forEach(name -> deleteQuietly(outputDir.resolve(name)));
+            throw ex;
+        }
+        return extracted;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.error("Error deleting file {}", file);
+        }
+    }
+
     /**
      * List ArchiveEntries in CDOC
      * @param cdocInputStream contains CDOC2 container
@@ -597,16 +1283,18 @@ public final class Envelope {
      * @return serialized flatbuffer header
      */
     byte[] serializeHeader() {
-        return serializeHeader(this.recipients);
+        return serializeHeader(this.recipients, this.payloadOptions);
     }
 
     /**
-     * Serialize flatbuffer part (recipients data) of the header
+     * Serialize flatbuffer part (recipients data and payload encryption parameters) of the header
      * @param recipients recipients to be serialized
+     * @param payloadOptions payload options, defines payload encryption method
      * @return serialized flatbuffer header
      */
-    static byte[] serializeHeader(Recipient[] recipients) {
+    static byte[] serializeHeader(Recipient[] recipients, PayloadOptions payloadOptions) {
         Objects.requireNonNull(recipients);
+        Objects.requireNonNull(payloadOptions);
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         FlatBufferBuilder builder = new FlatBufferBuilder(1024);
         int[] recipientOffsets = new int[recipients.length];
@@ -619,7 +1307,12 @@ public final class Envelope {
 
         Header.startHeader(builder);
         Header.addRecipients(builder, recipientsVector);
-        Header.addPayloadEncryptionMethod(builder, PAYLOAD_ENC_BYTE);
+        Header.addPayloadEncryptionMethod(builder, payloadOptions.getPayloadEncryptionMethod());
+        if (payloadOptions.isSegmented()) {
+            Header.addPayloadSegmentSize(builder, payloadOptions.getSegmentSize());
+            Header.addPayloadEntryIndex(builder, payloadOptions.isEntryIndex());
+        }
+        Header.addPayloadCompressionMethod(builder, payloadOptions.getPayloadCompressionMethod());
         int headerOffset = Header.endHeader(builder);
         Header.finishHeaderBuffer(builder, headerOffset);
 
@@ -0,0 +1,146 @@
+package ee.cyber.cdoc2.container;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
+
+
+/**
+ * Options for decrypting CDOC2 container and writing extracted files with {@link FileChannelExtractDelegate}. By
+ * default, files are written through {@link java.nio.channels.FileChannel} with buffer up to
+ * {@link #DEFAULT_BUFFER_SIZE}, without preallocation and without fsync. Decryption and decompression streams use
+ * buffer size from {@link Tar#getBufferSize()}, unless set with {@link #withStreamBufferSize(int)}.
+ */
+public final class ExtractOptions {
+
+    /**
+     * When extracted files are flushed to storage device ({@link java.nio.channels.FileChannel#force(boolean)})
+     */
+    public enum FsyncPolicy {
+        /** Don't fsync, leave it to OS */
+        NONE,
+        /** Fsync every file, before it is closed */
+        PER_FILE,
+        /** Fsync all extracted files, after the whole archive was extracted */
+        DEFERRED
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final int MIN_BUFFER_SIZE = Tar.MIN_BUFFER_SIZE;
+
+    private boolean preallocate;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int streamBufferSize = Tar.getBufferSize();
+    private boolean memoryMapping;
+    private Executor executor = ForkJoinPool.commonPool();
+
+    /**
+     * Set extracted file length from tar entry header before writing file contents. Disk blocks are not reserved,
+     * on most file systems the file is sparse until written. Length is not set, when it is larger than usable space
+     * in destination directory.
+     * @param preallocation true to preallocate extracted files
+     * @return this ExtractOptions
+     */
+    public ExtractOptions withPreallocation(boolean preallocation) {
+        this.preallocate = preallocation;
+        return this;
+    }
+
+    /**
+     * @param policy when extracted files are flushed to storage device
+     * @return this ExtractOptions
+     */
+    public ExtractOptions withFsyncPolicy(FsyncPolicy policy) {
+        this.fsyncPolicy = Objects.requireNonNull(policy);
+        return this;
+    }
+
+    /**
+     * Max size of the buffer, used for writing extracted files
+     * @param bufferSizeBytes buffer size in bytes, at least {@link #MIN_BUFFER_SIZE}
+     * @return this ExtractOptions
+     */
+    public ExtractOptions withBufferSize(int bufferSizeBytes) {
+        if (bufferSizeBytes < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSizeBytes);
+        }
+        this.bufferSize = bufferSizeBytes;
+        return this;
+    }
+
+    /**
+     * Size of the buffers used by decryption, decompression and tar processing streams. Overrides
+     * {@link ee.cyber.cdoc2.CDocConfiguration#BUFFER_SIZE_PROPERTY}
+     * @param bufferSizeBytes buffer size in bytes, between {@link Tar#MIN_BUFFER_SIZE} and {@link Tar#MAX_BUFFER_SIZE}
+     * @return this ExtractOptions
+     */
+    public ExtractOptions withStreamBufferSize(int bufferSizeBytes) {
+        if (!Tar.isValidBufferSize(bufferSizeBytes)) {
+            throw new IllegalArgumentException("Invalid stream buffer size " + bufferSizeBytes);
+        }
+        this.streamBufferSize = bufferSizeBytes;
+        return this;
+    }
+
+    /**
+     * Read header and {@code CHACHA20POLY1305} payload from memory mapped regions, when container is decrypted from
+     * {@link java.nio.channels.FileChannel}. Disabled by default: mapping saves only read system calls, payload
+     * decryption speed is limited by the cipher. Mapped regions are released, when garbage collected.
+     * @param mapping true to memory map container file
+     * @return this ExtractOptions
+     */
+    public ExtractOptions withMemoryMapping(boolean mapping) {
+        this.memoryMapping = mapping;
+        return this;
+    }
+
+    /**
+     * Executor used to decrypt payload segments in parallel, when payload is encrypted with
+     * {@code CHACHA20POLY1305_SEGMENTED}. Default is {@link ForkJoinPool#commonPool()}, same as
+     * {@link PayloadOptions#withExecutor(Executor)}
+     * @param segmentExecutor executor
+     * @return this ExtractOptions
+     */
+    public ExtractOptions withExecutor(Executor segmentExecutor) {
+        this.executor = Objects.requireNonNull(segmentExecutor);
+        return this;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getStreamBufferSize() {
+        return streamBufferSize;
+    }
+
+    public boolean isMemoryMapping() {
+        return memoryMapping;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Create extract delegate configured with these options
+     * @param destDir directory where files are extracted
+     * @param filesToExtract files to extract, null means all files
+     * @return FileChannelExtractDelegate
+     */
+    FileChannelExtractDelegate newDelegate(Path destDir, @Nullable List<String> filesToExtract) {
+        return new FileChannelExtractDelegate(destDir, filesToExtract, this);
+    }
+}
@@ -0,0 +1,180 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Extracts files through {@link FileChannel}. Data is collected into a large buffer and written to the channel,
+ * when buffer is full, so that small writes from tar processing don't reach the file system. Heap buffer is used
+ * and sized to the extracted entries (up to {@link ExtractOptions#getBufferSize()}), so that many short-lived
+ * delegates (batch decryption) don't allocate direct memory that is freed only by GC. FileChannel copies heap
+ * buffer through JDK per-thread temporary direct buffer. Optionally sets file length from tar entry size and
+ * flushes files to storage device as defined by {@link ExtractOptions.FsyncPolicy}.
+ */
+public class FileChannelExtractDelegate implements TarEntryProcessingDelegate {
+
+    private static final Logger log = LoggerFactory.getLogger(FileChannelExtractDelegate.class);
+
+    private final Path destDir;
+
+    @Nullable
+    private final List<String> filesToExtract; // null means all files
+
+    private final boolean preallocate;
+    private final ExtractOptions.FsyncPolicy fsyncPolicy;
+    private final int maxBufferSize;
+    private ByteBuffer buffer; // allocated for the first extracted entry, grown up to maxBufferSize
+
+    /** files waiting for {@link ExtractOptions.FsyncPolicy#DEFERRED} fsync */
+    private final List<Path> unsyncedFiles = new ArrayList<>();
+
+    private FileChannel channel;
+    private Path currentFile;
+    private long preallocatedSize;
+    private long written;
+
+    public FileChannelExtractDelegate(Path destDir, @Nullable List<String> filesToExtract) {
+        this(destDir, filesToExtract, new ExtractOptions());
+    }
+
+    public FileChannelExtractDelegate(
+        Path destDir,
+        @Nullable List<String> filesToExtract,
+        ExtractOptions options
+    ) {
+        if ((destDir == null) || !Files.isDirectory(destDir) || !Files.isWritable(destDir)) {
+            throw new IllegalArgumentException("Not a directory or not writeable " + destDir);
+        }
+        Objects.requireNonNull(options);
+
+        this.destDir = destDir;
+        this.filesToExtract = filesToExtract;
+        this.preallocate = options.isPreallocate();
+        this.fsyncPolicy = options.getFsyncPolicy();
+        this.maxBufferSize = options.getBufferSize();
+    }
+
+    @Override
+    public OP getType() {
+        return OP.EXTRACT;
+    }
+
+    @Override
+    public File onTarEntry(TarArchiveEntry tarEntry) throws IOException {
+        if ((filesToExtract == null) || filesToExtract.contains(tarEntry.getName())) {
+            Path outFile = TarDeflate.pathFromTarEntry(destDir, tarEntry, true);
+            channel = FileChannel.open(outFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            currentFile = outFile;
+            written = 0;
+            preallocatedSize = 0;
+            ensureBuffer(tarEntry.getSize());
+            if (preallocate) {
+                preallocate(tarEntry.getSize());
+            }
+            return outFile.toFile();
+        }
+        return null;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (channel == null) { // file is not extracted
+            return;
+        }
+
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            int n = Math.min(remaining, buffer.remaining());
+            buffer.put(buf, offset, n);
+            offset += n;
+            remaining -= n;
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+        }
+    }
+
+    @Override
+    public boolean onEndOfTarEntry() throws IOException {
+        if (channel == null) {
+            return false;
+        }
+
+        try (FileChannel fc = channel) {
+            flushBuffer();
+            if (preallocatedSize > written) {
+                fc.truncate(written);
+            }
+            if (fsyncPolicy == ExtractOptions.FsyncPolicy.PER_FILE) {
+                fc.force(true);
+            } else if (fsyncPolicy == ExtractOptions.FsyncPolicy.DEFERRED) {
+                unsyncedFiles.add(currentFile);
+            }
+        } finally {
+            channel = null;
+            currentFile = null;
+        }
+        return true;
+    }
+
+    @Override
+    public void onEndOfArchive() throws IOException {
+        if (fsyncPolicy == ExtractOptions.FsyncPolicy.DEFERRED) {
+            log.debug("Syncing {} extracted files", unsyncedFiles.size());
+            for (Path file : unsyncedFiles) {
+                try (FileChannel fc = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    fc.force(true);
+                }
+            }
+        }
+        unsyncedFiles.clear();
+    }
+
+    @Override
+    public File getOutputDir() {
+        return destDir.toFile();
+    }
+
+    /**
+     * Set file length to its final size, so that file size is not updated by every write. Disk blocks are not
+     * reserved, on most file systems this creates a sparse file. Size is read from tar header, so it is not trusted
+     * beyond usable disk space. Extra length is truncated, when tar entry is shorter.
+     */
+    private void preallocate(long size) throws IOException {
+        if ((size > 0) && (size <= destDir.toFile().getUsableSpace())) {
+            channel.write(ByteBuffer.allocate(1), size - 1);
+            preallocatedSize = size;
+        }
+    }
+
+    private void ensureBuffer(long entrySize) {
+        int size = (int) Math.max(ExtractOptions.MIN_BUFFER_SIZE, Math.min(entrySize, maxBufferSize));
+        if ((buffer == null) || (buffer.capacity() < size)) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, written);
+        }
+        buffer.clear();
+    }
+}
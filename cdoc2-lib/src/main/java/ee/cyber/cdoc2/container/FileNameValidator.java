@@ -3,8 +3,10 @@ package ee.cyber.cdoc2.container;
 import java.io.File;
 import java.nio.file.InvalidPathException;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -95,4 +97,20 @@ public final class FileNameValidator {
         }
     }
 
+    /**
+     * Validates tar entry names and that there are no duplicates
+     *
+     * @param names tar entry names
+     * @throws IllegalArgumentException if there are duplicate names
+     * @throws InvalidPathException if name is not valid
+     */
+    public static void ensureNoNameDuplicates(Iterable<String> names) {
+        Set<String> unique = new HashSet<>();
+        for (String name : names) {
+            if (!unique.add(validate(name))) {
+                throw new IllegalArgumentException("Entries with same name not supported: " + name);
+            }
+        }
+    }
+
 }
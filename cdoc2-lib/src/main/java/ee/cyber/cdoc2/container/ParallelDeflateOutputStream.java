@@ -0,0 +1,259 @@
+package ee.cyber.cdoc2.container;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Zlib OutputStream that compresses data in parallel (like pigz). Input is split into blocks, each block is
+ * compressed by its own raw {@link Deflater} on executor, using the last 32KiB of the previous block as preset
+ * dictionary. Blocks are ended with {@link Deflater#SYNC_FLUSH} (last block with finish), so that compressed
+ * blocks concatenated in order form a single deflate stream. Output is a standard zlib stream (RFC 1950) that
+ * can be decompressed with {@link ZlibInputStream} or any other zlib reader.
+ */
+final class ParallelDeflateOutputStream extends OutputStream {
+
+    static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    /** deflate window size */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /** CMF (deflate, 32KiB window) and FLG (default compression, no dictionary) */
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9C};
+
+    /**
+     * Compressed block
+     * @param data buffer containing compressed data
+     * @param length length of compressed data in buffer
+     */
+    private record CompressedBlock(byte[] data, int length) {
+    }
+
+    private final OutputStream out;
+    private final Executor executor;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+
+    /** blocks being compressed, in output order */
+    private final Deque<CompletableFuture<CompressedBlock>> pending = new ArrayDeque<>();
+    private final Adler32 adler32 = new Adler32();
+
+    private byte[] block;
+    private int blockLen;
+
+    /** last bytes of previous block, null for the first block */
+    private byte[] dictionary;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private boolean headerWritten;
+    private boolean closed;
+
+    ParallelDeflateOutputStream(OutputStream out, Executor executor) {
+        this(out, executor, DEFAULT_BLOCK_SIZE, getParallelism(executor));
+    }
+
+    /**
+     * @param out compressed zlib stream is written to out
+     * @param executor executor for block compression
+     * @param blockSize uncompressed block size in bytes, at least 32KiB
+     * @param parallelism max number of blocks compressed at the same time
+     */
+    ParallelDeflateOutputStream(OutputStream out, Executor executor, int blockSize, int parallelism) {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        this.out = Objects.requireNonNull(out);
+        this.executor = Objects.requireNonNull(executor);
+        this.blockSize = blockSize;
+        // keep all threads busy while completed blocks are written
+        this.maxPendingBlocks = 2 * parallelism;
+        this.block = new byte[blockSize];
+    }
+
+    private static int getParallelism(Executor executor) {
+        return (executor instanceof ForkJoinPool pool)
+            ? pool.getParallelism()
+            : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Change compression level. Applied to blocks started after this call.
+     * @param compressionLevel new compression level
+     */
+    void setLevel(int compressionLevel) {
+        this.level = compressionLevel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLen++] = (byte) b;
+        if (blockLen == blockSize) {
+            submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLen);
+            System.arraycopy(b, off, block, blockLen, n);
+            blockLen += n;
+            off += n;
+            len -= n;
+            if (blockLen == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Compress buffered data as sync flushed block and write all compressed data to underlying stream
+     * @throws IOException if an I/O error has occurred
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (blockLen > 0) {
+            submitBlock(false);
+        }
+        while (!pending.isEmpty()) {
+            writeNextBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            submitBlock(true);
+            while (!pending.isEmpty()) {
+                writeNextBlock();
+            }
+            writeTrailer();
+        } finally {
+            closed = true;
+            pending.forEach(future -> future.cancel(false));
+            pending.clear();
+            out.close();
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] input = block;
+        int inputLen = blockLen;
+        byte[] dict = dictionary;
+        int blockLevel = level;
+
+        adler32.update(input, 0, inputLen);
+        if (inputLen > 0) {
+            dictionary = Arrays.copyOfRange(input, Math.max(0, inputLen - DICTIONARY_SIZE), inputLen);
+        }
+
+        pending.add(CompletableFuture.supplyAsync(
+            () -> compress(input, inputLen, dict, blockLevel, last), executor));
+
+        if (!last) {
+            block = new byte[blockSize];
+            blockLen = 0;
+        }
+
+        // write completed blocks, block when too many blocks are waiting
+        while (!pending.isEmpty() && ((pending.size() >= maxPendingBlocks) || pending.peekFirst().isDone())) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        CompressedBlock compressed;
+        try {
+            compressed = pending.peekFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException | CancellationException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+        pending.removeFirst();
+
+        if (!headerWritten) {
+            out.write(ZLIB_HEADER);
+            headerWritten = true;
+        }
+        out.write(compressed.data(), 0, compressed.length());
+    }
+
+    private void writeTrailer() throws IOException {
+        // Adler-32 of uncompressed data, big-endian
+        out.write(ByteBuffer.allocate(Integer.BYTES).putInt((int) adler32.getValue()).array());
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Compress block as raw deflate
+     * @param input uncompressed block
+     * @param inputLen uncompressed block length
+     * @param dict preset dictionary (end of previous block) or null
+     * @param level compression level
+     * @param last true to finish deflate stream, otherwise block is ended with sync flush
+     * @return compressed block
+     */
+    private static CompressedBlock compress(byte[] input, int inputLen, byte[] dict, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dict != null) {
+                deflater.setDictionary(dict);
+            }
+            deflater.setInput(input, 0, inputLen);
+
+            // stored blocks add 5 bytes per 16KiB, sync flush and finish add a few bytes
+            byte[] output = new byte[inputLen + (inputLen >> 10) + 64];
+            int outputLen = 0;
+            if (last) {
+                deflater.finish();
+            }
+            while (true) {
+                int n = last
+                    ? deflater.deflate(output, outputLen, output.length - outputLen)
+                    : deflater.deflate(output, outputLen, output.length - outputLen, Deflater.SYNC_FLUSH);
+                outputLen += n;
+
+                boolean done = last ? deflater.finished() : (outputLen < output.length);
+                if (done) {
+                    return new CompressedBlock(output, outputLen);
+                }
+                if (outputLen == output.length) {
+                    output = Arrays.copyOf(output, 2 * output.length);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+}
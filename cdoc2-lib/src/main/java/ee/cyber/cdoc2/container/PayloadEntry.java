@@ -0,0 +1,128 @@
+package ee.cyber.cdoc2.container;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+
+/**
+ * Payload entry (tar entry) that is read from InputStream instead of file. Entry data is streamed directly into
+ * the encrypted container, no temporary files are created.
+ * <p>
+ * Tar entry header contains entry size and is written before entry data, so size must be known in advance. When
+ * size is not known ({@link #UNKNOWN_SIZE}), entry data is buffered in memory (up to
+ * {@link #MAX_UNKNOWN_SIZE_BYTES}) to find out its size. Plaintext data is never written to disk.
+ */
+public final class PayloadEntry {
+
+    public static final long UNKNOWN_SIZE = -1;
+
+    /** Max size of entry with unknown size, as such entries are buffered in memory */
+    public static final int MAX_UNKNOWN_SIZE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Supplier of entry data. Called once, when entry is added to the payload.
+     */
+    @FunctionalInterface
+    public interface InputStreamSupplier {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Opened entry data
+     * @param size exact size of data in bytes
+     * @param inputStream data
+     */
+    record Content(long size, InputStream inputStream) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    private final String name;
+    private final long size;
+    private final InputStreamSupplier supplier;
+
+    private PayloadEntry(String name, long size, InputStreamSupplier supplier) {
+        this.name = Objects.requireNonNull(name);
+        if (size < 0 && size != UNKNOWN_SIZE) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        this.size = size;
+        this.supplier = Objects.requireNonNull(supplier);
+    }
+
+    /**
+     * Create entry from already opened InputStream. InputStream is closed after entry data is read.
+     * @param name entry name (file name)
+     * @param size exact number of bytes in inputStream or {@link #UNKNOWN_SIZE}
+     * @param inputStream entry data
+     * @return PayloadEntry
+     */
+    public static PayloadEntry of(String name, long size, InputStream inputStream) {
+        Objects.requireNonNull(inputStream);
+        return new PayloadEntry(name, size, () -> inputStream);
+    }
+
+    /**
+     * Create entry that is opened lazily, when entry is written to the payload
+     * @param name entry name (file name)
+     * @param size exact number of bytes in InputStream returned by supplier or {@link #UNKNOWN_SIZE}
+     * @param supplier entry data supplier
+     * @return PayloadEntry
+     */
+    public static PayloadEntry of(String name, long size, InputStreamSupplier supplier) {
+        return new PayloadEntry(name, size, supplier);
+    }
+
+    /**
+     * Create entry with unknown size, that is opened lazily. Entry data is buffered in memory, prefer
+     * {@link #of(String, long, InputStreamSupplier)} when size is known.
+     * @param name entry name (file name)
+     * @param supplier entry data supplier
+     * @return PayloadEntry
+     */
+    public static PayloadEntry of(String name, InputStreamSupplier supplier) {
+        return new PayloadEntry(name, UNKNOWN_SIZE, supplier);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return entry size in bytes or {@link #UNKNOWN_SIZE}
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Open entry data and find out its size, when size is not known
+     * @return opened entry data
+     * @throws IOException if opening or reading entry data has failed or entry with unknown size is larger than
+     *      {@link #MAX_UNKNOWN_SIZE_BYTES}
+     */
+    Content open() throws IOException {
+        InputStream is = Objects.requireNonNull(supplier.open(), "supplier returned null");
+        if (size != UNKNOWN_SIZE) {
+            return new Content(size, is);
+        }
+
+        try (is) {
+            byte[] data = is.readNBytes(MAX_UNKNOWN_SIZE_BYTES + 1);
+            if (data.length > MAX_UNKNOWN_SIZE_BYTES) {
+                throw new IOException("Size of entry " + name + " is over " + MAX_UNKNOWN_SIZE_BYTES
+                    + " bytes, entry size must be provided");
+            }
+            return new Content(data.length, new ByteArrayInputStream(data));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadEntry{name='" + name + "', size=" + size + '}';
+    }
+}
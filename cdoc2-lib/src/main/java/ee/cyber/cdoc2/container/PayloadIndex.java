@@ -0,0 +1,159 @@
+package ee.cyber.cdoc2.container;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+
+import ee.cyber.cdoc2.fbs.payload.EntryIndexRecord;
+import ee.cyber.cdoc2.fbs.payload.PayloadEntryIndex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+
+/**
+ * Tar entry index of payload. Contains offset of each tar entry in zlib compressed tar, so that single entry can
+ * be decompressed without processing preceding entries. Written after compressed tar into payload plaintext:
+ * <pre>
+ *   payload plaintext = zlib(tar) || PayloadEntryIndex (FlatBuffers) || uint32_be(PayloadEntryIndex length)
+ * </pre>
+ */
+final class PayloadIndex {
+
+    /** Length of index length field at the end of payload plaintext */
+    static final int INDEX_LEN_BYTES = Integer.BYTES;
+
+    static final int MAX_INDEX_LEN = 16 * 1024 * 1024;
+
+    /**
+     * Single tar entry in index
+     * @param name tar entry name
+     * @param compressedOffset offset of tar entry in compressed tar
+     * @param size tar entry data size
+     */
+    record Entry(String name, long compressedOffset, long size) {
+    }
+
+    private final List<Entry> entries;
+    private final long compressedLength;
+
+    /**
+     * @param entries index entries in tar order
+     * @param compressedLength length of compressed tar
+     * @throws IllegalArgumentException if entry names are not valid or there are entries with the same name, see
+     *      {@link FileNameValidator#ensureNoNameDuplicates(Iterable)}
+     */
+    PayloadIndex(List<Entry> entries, long compressedLength) {
+        FileNameValidator.ensureNoNameDuplicates(entries.stream().map(Entry::name).toList());
+        this.entries = List.copyOf(entries);
+        this.compressedLength = compressedLength;
+    }
+
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    long getCompressedLength() {
+        return compressedLength;
+    }
+
+    /**
+     * Find entry by name
+     * @param name tar entry name
+     * @return entry or null, if entry with name is not in index
+     */
+    @Nullable
+    Entry find(String name) {
+        return entries.stream()
+            .filter(e -> e.name().equals(name))
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * Compressed offset where entry ends. That is start of the next entry or end of compressed tar for last entry.
+     * @param entry entry from this index
+     * @return offset where entry ends in compressed tar
+     */
+    long getCompressedEndOffset(Entry entry) {
+        int i = entries.indexOf(entry);
+        if (i < 0) {
+            throw new IllegalArgumentException("Entry not in index " + entry.name());
+        }
+        return (i + 1 < entries.size()) ? entries.get(i + 1).compressedOffset() : compressedLength;
+    }
+
+    /**
+     * Write serialized index followed by index length to os
+     * @param os OutputStream positioned after compressed tar
+     * @throws IOException if an I/O error has occurred
+     */
+    void writeTo(OutputStream os) throws IOException {
+        byte[] indexBytes = serialize();
+        os.write(indexBytes);
+        os.write(ByteBuffer.allocate(INDEX_LEN_BYTES).order(ByteOrder.BIG_ENDIAN).putInt(indexBytes.length).array());
+    }
+
+    byte[] serialize() {
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        int[] recordOffsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            int nameOffset = builder.createString(entry.name());
+            recordOffsets[i] = EntryIndexRecord.createEntryIndexRecord(builder,
+                nameOffset, entry.compressedOffset(), entry.size());
+        }
+        int entriesVector = PayloadEntryIndex.createEntriesVector(builder, recordOffsets);
+        int indexOffset = PayloadEntryIndex.createPayloadEntryIndex(builder, entriesVector, compressedLength);
+        PayloadEntryIndex.finishPayloadEntryIndexBuffer(builder, indexOffset);
+        return builder.sizedByteArray();
+    }
+
+    /**
+     * Parse and validate index
+     * @param indexBytes serialized index
+     * @param maxCompressedLength compressed tar can't be longer than that (payload plaintext length without index)
+     * @return PayloadIndex
+     * @throws CDocParseException if index is invalid
+     */
+    static PayloadIndex deserialize(byte[] indexBytes, long maxCompressedLength) throws CDocParseException {
+        Objects.requireNonNull(indexBytes);
+
+        List<Entry> entries = new ArrayList<>();
+        long compressedLength;
+        try {
+            PayloadEntryIndex fbsIndex = PayloadEntryIndex.getRootAsPayloadEntryIndex(ByteBuffer.wrap(indexBytes));
+            compressedLength = fbsIndex.compressedLength();
+            for (int i = 0; i < fbsIndex.entriesLength(); i++) {
+                EntryIndexRecord fbsEntry = fbsIndex.entries(i);
+                entries.add(new Entry(fbsEntry.name(), fbsEntry.compressedOffset(), fbsEntry.size()));
+            }
+        } catch (RuntimeException e) { // invalid FlatBuffers data
+            throw new CDocParseException("Invalid payload entry index", e);
+        }
+
+        if ((compressedLength < 0) || (compressedLength > maxCompressedLength)) {
+            throw new CDocParseException("Invalid payload entry index compressed length " + compressedLength);
+        }
+
+        long prevOffset = -1;
+        for (Entry entry : entries) {
+            if ((entry.name() == null) || (entry.compressedOffset() <= prevOffset)
+                || (entry.compressedOffset() >= compressedLength) || (entry.size() < 0)) {
+                throw new CDocParseException("Invalid payload entry index record " + entry.name());
+            }
+            prevOffset = entry.compressedOffset();
+        }
+
+        try {
+            return new PayloadIndex(entries, compressedLength);
+        } catch (IllegalArgumentException e) { // duplicate or invalid entry name
+            throw new CDocParseException("Invalid payload entry index", e);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ee.cyber.cdoc2.container;
+
+import ee.cyber.cdoc2.crypto.SegmentedChaChaCipher;
+import ee.cyber.cdoc2.fbs.header.PayloadCompressionMethod;
+import ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Options for CDOC2 payload creation. By default, payload is encrypted as single ChaCha20-Poly1305 stream
+ * ({@link PayloadEncryptionMethod#CHACHA20POLY1305}), that is supported by all CDOC2 readers.
+ */
+public final class PayloadOptions {
+
+    private byte payloadEncryptionMethod = PayloadEncryptionMethod.CHACHA20POLY1305;
+    private int segmentSize = SegmentedChaChaCipher.DEFAULT_SEGMENT_SIZE;
+    private Executor executor = ForkJoinPool.commonPool();
+    private boolean entryIndex;
+    private int bufferSize = Tar.getBufferSize();
+    private CompressionPolicy compressionPolicy = CompressionPolicy.defaultPolicy();
+    private byte payloadCompressionMethod = PayloadCompressionMethod.ZLIB;
+    private boolean parallelCompression;
+    private boolean parallelRecipients;
+
+    /**
+     * Encrypt payload in segments ({@link PayloadEncryptionMethod#CHACHA20POLY1305_SEGMENTED}). Segments are
+     * encrypted and decrypted in parallel. Readers that don't know segmented payload encryption can't
+     * decrypt the container.
+     * @param segmented true to enable segmented payload encryption
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withSegmentedEncryption(boolean segmented) {
+        this.payloadEncryptionMethod = segmented
+            ? PayloadEncryptionMethod.CHACHA20POLY1305_SEGMENTED
+            : PayloadEncryptionMethod.CHACHA20POLY1305;
+        return this;
+    }
+
+    /**
+     * Plaintext segment size for segmented payload encryption
+     * @param segmentSizeBytes segment size in bytes, between {@link SegmentedChaChaCipher#MIN_SEGMENT_SIZE} and
+     *                         {@link SegmentedChaChaCipher#MAX_SEGMENT_SIZE}
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withSegmentSize(int segmentSizeBytes) {
+        if (!SegmentedChaChaCipher.isValidSegmentSize(segmentSizeBytes)) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSizeBytes);
+        }
+        this.segmentSize = segmentSizeBytes;
+        return this;
+    }
+
+    /**
+     * Executor used to encrypt payload segments and compress payload in parallel. Default is
+     * {@link ForkJoinPool#commonPool()}
+     * @param segmentExecutor executor
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withExecutor(Executor segmentExecutor) {
+        this.executor = Objects.requireNonNull(segmentExecutor);
+        return this;
+    }
+
+    /**
+     * Write tar entry index into the payload, so that single files can be extracted without decrypting the
+     * whole payload, when CDOC2 is read from {@code SeekableByteChannel} (file). Requires segmented payload
+     * encryption.
+     * @param index true to write entry index
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withEntryIndex(boolean index) {
+        this.entryIndex = index;
+        return this;
+    }
+
+    /**
+     * Size of the buffers used for reading payload files, compression and writing encrypted payload. Overrides
+     * {@link ee.cyber.cdoc2.CDocConfiguration#BUFFER_SIZE_PROPERTY}
+     * @param bufferSizeBytes buffer size in bytes, between {@link Tar#MIN_BUFFER_SIZE} and {@link Tar#MAX_BUFFER_SIZE}
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withBufferSize(int bufferSizeBytes) {
+        if (!Tar.isValidBufferSize(bufferSizeBytes)) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSizeBytes);
+        }
+        this.bufferSize = bufferSizeBytes;
+        return this;
+    }
+
+    /**
+     * Compression level for payload files. Use {@link CompressionPolicy#auto()} to store already compressed files
+     * (PDF, JPEG, ZIP) without compression. Payload is zlib stream with any policy, so readers are not affected.
+     * @param policy compression policy, default is {@link CompressionPolicy#defaultPolicy()}
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withCompressionPolicy(CompressionPolicy policy) {
+        this.compressionPolicy = Objects.requireNonNull(policy);
+        return this;
+    }
+
+    /**
+     * Compression method for payload tar archive. {@link PayloadCompressionMethod#ZSTD} and
+     * {@link PayloadCompressionMethod#LZ4} decompress several times faster than default
+     * {@link PayloadCompressionMethod#ZLIB}, but readers that don't know payload compression method can't decrypt
+     * the container. Payload entry index and {@link #withCompressionPolicy(CompressionPolicy)} are supported only
+     * with ZLIB.
+     * @param compressionMethod {@link PayloadCompressionMethod}
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withCompressionMethod(byte compressionMethod) {
+        if (!Tar.isSupportedCompressionMethod(compressionMethod)) {
+            throw new IllegalArgumentException("Invalid payload compression method " + compressionMethod);
+        }
+        this.payloadCompressionMethod = compressionMethod;
+        return this;
+    }
+
+    /**
+     * Compress payload on multiple threads of {@link #withExecutor(Executor)}. Payload is still a standard zlib
+     * stream, so this doesn't affect readers. Used only with {@link PayloadCompressionMethod#ZLIB} and without
+     * payload entry index.
+     * @param parallel true to compress payload in parallel
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withParallelCompression(boolean parallel) {
+        this.parallelCompression = parallel;
+        return this;
+    }
+
+    /**
+     * Build recipients (sender key generation and KEK derivation) on multiple threads of
+     * {@link #withExecutor(Executor)}. Recipients are written into header in the same order as given, so this
+     * doesn't affect the container format. Useful for large recipient lists.
+     * @param parallel true to build recipients in parallel
+     * @return this PayloadOptions
+     */
+    public PayloadOptions withParallelRecipients(boolean parallel) {
+        this.parallelRecipients = parallel;
+        return this;
+    }
+
+    public byte getPayloadEncryptionMethod() {
+        return payloadEncryptionMethod;
+    }
+
+    public boolean isSegmented() {
+        return payloadEncryptionMethod == PayloadEncryptionMethod.CHACHA20POLY1305_SEGMENTED;
+    }
+
+    public boolean isEntryIndex() {
+        return entryIndex;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public byte getPayloadCompressionMethod() {
+        return payloadCompressionMethod;
+    }
+
+    public boolean isParallelCompression() {
+        return parallelCompression;
+    }
+
+    public boolean isParallelRecipients() {
+        return parallelRecipients;
+    }
+}
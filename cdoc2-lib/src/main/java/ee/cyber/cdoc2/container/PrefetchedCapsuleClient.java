@@ -0,0 +1,103 @@
+package ee.cyber.cdoc2.container;
+
+import ee.cyber.cdoc2.client.ExtApiException;
+import ee.cyber.cdoc2.client.KeyCapsuleClient;
+import ee.cyber.cdoc2.client.KeyCapsuleClientFactory;
+import ee.cyber.cdoc2.client.model.Capsule;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * Key capsule client that returns capsule already requested with {@link KeyCapsuleClient#getCapsuleAsync(String)}
+ * for single transactionId. Other calls are delegated. Used for requesting key capsule from key server while rest
+ * of the CDOC2 header is read.
+ */
+final class PrefetchedCapsuleClient implements KeyCapsuleClient {
+
+    private final KeyCapsuleClient delegate;
+    private final String transactionId;
+    private final CompletableFuture<Optional<Capsule>> capsuleFuture;
+
+    private PrefetchedCapsuleClient(KeyCapsuleClient delegate, String transactionId) {
+        this.delegate = delegate;
+        this.transactionId = transactionId;
+        this.capsuleFuture = delegate.getCapsuleAsync(transactionId);
+    }
+
+    /**
+     * Start key capsule request and create client factory that returns prefetched capsule
+     * @param clientFac configured key servers clients factory
+     * @param serverId key server identifier
+     * @param transactionId key capsule id
+     * @return client factory where client for serverId returns prefetched capsule or clientFac, when key server
+     *          client for serverId is not configured
+     */
+    static KeyCapsuleClientFactory prefetch(KeyCapsuleClientFactory clientFac, String serverId, String transactionId) {
+        KeyCapsuleClient client = clientFac.getForId(serverId);
+        if (client == null) {
+            return clientFac;
+        }
+
+        KeyCapsuleClient prefetched = new PrefetchedCapsuleClient(client, transactionId);
+        return id -> serverId.equals(id) ? prefetched : clientFac.getForId(id);
+    }
+
+    @Override
+    public Optional<Capsule> getCapsule(String id) throws ExtApiException {
+        if (!transactionId.equals(id)) {
+            return delegate.getCapsule(id);
+        }
+
+        try {
+            return capsuleFuture.get();
+        } catch (InterruptedException ex) {
+            capsuleFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ExtApiException("Interrupted while waiting for key capsule " + id, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof ExtApiException apiException) {
+                throw apiException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new ExtApiException("Failed to get key capsule " + id, cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Optional<Capsule>> getCapsuleAsync(String id) {
+        return transactionId.equals(id) ? capsuleFuture : delegate.getCapsuleAsync(id);
+    }
+
+    @Override
+    public void setExpiryDuration(Duration duration) {
+        delegate.setExpiryDuration(duration);
+    }
+
+    @Override
+    public String storeCapsule(Capsule capsule) throws ExtApiException {
+        return delegate.storeCapsule(capsule);
+    }
+
+    @Override
+    public List<String> storeCapsules(List<Capsule> capsules) throws ExtApiException {
+        return delegate.storeCapsules(capsules);
+    }
+
+    @Override
+    public CompletableFuture<String> storeCapsuleAsync(Capsule capsule) {
+        return delegate.storeCapsuleAsync(capsule);
+    }
+
+    @Override
+    public String getServerIdentifier() {
+        return delegate.getServerIdentifier();
+    }
+}
@@ -1,10 +1,15 @@
 package ee.cyber.cdoc2.container;
 
+import ee.cyber.cdoc2.fbs.header.PayloadCompressionMethod;
+
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream; //zlib
-import org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,8 +17,14 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 
+import static ee.cyber.cdoc2.CDocConfiguration.BUFFER_SIZE_PROPERTY;
+import static ee.cyber.cdoc2.CDocConfiguration.DISK_USAGE_PROBE_INTERVAL_PROPERTY;
 import static ee.cyber.cdoc2.CDocConfiguration.DISK_USAGE_THRESHOLD_PROPERTY;
 import static ee.cyber.cdoc2.CDocConfiguration.GZIP_COMPRESSION_THRESHOLD_PROPERTY;
 import static ee.cyber.cdoc2.CDocConfiguration.TAR_ENTRIES_THRESHOLD_PROPERTY;
@@ -27,7 +38,10 @@ public final class Tar {
 
     private static final Logger log = LoggerFactory.getLogger(Tar.class);
 
-    public static final int DEFAULT_BUFFER_SIZE  = 8192;
+    // buffer size for tar, deflate and cipher streams, larger buffers mean fewer deflate and cipher calls per GB
+    public static final int DEFAULT_BUFFER_SIZE  = 64 * 1024;
+    public static final int MIN_BUFFER_SIZE = 8192;
+    public static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
 
     // gzip compression ratio threshold, normally less than 3, consider over 10 as zip bomb
     public static final double DEFAULT_COMPRESSION_RATIO_THRESHOLD = 10;
@@ -35,21 +49,48 @@ public final class Tar {
     // disk space available percentage allowed
     public static final double DEFAULT_DISK_USED_PERCENTAGE_THRESHOLD = 98;
 
+    // disk usage is checked at least after every 16MiB extracted
+    public static final long DEFAULT_DISK_USAGE_PROBE_INTERVAL = 16L * 1024 * 1024;
+
     public static final int DEFAULT_TAR_ENTRIES_THRESHOLD = 1000;
 
+    // tar block size used with payload entry index, each tar record is written through immediately
+    private static final int TAR_RECORD_SIZE = 512;
+
     private Tar() {
     }
 
-    static void addFileToTar(TarArchiveOutputStream outputStream, Path file, String entryName) throws IOException {
+    static void addFileToTar(TarArchiveOutputStream outputStream, Path file, String entryName, int bufferSize)
+            throws IOException {
+
+        addFileToTar(outputStream, file, entryName, bufferSize, level -> { }, CompressionPolicy.defaultPolicy());
+    }
+
+    /**
+     * Add file to tar. In {@link CompressionPolicy#isAuto() auto} mode, compression level is chosen from the first
+     * block of the file, that is then written into the archive, so that the file is read only once.
+     */
+    private static void addFileToTar(TarArchiveOutputStream outputStream, Path file, String entryName,
+                                     int bufferSize, IntConsumer setLevel, CompressionPolicy compression)
+            throws IOException {
 
         log.debug("Adding file {} as {}", file.toAbsolutePath(), entryName);
         if (Files.isRegularFile(file)) {
             TarArchiveEntry tarArchiveEntry = outputStream.createArchiveEntry(file.toFile(),
                     entryName);
 
-            outputStream.putArchiveEntry(tarArchiveEntry);
-            try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
-                long written = input.transferTo(outputStream);
+            try (InputStream input = Files.newInputStream(file)) {
+                byte[] probe = new byte[0];
+                if (compression.isAuto()) {
+                    probe = input.readNBytes(compression.getProbeSize());
+                    int level = compression.levelFor(probe);
+                    log.debug("Compression level {} for {}", level, entryName);
+                    setLevel.accept(level);
+                }
+
+                outputStream.putArchiveEntry(tarArchiveEntry);
+                outputStream.write(probe);
+                long written = probe.length + IOUtils.copy(input, outputStream, bufferSize);
                 log.debug("Added {}B", written);
             }
         } else {
@@ -66,31 +107,301 @@ public final class Tar {
      * @throws IOException if an I/O error has occurred
      */
     public static void archiveFiles(OutputStream dest, Iterable<File> files) throws IOException {
+        archiveFiles(dest, files, getBufferSize());
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib.
+     * @param dest  Compressed tar is written to dest
+     * @param files to archive
+     * @param bufferSize buffer size for reading files, compression and writing to dest
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void archiveFiles(OutputStream dest, Iterable<File> files, int bufferSize) throws IOException {
+        archiveFiles(dest, files, bufferSize, CompressionPolicy.defaultPolicy());
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib.
+     * @param dest  Compressed tar is written to dest
+     * @param files to archive
+     * @param bufferSize buffer size for reading files, compression and writing to dest
+     * @param compression compression level for files
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void archiveFiles(OutputStream dest, Iterable<File> files, int bufferSize,
+                                    CompressionPolicy compression) throws IOException {
         FileNameValidator.ensureNoFileDuplicates(files);
 
-        try (TarArchiveOutputStream tos = createPosixTarZArchiveOutputStream(dest)) {
+        ZlibOutputStream zlibOs = new ZlibOutputStream(new BufferedOutputStream(dest, bufferSize), bufferSize);
+        zlibOs.setLevel(compression.getLevel());
+
+        try (TarArchiveOutputStream tos = configurePosix(
+                new TarArchiveOutputStream(zlibOs, StandardCharsets.UTF_8.name()))) {
             for (File file : files) {
-                addFileToTar(tos, file.toPath(), file.getName());
+                addFileToTar(tos, file.toPath(), file.getName(), bufferSize, zlibOs::setLevel, compression);
+            }
+        }
+    }
+
+    /**
+     * Create tar archive of files and compress that with zlib in parallel, see
+     * {@link #createPosixTarZArchiveOutputStream(OutputStream, int, Executor)}
+     * @param dest  Compressed tar is written to dest
+     * @param files to archive
+     * @param bufferSize buffer size for reading files and writing to dest
+     * @param compression compression level for files
+     * @param executor executor used for compression
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void archiveFilesParallel(OutputStream dest, Iterable<File> files, int bufferSize,
+                                            CompressionPolicy compression, Executor executor) throws IOException {
+        FileNameValidator.ensureNoFileDuplicates(files);
+
+        ParallelDeflateOutputStream deflateOs = new ParallelDeflateOutputStream(
+            new BufferedOutputStream(dest, bufferSize), executor);
+        deflateOs.setLevel(compression.getLevel());
+
+        try (TarArchiveOutputStream tos = configurePosix(
+                new TarArchiveOutputStream(deflateOs, StandardCharsets.UTF_8.name()))) {
+            for (File file : files) {
+                addFileToTar(tos, file.toPath(), file.getName(), bufferSize, deflateOs::setLevel, compression);
             }
         }
     }
 
 
+    /**
+     * Create tar archive of files and compress that with compressionMethod.
+     * @param dest  Compressed tar is written to dest
+     * @param files to archive
+     * @param compressionMethod {@link PayloadCompressionMethod}
+     * @param bufferSize buffer size for reading files, compression and writing to dest
+     * @param compression compression level for files, used only with {@link PayloadCompressionMethod#ZLIB}
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void archiveFiles(OutputStream dest, Iterable<File> files, byte compressionMethod,
+                                    int bufferSize, CompressionPolicy compression) throws IOException {
+        if (compressionMethod == PayloadCompressionMethod.ZLIB) {
+            archiveFiles(dest, files, bufferSize, compression);
+            return;
+        }
+
+        FileNameValidator.ensureNoFileDuplicates(files);
+
+        OutputStream compressorOs = createCompressorOutputStream(new BufferedOutputStream(dest, bufferSize),
+            compressionMethod);
+        try (TarArchiveOutputStream tos = configurePosix(
+                new TarArchiveOutputStream(compressorOs, StandardCharsets.UTF_8.name()))) {
+            for (File file : files) {
+                addFileToTar(tos, file.toPath(), file.getName(), bufferSize);
+            }
+        }
+    }
+
+    private static OutputStream createCompressorOutputStream(OutputStream dest, byte compressionMethod)
+            throws IOException {
+
+        if (compressionMethod == PayloadCompressionMethod.ZSTD) {
+            return new ZstdCompressorOutputStream(dest);
+        } else if (compressionMethod == PayloadCompressionMethod.LZ4) {
+            return new FramedLZ4CompressorOutputStream(dest);
+        } else {
+            throw new IllegalArgumentException("Unsupported payload compression method " + compressionMethod);
+        }
+    }
+
+    /**
+     * Create decompressing InputStream for compressionMethod. Returned stream implements
+     * {@link org.apache.commons.compress.utils.InputStreamStatistics} for compression ratio checks.
+     * @param src compressed data
+     * @param compressionMethod {@link PayloadCompressionMethod}
+     * @param bufferSize buffer size for reading src
+     * @return decompressing InputStream
+     * @throws IOException if stream header (LZ4 frame) reading from src has failed
+     */
+    static InputStream createDecompressorInputStream(InputStream src, byte compressionMethod, int bufferSize)
+            throws IOException {
+
+        if (compressionMethod == PayloadCompressionMethod.ZLIB) {
+            return new ZlibInputStream(src, false, bufferSize);
+        } else if (compressionMethod == PayloadCompressionMethod.ZSTD) {
+            // zstd-jni reads source in its own buffer
+            return new ZstdCompressorInputStream(src);
+        } else if (compressionMethod == PayloadCompressionMethod.LZ4) {
+            return new FramedLZ4CompressorInputStream(new BufferedInputStream(src, bufferSize));
+        } else {
+            throw new IllegalArgumentException("Unsupported payload compression method " + compressionMethod);
+        }
+    }
+
+    static boolean isSupportedCompressionMethod(byte compressionMethod) {
+        return (compressionMethod == PayloadCompressionMethod.ZLIB)
+            || (compressionMethod == PayloadCompressionMethod.ZSTD)
+            || (compressionMethod == PayloadCompressionMethod.LZ4);
+    }
+
+    /**
+     * Create tar archive of files, compress that with zlib and write {@link PayloadIndex} after compressed tar.
+     * Compressor is fully flushed before each tar entry, so that entries can be decompressed independently
+     * starting from offset recorded in the index.
+     * @param dest  Compressed tar and index are written to dest
+     * @param files to archive
+     * @param bufferSize buffer size for reading files, compression and writing to dest
+     * @param compression compression level for files
+     * @return index written to dest
+     * @throws IOException if an I/O error has occurred
+     */
+    static PayloadIndex archiveFilesWithIndex(OutputStream dest, Iterable<File> files, int bufferSize,
+                                              CompressionPolicy compression) throws IOException {
+
+        FileNameValidator.ensureNoFileDuplicates(files);
+
+        List<PayloadIndex.Entry> entries = new LinkedList<>();
+        BufferedOutputStream bufferedDest = new BufferedOutputStream(dest, bufferSize);
+        ZlibOutputStream zlibOs = new ZlibOutputStream(bufferedDest, bufferSize);
+        zlibOs.setLevel(compression.getLevel());
+
+        try (TarArchiveOutputStream tos = createPosixTarArchiveOutputStream(zlibOs, TAR_RECORD_SIZE)) {
+            for (File file : files) {
+                tos.flush();
+                zlibOs.fullFlush();
+                entries.add(new PayloadIndex.Entry(file.getName(), zlibOs.getCompressedCount(), file.length()));
+                addFileToTar(tos, file.toPath(), file.getName(), bufferSize, zlibOs::setLevel, compression);
+            }
+
+            tos.finish();
+            zlibOs.finish();
+
+            PayloadIndex index = new PayloadIndex(entries, zlibOs.getCompressedCount());
+            index.writeTo(bufferedDest);
+            return index;
+        }
+    }
+
+    /**
+     * Create tar archive of entries and compress that with compressionMethod. Entry data is streamed from entry
+     * InputStream, see {@link PayloadEntry}.
+     * @param dest  Compressed tar is written to dest
+     * @param entries to archive
+     * @param compressionMethod {@link PayloadCompressionMethod}
+     * @param bufferSize buffer size for reading entries, compression and writing to dest
+     * @param compression compression level for entries, used only with {@link PayloadCompressionMethod#ZLIB}
+     * @param executor executor for parallel zlib compression, null to compress in calling thread
+     * @throws IOException if an I/O error has occurred or entry data size doesn't match entry size
+     */
+    static void archiveEntries(OutputStream dest, List<PayloadEntry> entries, byte compressionMethod,
+                               int bufferSize, CompressionPolicy compression, Executor executor)
+            throws IOException {
+
+        FileNameValidator.ensureNoNameDuplicates(entries.stream().map(PayloadEntry::getName).toList());
+        writeEntries(dest, entries, compressionMethod, bufferSize, compression, executor);
+    }
+
+    private static void writeEntries(OutputStream dest, List<PayloadEntry> entries, byte compressionMethod,
+                                     int bufferSize, CompressionPolicy compression, Executor executor)
+            throws IOException {
+
+        OutputStream bufferedDest = new BufferedOutputStream(dest, bufferSize);
+        OutputStream compressorOs;
+        IntConsumer setLevel;
+        if ((compressionMethod == PayloadCompressionMethod.ZLIB) && (executor != null)) {
+            ParallelDeflateOutputStream deflateOs = new ParallelDeflateOutputStream(bufferedDest, executor);
+            setLevel = deflateOs::setLevel;
+            compressorOs = deflateOs;
+        } else if (compressionMethod == PayloadCompressionMethod.ZLIB) {
+            ZlibOutputStream zlibOs = new ZlibOutputStream(bufferedDest, bufferSize);
+            setLevel = zlibOs::setLevel;
+            compressorOs = zlibOs;
+        } else {
+            setLevel = level -> { };
+            compressorOs = createCompressorOutputStream(bufferedDest, compressionMethod);
+        }
+        setLevel.accept(compression.getLevel());
+
+        try (TarArchiveOutputStream tos = configurePosix(
+                new TarArchiveOutputStream(compressorOs, StandardCharsets.UTF_8.name()))) {
+            for (PayloadEntry entry : entries) {
+                addEntryToTar(tos, entry, bufferSize, setLevel, compression);
+            }
+        }
+    }
+
+    private static void addEntryToTar(TarArchiveOutputStream outputStream, PayloadEntry entry, int bufferSize,
+                                      IntConsumer setLevel, CompressionPolicy compression) throws IOException {
+
+        log.debug("Adding entry {}", entry);
+        try (PayloadEntry.Content content = entry.open()) {
+            InputStream input = content.inputStream();
+
+            byte[] probe = new byte[0];
+            if (compression.isAuto()) {
+                probe = input.readNBytes((int) Math.min(compression.getProbeSize(), content.size()));
+                int level = compression.levelFor(probe);
+                log.debug("Compression level {} for {}", level, entry.getName());
+                setLevel.accept(level);
+            }
+
+            TarArchiveEntry tarArchiveEntry = new TarArchiveEntry(entry.getName());
+            tarArchiveEntry.setSize(content.size());
+            outputStream.putArchiveEntry(tarArchiveEntry);
+            outputStream.write(probe);
+
+            long written = probe.length
+                + IOUtils.copyLarge(input, outputStream, 0, content.size() - probe.length, new byte[bufferSize]);
+            if (written < content.size()) {
+                throw new IOException("Entry " + entry.getName() + " is shorter than its size " + content.size());
+            }
+            if (input.read() != -1) {
+                throw new IOException("Entry " + entry.getName() + " is longer than its size " + content.size());
+            }
+            log.debug("Added {}B", content.size());
+        }
+        outputStream.closeArchiveEntry();
+    }
+
     /**
      * Create a compressed (zlib) archive with single entry.
      * @param dest destination stream where created archive will be written
-     * @param inputStream data added to archive
+     * @param inputStream data added to archive. Entry size is taken from {@link InputStream#available()}, that is
+     *                    only an estimate for most streams
      * @param tarEntryName entry name (file name) for data
      * @throws IOException if an I/O error has occurred
+     * @deprecated use {@link #archiveData(OutputStream, InputStream, String, long)} with explicit size
      */
+    @Deprecated
     public static void archiveData(OutputStream dest, InputStream inputStream, String tarEntryName) throws IOException {
+        archiveData(dest, inputStream, tarEntryName, inputStream.available());
+    }
+
+    /**
+     * Create a compressed (zlib) archive with single entry. Data is streamed into archive.
+     * @param dest destination stream where created archive will be written
+     * @param inputStream data added to archive, must contain exactly size bytes
+     * @param tarEntryName entry name (file name) for data
+     * @param size entry size in bytes
+     * @throws IOException if an I/O error has occurred or inputStream length is different from size
+     */
+    public static void archiveData(OutputStream dest, InputStream inputStream, String tarEntryName, long size)
+            throws IOException {
+
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+
         try (TarArchiveOutputStream tarOs = createPosixTarZArchiveOutputStream(dest)) {
 
             TarArchiveEntry tarEntry = new TarArchiveEntry(tarEntryName);
-            tarEntry.setSize(inputStream.available());
+            tarEntry.setSize(size);
             tarOs.putArchiveEntry(tarEntry);
 
-            inputStream.transferTo(tarOs);
+            long written = IOUtils.copyLarge(inputStream, tarOs, 0, size);
+            if (written < size) {
+                throw new IOException("Entry " + tarEntryName + " is shorter than its size " + size);
+            }
+            if (inputStream.read() != -1) {
+                throw new IOException("Entry " + tarEntryName + " is longer than its size " + size);
+            }
             tarOs.closeArchiveEntry();
         }
     }
@@ -100,12 +411,44 @@ public final class Tar {
      * filename and POSIX big file sizes (over 8GB) extensions enabled.
      */
     public static TarArchiveOutputStream createPosixTarZArchiveOutputStream(OutputStream dest) {
-        TarArchiveOutputStream tarZOs = new TarArchiveOutputStream(new DeflateCompressorOutputStream(
-                new BufferedOutputStream(dest)), StandardCharsets.UTF_8.name());
-        tarZOs.setAddPaxHeadersForNonAsciiNames(true);
-        tarZOs.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-        tarZOs.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
-        return tarZOs;
+        return createPosixTarZArchiveOutputStream(dest, getBufferSize());
+    }
+
+    /**
+     * Create zlib/deflate compressed POSIX compliant TarArchiveOutputStream, see
+     * {@link #createPosixTarZArchiveOutputStream(OutputStream)}
+     * @param dest compressed tar is written to dest
+     * @param bufferSize buffer size for compression and writing to dest
+     */
+    public static TarArchiveOutputStream createPosixTarZArchiveOutputStream(OutputStream dest, int bufferSize) {
+        TarArchiveOutputStream tarZOs = new TarArchiveOutputStream(new ZlibOutputStream(
+                new BufferedOutputStream(dest, bufferSize), bufferSize), StandardCharsets.UTF_8.name());
+        return configurePosix(tarZOs);
+    }
+
+    /**
+     * Create zlib compressed POSIX compliant TarArchiveOutputStream, that compresses on multiple threads.
+     * Compressed tar is a standard zlib stream. See {@link #createPosixTarZArchiveOutputStream(OutputStream)}
+     * @param dest compressed tar is written to dest
+     * @param bufferSize buffer size for writing to dest
+     * @param executor executor used for compression
+     */
+    public static TarArchiveOutputStream createPosixTarZArchiveOutputStream(OutputStream dest, int bufferSize,
+                                                                           Executor executor) {
+        TarArchiveOutputStream tarZOs = new TarArchiveOutputStream(new ParallelDeflateOutputStream(
+                new BufferedOutputStream(dest, bufferSize), executor), StandardCharsets.UTF_8.name());
+        return configurePosix(tarZOs);
+    }
+
+    private static TarArchiveOutputStream createPosixTarArchiveOutputStream(OutputStream dest, int blockSize) {
+        return configurePosix(new TarArchiveOutputStream(dest, blockSize, StandardCharsets.UTF_8.name()));
+    }
+
+    private static TarArchiveOutputStream configurePosix(TarArchiveOutputStream tarOs) {
+        tarOs.setAddPaxHeadersForNonAsciiNames(true);
+        tarOs.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOs.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        return tarOs;
     }
 
     /**
@@ -119,8 +462,8 @@ public final class Tar {
     public static long extractTarEntry(InputStream tarGZipInputStream, OutputStream outputStream, String tarEntryName)
             throws IOException {
 
-        try (TarArchiveInputStream tarInputStream = new TarArchiveInputStream(new DeflateCompressorInputStream(
-                new BufferedInputStream(tarGZipInputStream)))) {
+        try (TarArchiveInputStream tarInputStream = new TarArchiveInputStream(new ZlibInputStream(
+                tarGZipInputStream, false, getBufferSize()))) {
             TarArchiveEntry tarArchiveEntry;
             while ((tarArchiveEntry = tarInputStream.getNextEntry()) != null) {
                 if (tarArchiveEntry.isFile() && tarEntryName.equals(tarArchiveEntry.getName())) {
@@ -136,11 +479,35 @@ public final class Tar {
         return -1L;
     }
 
+    /**
+     * Buffer size for tar, deflate and cipher streams from {@link ee.cyber.cdoc2.CDocConfiguration#BUFFER_SIZE_PROPERTY}
+     * @return buffer size between {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}
+     */
+    public static int getBufferSize() {
+        int bufferSize = getNumberPropertyValue(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE, Integer::valueOf);
+        if (!isValidBufferSize(bufferSize)) {
+            log.warn("Invalid value {} for {}. Using default {}", bufferSize, BUFFER_SIZE_PROPERTY,
+                DEFAULT_BUFFER_SIZE);
+            return DEFAULT_BUFFER_SIZE;
+        }
+        return bufferSize;
+    }
+
+    static boolean isValidBufferSize(int bufferSize) {
+        return (bufferSize >= MIN_BUFFER_SIZE) && (bufferSize <= MAX_BUFFER_SIZE);
+    }
+
     public static double getDiskUsedPercentageThreshold() {
         return getNumberPropertyValue(DISK_USAGE_THRESHOLD_PROPERTY, DEFAULT_DISK_USED_PERCENTAGE_THRESHOLD,
                 Double::valueOf);
     }
 
+    public static long getDiskUsageProbeInterval() {
+        long interval = getNumberPropertyValue(DISK_USAGE_PROBE_INTERVAL_PROPERTY, DEFAULT_DISK_USAGE_PROBE_INTERVAL,
+                Long::valueOf);
+        return (interval > 0) ? interval : DEFAULT_DISK_USAGE_PROBE_INTERVAL;
+    }
+
     public static int getTarEntriesThresholdThreshold() {
         return getNumberPropertyValue(TAR_ENTRIES_THRESHOLD_PROPERTY, DEFAULT_TAR_ENTRIES_THRESHOLD, Integer::valueOf);
     }
@@ -5,12 +5,11 @@ import ee.cyber.cdoc2.CDocConfiguration;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream;
+import org.apache.commons.compress.compressors.deflate.DeflateParameters;
 import org.apache.commons.compress.utils.InputStreamStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,13 +30,23 @@ public class TarDeflate implements AutoCloseable {
     /**
      * Created from Cha Cha input stream and used for reading compressed data.
      */
-    private final DeflateCompressorInputStream zLibIs;
+    private final InputStream decompressorIs;
 
     /**
-     * Created from ZLib input stream and used for reading compressed tar archive.
+     * Compressed/uncompressed byte counts of decompressorIs, used for zip bomb detection.
+     */
+    private final InputStreamStatistics decompressorStatistics;
+
+    /**
+     * Created from decompressor input stream and used for reading compressed tar archive.
      */
     private final TarArchiveInputStream tarIs;
 
+    /**
+     * Buffer size for reading tar entries
+     */
+    private final int bufferSize;
+
     /**
      * Files extracted from tar deflate stream within decryption.
      */
@@ -55,8 +64,46 @@ public class TarDeflate implements AutoCloseable {
      * @param tarDeflateIs tar compressed with deflate
      */
     public TarDeflate(InputStream tarDeflateIs) {
-        zLibIs = new DeflateCompressorInputStream(new BufferedInputStream(tarDeflateIs));
-        tarIs = new TarArchiveInputStream(zLibIs);
+        this(tarDeflateIs, new DeflateParameters());
+    }
+
+    /**
+     * @param tarDeflateIs tar compressed with deflate
+     * @param deflateParameters deflate parameters, {@link DeflateParameters#setWithZlibHeader(boolean)} false for
+     *                          raw deflate stream (tar entry decompressed from {@link PayloadIndex} offset)
+     */
+    TarDeflate(InputStream tarDeflateIs, DeflateParameters deflateParameters) {
+        this(tarDeflateIs, deflateParameters, Tar.getBufferSize());
+    }
+
+    /**
+     * @param tarDeflateIs tar compressed with deflate
+     * @param deflateParameters deflate parameters, {@link DeflateParameters#setWithZlibHeader(boolean)} false for
+     *                          raw deflate stream
+     * @param bufferSize buffer size for decompression and reading tar entries
+     */
+    TarDeflate(InputStream tarDeflateIs, DeflateParameters deflateParameters, int bufferSize) {
+        this(new ZlibInputStream(tarDeflateIs, !deflateParameters.withZlibHeader(), bufferSize), bufferSize);
+    }
+
+    /**
+     * @param compressedTarIs tar compressed with compressionMethod
+     * @param compressionMethod {@link ee.cyber.cdoc2.fbs.header.PayloadCompressionMethod}
+     * @param bufferSize buffer size for decompression and reading tar entries
+     * @throws IOException if decompressor initialization reading from compressedTarIs has failed
+     */
+    TarDeflate(InputStream compressedTarIs, byte compressionMethod, int bufferSize) throws IOException {
+        this(Tar.createDecompressorInputStream(compressedTarIs, compressionMethod, bufferSize), bufferSize);
+    }
+
+    private TarDeflate(InputStream decompressorIs, int bufferSize) {
+        if (!(decompressorIs instanceof InputStreamStatistics statistics)) {
+            throw new IllegalArgumentException("Decompressor must implement InputStreamStatistics");
+        }
+        this.decompressorIs = decompressorIs;
+        this.decompressorStatistics = statistics;
+        this.tarIs = new TarArchiveInputStream(decompressorIs);
+        this.bufferSize = bufferSize;
     }
 
     /**
@@ -116,6 +163,39 @@ public class TarDeflate implements AutoCloseable {
         }
     }
 
+    /**
+     * Process single tar entry from the start of the stream. Used with {@link PayloadIndex}, when stream is
+     * started from entry offset and doesn't contain the rest of the archive.
+     * @param expectedEntryName name of the entry, expected at the start of the stream
+     * @param tarEntryProcessingDelegate processing to be done with entry
+     * @param diskUsageGuard disk usage guard shared by all entries extracted from the archive
+     * @return ArchiveEntries processed (empty, when entry was ignored by delegate)
+     * @throws IOException if an I/O error has occurred or entry at the start of the stream is not expected entry
+     */
+    List<ArchiveEntry> processEntry(
+        String expectedEntryName,
+        TarEntryProcessingDelegate tarEntryProcessingDelegate,
+        DiskUsageGuard diskUsageGuard
+    ) throws IOException {
+
+        try {
+            TarArchiveEntry tarArchiveEntry = tarIs.getNextEntry();
+            if ((tarArchiveEntry == null) || !expectedEntryName.equals(tarArchiveEntry.getName())) {
+                throw new IOException("Tar entry does not match payload entry index " + expectedEntryName);
+            }
+
+            List<ArchiveEntry> processed = new LinkedList<>();
+            if (processTarEntry(tarEntryProcessingDelegate, tarArchiveEntry, tarIs, decompressorStatistics,
+                diskUsageGuard)) {
+                processed.add(tarArchiveEntry);
+            }
+            return processed;
+        } catch (Exception ex) {
+            exception = ex;
+            throw ex;
+        }
+    }
+
     /**
      * Process tar deflate input stream and find entries in it. Process entries based on operation:
      * @param delegate TarEntryProcessingDelegate used to process tar entries in tar input stream
@@ -134,12 +214,14 @@ public class TarDeflate implements AutoCloseable {
         List<ArchiveEntry> processedArchiveEntries = new LinkedList<>();
 
         int tarEntriesThreshold = Tar.getTarEntriesThresholdThreshold();
+        // single guard for the archive, file system is not probed for every entry
+        DiskUsageGuard diskUsageGuard = DiskUsageGuard.forDir(delegate.getOutputDir());
         TarArchiveEntry tarArchiveEntry;
         while ((tarArchiveEntry = tarIs.getNextEntry()) != null) {
 
             checkExistingTarEntryName(processedArchiveEntries, tarArchiveEntry);
 
-            if (processTarEntry(delegate, tarArchiveEntry, tarIs, zLibIs)) {
+            if (processTarEntry(delegate, tarArchiveEntry, tarIs, decompressorStatistics, diskUsageGuard)) {
                 processedArchiveEntries.add(tarArchiveEntry);
             }
 
@@ -147,9 +229,10 @@ public class TarDeflate implements AutoCloseable {
         }
 
         log.debug("Uncompressed {}B from {}B (compressed)",
-            zLibIs.getUncompressedCount(), zLibIs.getCompressedCount());
+            decompressorStatistics.getUncompressedCount(), decompressorStatistics.getCompressedCount());
 
         checkUnExpectedDataAfterTar();
+        delegate.onEndOfArchive();
 
         return processedArchiveEntries;
     }
@@ -232,6 +315,7 @@ public class TarDeflate implements AutoCloseable {
      * @param delegate TarEntryProcessing that is used for tarArchiveEntry processing
      * @param fromTarInputStream tar input stream currently processed
      * @param inputStreamStatistics InputStreamStatistics that wraps fromTarInputStream
+     * @param diskUsageGuard disk usage guard for the archive, used when entry is written to disk
      * @return if tarArchiveEntry was processed. If false and no exception, then tarArchive was ignored.
      * @throws IOException if an I/O error occurs
      */
@@ -239,10 +323,10 @@ public class TarDeflate implements AutoCloseable {
                                   TarEntryProcessingDelegate delegate,
                                   TarArchiveEntry tarArchiveEntry,
                                   TarArchiveInputStream fromTarInputStream,
-                                  InputStreamStatistics inputStreamStatistics
+                                  InputStreamStatistics inputStreamStatistics,
+                                  DiskUsageGuard diskUsageGuard
     ) throws IOException {
 
-        double diskUsageThreshold = Tar.getDiskUsedPercentageThreshold();
         long written = 0;
         boolean processed;
 
@@ -254,17 +338,26 @@ public class TarDeflate implements AutoCloseable {
                 createdFiles.add(createdFile);
             }
 
-            byte[] buffer = new byte[Tar.DEFAULT_BUFFER_SIZE];
-            int read;
-            while ((read = fromTarInputStream.read(buffer, 0, Tar.DEFAULT_BUFFER_SIZE)) >= 0) {
+            // check available disk space, when entry is written to disk
+            boolean toDisk = (createdFile != null);
+            if (toDisk) {
+                diskUsageGuard.onEntry(tarArchiveEntry.getSize());
+            }
 
-                //check available disk space
-                checkAvailableDiskSpace(delegate.getOutputDir(), diskUsageThreshold);
+            // read once per entry, not for every buffer
+            double compressionRatioThreshold = Tar.getCompressionRatioThreshold();
+            byte[] buffer = new byte[bufferSize];
+            int read;
+            while ((read = fromTarInputStream.read(buffer, 0, bufferSize)) >= 0) {
 
                 delegate.write(buffer, 0, read);
                 written += read;
+                if (toDisk) {
+                    diskUsageGuard.onWrite(read);
+                }
 
-                checkCompressionRatioThreshold(tarArchiveEntry, inputStreamStatistics);
+                checkCompressionRatioThreshold(tarArchiveEntry, inputStreamStatistics,
+                    compressionRatioThreshold);
             }
 
             processed = delegate.onEndOfTarEntry();
@@ -282,10 +375,11 @@ public class TarDeflate implements AutoCloseable {
      * Throws exception when compression ratio (uncompressed/compressed) is above threshold
      * @param tarArchiveEntry tar entry currently under processing
      * @param isStatistics InputStreamStatistics to use for compression ratio calculation
+     * @param compressionRatioThreshold max allowed compression ratio, see {@link Tar#getCompressionRatioThreshold()}
      */
     private static void checkCompressionRatioThreshold(TarArchiveEntry tarArchiveEntry,
-                                                       InputStreamStatistics isStatistics) {
-        double compressionRatioThreshold = Tar.getCompressionRatioThreshold();
+                                                       InputStreamStatistics isStatistics,
+                                                       double compressionRatioThreshold) {
         double compressionRatio = (double) isStatistics.getUncompressedCount()
             / (double) isStatistics.getCompressedCount();
         if (compressionRatio > compressionRatioThreshold) {
@@ -297,24 +391,6 @@ public class TarDeflate implements AutoCloseable {
         }
     }
 
-    /**
-     * Throws exception when disk usage is above diskUsageThreshold
-     * @param destDir directory (and partition) where available disk space is checked
-     * @param diskUsageThreshold
-     */
-    private static void checkAvailableDiskSpace(File destDir, double diskUsageThreshold) {
-        if ((destDir != null) && (destDir.exists())) {
-            double usedPercentage = (double) destDir.getUsableSpace()
-                / (double) destDir.getTotalSpace() * 100;
-
-            if (usedPercentage >= diskUsageThreshold) {
-                String err = String.format("More than  %.2f%% disk space used. Aborting", diskUsageThreshold);
-                log.error(err);
-                throw new IllegalStateException(err);
-            }
-        }
-    }
-
     /**
      * After tar processing has finished (2 blocks of 0x00 bytes), then deflate will stop processing.
      * Throw exception when there is more bytes after tar end blocks.
@@ -325,12 +401,12 @@ public class TarDeflate implements AutoCloseable {
         // block makes possible to "hide" additional data after tar archive. This may be an attempt to disable
         // MAC checking as not all data won't be processed. Suspicious.
 
-        if ((zLibIs.available() > 0)
-            && (zLibIs.read() != -1) // DeflateCompressorInputStream.available() sometimes
-                                     // incorrectly reports that bytes available for reading,
-                                     // check that bytes can actually read
+        if ((decompressorIs.available() > 0)
+            && (decompressorIs.read() != -1) // InflaterInputStream.available() sometimes
+                                             // incorrectly reports that bytes available for reading,
+                                             // check that bytes can actually read
         ) {
-            log.warn("Unexpected data after tar {}B.", zLibIs.available());
+            log.warn("Unexpected data after tar {}B.", decompressorIs.available());
             throw new IOException("Unexpected data after tar");
         }
     }
@@ -379,7 +455,7 @@ public class TarDeflate implements AutoCloseable {
             deleteFiles(createdFiles);
         }
         tarIs.close();
-        zLibIs.close();
+        decompressorIs.close();
     }
 
 }
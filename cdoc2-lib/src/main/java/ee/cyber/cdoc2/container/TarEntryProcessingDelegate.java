@@ -14,6 +14,7 @@ import java.io.IOException;
  * * Extract - extract files from tar input stream to destination directory
  * * Transfer - copy tar entries from input tar stream to output tar stream. Useful for re-encryption.
  * * List - list tar entries found from tar input stream
+ * * Stream - publish tar entries to subscriber, see {@link DecryptingPublisher}
  * @see {@link TarDeflate#processTarEntry(TarEntryProcessingDelegate, TarArchiveEntry,
  * TarArchiveInputStream, InputStreamStatistics)}
  */
@@ -28,7 +29,9 @@ public interface TarEntryProcessingDelegate {
         /** No extraction, return list of files in archive*/
         LIST,
         /** Transfer (copy) files to other tar for re-encryption*/
-        TRANSFER
+        TRANSFER,
+        /** Publish entries to Flow.Subscriber, no files are created*/
+        STREAM
     }
 
     OP getType();
@@ -58,6 +61,14 @@ public interface TarEntryProcessingDelegate {
      */
     boolean onEndOfTarEntry() throws IOException;
 
+    /**
+     * Called when all tar entries were processed successfully
+     * @throws IOException if an I/O error occurs
+     */
+    default void onEndOfArchive() throws IOException {
+        // nothing to do by default
+    }
+
     /**
      * Get directory where output is written. May be null
      * (for example for list or when output is not on filesystem)
@@ -0,0 +1,57 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.compress.utils.InputStreamStatistics;
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Zlib or raw deflate InputStream with configurable buffer size. Reads compressed data directly from underlying
+ * stream into its own buffer, so underlying stream doesn't need to be buffered. Compressed count is the number of
+ * bytes read from underlying stream, as for {@code DeflateCompressorInputStream}.
+ */
+final class ZlibInputStream extends InflaterInputStream implements InputStreamStatistics {
+
+    private final CountingInputStream countingIs;
+    private boolean closed;
+
+    /**
+     * @param in compressed input
+     * @param rawDeflate true for raw deflate stream (no zlib header and trailer)
+     * @param bufferSize size of the buffer for compressed data
+     */
+    ZlibInputStream(InputStream in, boolean rawDeflate, int bufferSize) {
+        this(new CountingInputStream(in), rawDeflate, bufferSize);
+    }
+
+    private ZlibInputStream(CountingInputStream countingIs, boolean rawDeflate, int bufferSize) {
+        super(countingIs, new Inflater(rawDeflate), bufferSize);
+        this.countingIs = countingIs;
+    }
+
+    @Override
+    public long getCompressedCount() {
+        return countingIs.getByteCount();
+    }
+
+    @Override
+    public long getUncompressedCount() {
+        return inf.getBytesWritten();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                inf.end(); // custom Inflater is not ended by InflaterInputStream
+            }
+        }
+    }
+}
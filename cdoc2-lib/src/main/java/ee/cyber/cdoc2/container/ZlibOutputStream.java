@@ -0,0 +1,69 @@
+package ee.cyber.cdoc2.container;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+
+/**
+ * Zlib (deflate with zlib header and trailer) OutputStream that supports full flush. After
+ * {@link #fullFlush()} the compressed stream is byte aligned and compression dictionary is reset, so that
+ * decompression (raw deflate) can be started from {@link #getCompressedCount()} offset.
+ */
+final class ZlibOutputStream extends DeflaterOutputStream {
+
+    private final CountingOutputStream countingOs;
+    private boolean closed;
+
+    ZlibOutputStream(OutputStream out, int bufferSize) {
+        this(new CountingOutputStream(out), bufferSize);
+    }
+
+    private ZlibOutputStream(CountingOutputStream countingOs, int bufferSize) {
+        super(countingOs, new Deflater(Deflater.DEFAULT_COMPRESSION, false), bufferSize);
+        this.countingOs = countingOs;
+    }
+
+    /**
+     * Write all pending compressed data to underlying stream and reset compression state (Deflater FULL_FLUSH)
+     * @throws IOException if an I/O error has occurred
+     */
+    void fullFlush() throws IOException {
+        int len;
+        do {
+            len = def.deflate(buf, 0, buf.length, Deflater.FULL_FLUSH);
+            out.write(buf, 0, len);
+        } while (len == buf.length);
+    }
+
+    /**
+     * Change compression level. Data already written is compressed with the previous level, the zlib stream
+     * stays valid.
+     * @param level new compression level
+     */
+    void setLevel(int level) {
+        def.setLevel(level);
+    }
+
+    /**
+     * @return number of compressed bytes written to underlying stream
+     */
+    long getCompressedCount() {
+        return countingOs.getByteCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                def.end(); // custom Deflater is not ended by DeflaterOutputStream
+            }
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package ee.cyber.cdoc2.container.recipients;
 
-import ee.cyber.cdoc2.crypto.ECKeys;
 
 import ee.cyber.cdoc2.crypto.EllipticCurve;
+import ee.cyber.cdoc2.crypto.RecipientKeyCache;
 import java.security.interfaces.ECPublicKey;
 import java.util.Objects;
 
@@ -33,7 +33,7 @@ public abstract class EccRecipient extends Recipient implements PublicKeyRecipie
      * Recipient ECC public key in TLS 1.3 format (specified in RFC 8446) in bytes
      */
     public byte[] getRecipientPubKeyTlsEncoded() {
-        return ECKeys.encodeEcPubKeyForTls(this.ellipticCurve, this.recipientPubKey);
+        return RecipientKeyCache.encodeEcPubKeyForTls(this.ellipticCurve, this.recipientPubKey);
     }
 
     /**
@@ -22,6 +22,7 @@ import java.security.GeneralSecurityException;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Arrays;
+import javax.annotation.Nullable;
 
 import static ee.cyber.cdoc2.fbs.header.Capsule.*;
 
@@ -51,6 +52,37 @@ public final class RecipientDeserializer {
         return getDeserializedRecipientByKeyOrigin(r, encryptedFmkBytes, keyLabel);
     }
 
+    /**
+     * Get recipient public key from RecipientRecord without decoding and validating it. Used to find recipient
+     * record for decryption key pair without deserializing all records in header.
+     * @param r recipient record
+     * @return recipient public key in TLS 1.3 format (EC) or DER encoded (RSA), null if record is not for
+     *      public key recipient or its key details type is unknown
+     */
+    @Nullable
+    public static ByteBuffer getRecipientPublicKey(RecipientRecord r) {
+        if (r.capsuleType() == recipients_ECCPublicKeyCapsule) {
+            ECCPublicKeyCapsule capsule = (ECCPublicKeyCapsule) r.capsule(new ECCPublicKeyCapsule());
+            return (capsule != null) ? capsule.recipientPublicKeyAsByteBuffer() : null;
+        } else if (r.capsuleType() == recipients_RSAPublicKeyCapsule) {
+            RSAPublicKeyCapsule capsule = (RSAPublicKeyCapsule) r.capsule(new RSAPublicKeyCapsule());
+            return (capsule != null) ? capsule.recipientPublicKeyAsByteBuffer() : null;
+        } else if (r.capsuleType() == recipients_KeyServerCapsule) {
+            KeyServerCapsule capsule = (KeyServerCapsule) r.capsule(new KeyServerCapsule());
+            if (capsule == null) {
+                return null;
+            }
+            if (capsule.recipientKeyDetailsType() == KeyDetailsUnion.EccKeyDetails) {
+                EccKeyDetails details = (EccKeyDetails) capsule.recipientKeyDetails(new EccKeyDetails());
+                return (details != null) ? details.recipientPublicKeyAsByteBuffer() : null;
+            } else if (capsule.recipientKeyDetailsType() == KeyDetailsUnion.RsaKeyDetails) {
+                RsaKeyDetails details = (RsaKeyDetails) capsule.recipientKeyDetails(new RsaKeyDetails());
+                return (details != null) ? details.recipientPublicKeyAsByteBuffer() : null;
+            }
+        }
+        return null;
+    }
+
     private static Recipient getDeserializedRecipientByKeyOrigin(
         RecipientRecord r, byte[] encryptedFmkBytes, String keyLabel
     ) throws GeneralSecurityException, CDocParseException {
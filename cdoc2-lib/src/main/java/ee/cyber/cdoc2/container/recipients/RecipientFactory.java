@@ -1,11 +1,10 @@
 package ee.cyber.cdoc2.container.recipients;
 
-import ee.cyber.cdoc2.client.EcCapsuleClient;
 import ee.cyber.cdoc2.client.EcCapsuleClientImpl;
 import ee.cyber.cdoc2.client.ExtApiException;
 import ee.cyber.cdoc2.client.KeyCapsuleClient;
-import ee.cyber.cdoc2.client.RsaCapsuleClient;
 import ee.cyber.cdoc2.client.RsaCapsuleClientImpl;
+import ee.cyber.cdoc2.client.model.Capsule;
 import ee.cyber.cdoc2.container.Envelope;
 import ee.cyber.cdoc2.crypto.Crypto;
 import ee.cyber.cdoc2.crypto.EllipticCurve;
@@ -13,6 +12,7 @@ import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
 import ee.cyber.cdoc2.crypto.keymaterial.encrypt.PasswordEncryptionKeyMaterial;
 import ee.cyber.cdoc2.crypto.RsaUtils;
 import ee.cyber.cdoc2.crypto.KeyAlgorithm;
+import ee.cyber.cdoc2.crypto.RecipientKeyCache;
 import ee.cyber.cdoc2.crypto.keymaterial.encrypt.PublicKeyEncryptionKeyMaterial;
 import ee.cyber.cdoc2.crypto.keymaterial.encrypt.SecretEncryptionKeyMaterial;
 import ee.cyber.cdoc2.fbs.header.FMKEncryptionMethod;
@@ -33,8 +33,14 @@ import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidParameterSpecException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 
 /**
@@ -64,6 +70,83 @@ public final class RecipientFactory {
         @Nullable KeyCapsuleClient serverClient
     ) throws GeneralSecurityException, ExtApiException {
 
+        return buildRecipients(fmk, recipientKeys, serverClient, true, null);
+    }
+
+    /**
+     * Build recipients in parallel on executor, see {@link #buildRecipients(byte[], List, KeyCapsuleClient)}.
+     * Recipients are returned in the same order as recipientKeys, so header is the same as built sequentially.
+     * Useful for large recipient lists. Key capsules are stored in key server after all recipients are built.
+     * @param fmk file master key generated per CDOC2 envelope
+     * @param recipientKeys recipients key material used to derive KEK
+     * @param serverClient if server client is provided, then key material for deriving KEK or encrypted KEK is stored
+     *                     in key server. Must be thread-safe
+     * @param executor executor where recipients are built, if null then recipients are built sequentially
+     * @return Recipients list created from provided key material
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws ExtApiException if communication with key server failed
+     */
+    public static Recipient[] buildRecipients(
+        byte[] fmk,
+        List<EncryptionKeyMaterial> recipientKeys,
+        @Nullable KeyCapsuleClient serverClient,
+        @Nullable Executor executor
+    ) throws GeneralSecurityException, ExtApiException {
+
+        return buildRecipients(fmk, recipientKeys, serverClient, true, executor);
+    }
+
+    /**
+     * Build recipients from keys that were already validated, see
+     * {@link #buildRecipients(byte[], List, KeyCapsuleClient)}. EC public keys are not validated again, this
+     * saves EC point validation for each CDOC2 envelope, when many envelopes are created for the same recipients.
+     * @param fmk file master key generated per CDOC2 envelope
+     * @param recipientKeys validated recipients key material used to derive KEK
+     * @param serverClient if server client is provided, then key material for deriving KEK or encrypted KEK is stored
+     *                     in key server
+     * @return Recipients list created from provided key material
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws ExtApiException if communication with key server failed
+     */
+    public static Recipient[] buildRecipients(
+        byte[] fmk,
+        ValidatedRecipientKeys recipientKeys,
+        @Nullable KeyCapsuleClient serverClient
+    ) throws GeneralSecurityException, ExtApiException {
+
+        return buildRecipients(fmk, recipientKeys.getKeyMaterials(), serverClient, false, null);
+    }
+
+    /**
+     * Build recipients from keys that were already validated in parallel on executor, see
+     * {@link #buildRecipients(byte[], List, KeyCapsuleClient, Executor)}
+     * @param fmk file master key generated per CDOC2 envelope
+     * @param recipientKeys validated recipients key material used to derive KEK
+     * @param serverClient if server client is provided, then key material for deriving KEK or encrypted KEK is stored
+     *                     in key server. Must be thread-safe
+     * @param executor executor where recipients are built, if null then recipients are built sequentially
+     * @return Recipients list created from provided key material
+     * @throws GeneralSecurityException if security/crypto error has occurred
+     * @throws ExtApiException if communication with key server failed
+     */
+    public static Recipient[] buildRecipients(
+        byte[] fmk,
+        ValidatedRecipientKeys recipientKeys,
+        @Nullable KeyCapsuleClient serverClient,
+        @Nullable Executor executor
+    ) throws GeneralSecurityException, ExtApiException {
+
+        return buildRecipients(fmk, recipientKeys.getKeyMaterials(), serverClient, false, executor);
+    }
+
+    private static Recipient[] buildRecipients(
+        byte[] fmk,
+        List<EncryptionKeyMaterial> recipientKeys,
+        @Nullable KeyCapsuleClient serverClient,
+        boolean validateEcKeys,
+        @Nullable Executor executor
+    ) throws GeneralSecurityException, ExtApiException {
+
         Objects.requireNonNull(fmk);
         Objects.requireNonNull(recipientKeys);
         if (fmk.length != Crypto.FMK_LEN_BYTES) {
@@ -74,26 +157,129 @@ public final class RecipientFactory {
             throw new IllegalArgumentException("At least one recipient required");
         }
 
-        List<Recipient> result = new ArrayList<>(recipientKeys.size());
+        List<PendingRecipient> pending = ((executor != null) && (recipientKeys.size() > 1))
+            ? buildPendingRecipientsInParallel(fmk, recipientKeys, serverClient, validateEcKeys, executor)
+            : buildPendingRecipients(fmk, recipientKeys, serverClient, validateEcKeys);
+
+        return storeCapsules(pending, serverClient);
+    }
+
+    /**
+     * Recipient that is complete after its key capsule is stored in key server. Capsules of all recipients are
+     * stored together, so that large recipient lists don't cost one server round-trip per recipient.
+     * @param capsule key capsule to store or null, if recipient doesn't use key server
+     * @param complete creates recipient from transactionId returned by key server
+     */
+    private record PendingRecipient(@Nullable Capsule capsule, Function<String, Recipient> complete) {
+        static PendingRecipient of(Recipient recipient) {
+            return new PendingRecipient(null, transactionId -> recipient);
+        }
+    }
+
+    private static List<PendingRecipient> buildPendingRecipients(
+        byte[] fmk,
+        List<EncryptionKeyMaterial> recipientKeys,
+        @Nullable KeyCapsuleClient serverClient,
+        boolean validateEcKeys
+    ) throws GeneralSecurityException, ExtApiException {
+
+        List<PendingRecipient> result = new ArrayList<>(recipientKeys.size());
         for (EncryptionKeyMaterial encKeyMaterial : recipientKeys) {
             addRecipientsByKeyOrigin(
-                result, serverClient, fmk, encKeyMaterial
+                result, serverClient, fmk, encKeyMaterial, validateEcKeys
             );
         }
+        return result;
+    }
+
+    private static List<PendingRecipient> buildPendingRecipientsInParallel(
+        byte[] fmk,
+        List<EncryptionKeyMaterial> recipientKeys,
+        @Nullable KeyCapsuleClient serverClient,
+        boolean validateEcKeys,
+        Executor executor
+    ) throws GeneralSecurityException, ExtApiException {
+
+        List<CompletableFuture<List<PendingRecipient>>> futures = new ArrayList<>(recipientKeys.size());
+        for (EncryptionKeyMaterial encKeyMaterial : recipientKeys) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                List<PendingRecipient> recipients = new ArrayList<>(1);
+                try {
+                    addRecipientsByKeyOrigin(recipients, serverClient, fmk, encKeyMaterial, validateEcKeys);
+                } catch (GeneralSecurityException | ExtApiException ex) {
+                    throw new CompletionException(ex);
+                }
+                return recipients;
+            }, executor));
+        }
+
+        // join in recipientKeys order, so that header doesn't depend on completion order
+        List<PendingRecipient> result = new ArrayList<>(recipientKeys.size());
+        try {
+            for (CompletableFuture<List<PendingRecipient>> future : futures) {
+                result.addAll(future.join());
+            }
+        } catch (CompletionException ex) {
+            // don't start building remaining recipients
+            futures.forEach(f -> f.cancel(false));
+            if (ex.getCause() instanceof GeneralSecurityException gse) {
+                throw gse;
+            } else if (ex.getCause() instanceof ExtApiException extApiException) {
+                throw extApiException;
+            }
+            throw ex;
+        }
+
+        return result;
+    }
+
+    /**
+     * Store key capsules of pending recipients in key server and create recipients with returned transactionIds
+     */
+    private static Recipient[] storeCapsules(
+        List<PendingRecipient> pending,
+        @Nullable KeyCapsuleClient serverClient
+    ) throws ExtApiException {
+
+        List<Capsule> capsules = pending.stream()
+            .map(PendingRecipient::capsule)
+            .filter(Objects::nonNull)
+            .toList();
+
+        List<String> transactionIds;
+        if (capsules.isEmpty()) {
+            transactionIds = List.of();
+        } else if (capsules.size() == 1) {
+            transactionIds = Collections.singletonList(serverClient.storeCapsule(capsules.get(0)));
+        } else {
+            transactionIds = serverClient.storeCapsules(capsules);
+            if (transactionIds.size() != capsules.size()) {
+                throw new ExtApiException("Expected " + capsules.size() + " transactionIds, got "
+                    + transactionIds.size());
+            }
+        }
 
-        return result.toArray(new Recipient[0]);
+        Iterator<String> transactionIdIterator = transactionIds.iterator();
+        Recipient[] recipients = new Recipient[pending.size()];
+        for (int i = 0; i < recipients.length; i++) {
+            PendingRecipient pendingRecipient = pending.get(i);
+            String transactionId = (pendingRecipient.capsule() != null) ? transactionIdIterator.next() : null;
+            recipients[i] = pendingRecipient.complete().apply(transactionId);
+        }
+        return recipients;
     }
 
     private static void addRecipientsByKeyOrigin(
-        List<Recipient> recipients,
+        List<PendingRecipient> recipients,
         KeyCapsuleClient serverClient,
         byte[] fileMasterKey,
-        EncryptionKeyMaterial encKeyMaterial
+        EncryptionKeyMaterial encKeyMaterial,
+        boolean validateEcKeys
     ) throws GeneralSecurityException, ExtApiException {
 
         if (encKeyMaterial instanceof PublicKeyEncryptionKeyMaterial publicKeyMaterial) {
             addPublicKeyRecipient(
-                recipients, serverClient, fileMasterKey, publicKeyMaterial
+                recipients, serverClient, fileMasterKey, publicKeyMaterial, validateEcKeys
             );
         } else {
             addSymmetricKeyRecipient(
@@ -106,42 +292,55 @@ public final class RecipientFactory {
     }
 
     private static void addEccRecipient(
-        List<Recipient> recipients,
+        List<PendingRecipient> recipients,
         KeyCapsuleClient serverClient,
         byte[] fileMasterKey,
         ECPublicKey ecPublicKey,
-        String keyLabel
+        String keyLabel,
+        boolean validateEcKeys
     ) throws ExtApiException, GeneralSecurityException {
+        EccPubKeyRecipient eccRecipient = buildEccRecipient(fileMasterKey, ecPublicKey, keyLabel, validateEcKeys);
         if (serverClient != null) {
-            recipients.add(buildEccServerKeyRecipient(fileMasterKey, ecPublicKey, keyLabel,
-                new EcCapsuleClientImpl(serverClient)));
+            // sender public key is stored in server, transactionId is set after storeCapsules
+            String serverId = serverClient.getServerIdentifier();
+            recipients.add(new PendingRecipient(
+                EcCapsuleClientImpl.createCapsule(eccRecipient.getRecipientPubKey(), eccRecipient.getSenderPubKey()),
+                transactionId -> new EccServerKeyRecipient(eccRecipient.getEllipticCurve(),
+                    eccRecipient.getRecipientPubKey(), serverId, transactionId,
+                    eccRecipient.getEncryptedFileMasterKey(), keyLabel)
+            ));
         } else {
-            recipients.add(buildEccRecipient(fileMasterKey, ecPublicKey, keyLabel));
+            recipients.add(PendingRecipient.of(eccRecipient));
         }
     }
 
     private static void addRsaRecipient(
-        List<Recipient> recipients,
+        List<PendingRecipient> recipients,
         KeyCapsuleClient serverClient,
         byte[] fileMasterKey,
         RSAPublicKey rsaPublicKey,
         String keyLabel
-    ) throws ExtApiException, GeneralSecurityException {
+    ) throws GeneralSecurityException {
+        RSAPubKeyRecipient rsaRecipient = buildRsaRecipient(fileMasterKey, rsaPublicKey, keyLabel);
         if (serverClient != null) {
-            RsaCapsuleClient rsaCapsuleClient = new RsaCapsuleClientImpl(serverClient);
-            recipients.add(buildRsaServerKeyRecipient(
-                fileMasterKey, rsaPublicKey, keyLabel, rsaCapsuleClient)
-            );
+            // encrypted KEK is stored in server, transactionId is set after storeCapsules
+            String serverId = serverClient.getServerIdentifier();
+            recipients.add(new PendingRecipient(
+                RsaCapsuleClientImpl.createCapsule(rsaPublicKey, rsaRecipient.getEncryptedKek()),
+                transactionId -> new RSAServerKeyRecipient(rsaPublicKey, serverId, transactionId,
+                    rsaRecipient.getEncryptedFileMasterKey(), keyLabel)
+            ));
         } else {
-            recipients.add(buildRsaRecipient(fileMasterKey, rsaPublicKey, keyLabel));
+            recipients.add(PendingRecipient.of(rsaRecipient));
         }
     }
 
     private static void addPublicKeyRecipient(
-        List<Recipient> recipients,
+        List<PendingRecipient> recipients,
         KeyCapsuleClient serverClient,
         byte[] fileMasterKey,
-        PublicKeyEncryptionKeyMaterial publicKeyMaterial
+        PublicKeyEncryptionKeyMaterial publicKeyMaterial,
+        boolean validateEcKeys
     ) throws GeneralSecurityException, ExtApiException {
 
         PublicKey publicKey = publicKeyMaterial.getPublicKey();
@@ -159,13 +358,14 @@ public final class RecipientFactory {
                 serverClient,
                 fileMasterKey,
                 (ECPublicKey) publicKey,
-                publicKeyMaterial.getLabel()
+                publicKeyMaterial.getLabel(),
+                validateEcKeys
             );
         }
     }
 
     private static void addSymmetricKeyRecipient(
-        List<Recipient> recipients,
+        List<PendingRecipient> recipients,
         KeyCapsuleClient serverClient,
         byte[] fileMasterKey,
         EncryptionKeyMaterial encKeyMaterial
@@ -175,19 +375,19 @@ public final class RecipientFactory {
         }
 
         if (encKeyMaterial instanceof PasswordEncryptionKeyMaterial pbkdfKeyMaterial) {
-            recipients.add(buildPBKDF2Recipient(
+            recipients.add(PendingRecipient.of(buildPBKDF2Recipient(
                 fileMasterKey,
                 pbkdfKeyMaterial.getLabel(),
                 FMKEncryptionMethod.name(Envelope.FMK_ENC_METHOD_BYTE),
                 pbkdfKeyMaterial.getPassword())
-            );
+            ));
         } else if (encKeyMaterial instanceof SecretEncryptionKeyMaterial secretKeyMaterial) {
-            recipients.add(buildSymmetricKeyRecipient(
+            recipients.add(PendingRecipient.of(buildSymmetricKeyRecipient(
                 fileMasterKey,
                 secretKeyMaterial.getSecretKey(),
                 secretKeyMaterial.getLabel(),
                 FMKEncryptionMethod.name(Envelope.FMK_ENC_METHOD_BYTE)
-            ));
+            )));
         } else {
             throw new InvalidKeyException("Unsupported key material");
         }
@@ -236,28 +436,36 @@ public final class RecipientFactory {
         String keyLabel
     ) throws GeneralSecurityException {
 
+        return buildEccRecipient(fmk, recipientPubKey, keyLabel, true);
+    }
+
+    private static EccPubKeyRecipient buildEccRecipient(
+        byte[] fmk,
+        ECPublicKey recipientPubKey,
+        String keyLabel,
+        boolean validateKey
+    ) throws GeneralSecurityException {
+
         Objects.requireNonNull(recipientPubKey);
         Objects.requireNonNull(fmk);
         if (fmk.length != Crypto.FMK_LEN_BYTES) {
             throw new IllegalArgumentException("Illegal FMK length " + fmk.length);
         }
 
-        EllipticCurve curve;
+        RecipientKeyCache.EcKey ecKey;
         try {
-            curve = EllipticCurve.forPubKey(recipientPubKey);
+            ecKey = RecipientKeyCache.ecKey(recipientPubKey, validateKey);
         } catch (NoSuchAlgorithmException | InvalidParameterSpecException
                 | NoSuchProviderException generalSecurityException) {
             throw new InvalidKeyException(generalSecurityException);
         }
 
-        try {
-            if (!curve.isValidKey(recipientPubKey)) {
-                throw new InvalidKeyException("ECKey not valid");
-            }
-        } catch (GeneralSecurityException e) {
+        if (validateKey && !ecKey.isValid()) {
             throw new InvalidKeyException("ECKey not valid");
         }
 
+        EllipticCurve curve = ecKey.getCurve();
+
         KeyPair senderEcKeyPair = curve.generateEcKeyPair();
         byte[] kek = Crypto.deriveKeyEncryptionKey(senderEcKeyPair, recipientPubKey, Crypto.KEK_LEN_BYTES);
         byte[] encryptedFmk = Crypto.xor(fmk, kek);
@@ -266,69 +474,6 @@ public final class RecipientFactory {
         );
     }
 
-    /**
-     * Fill EccServerKeyRecipient POJO, so that they are ready to be serialized into CDOC header. Calls
-     * {@link #buildEccRecipient(byte[], ECPublicKey, String)} to generate sender key pair and encrypt FMK.
-     * Stores sender public key in key server and gets corresponding transactionId from server.
-     * @param fmk file master key (plain)
-     * @param recipientPubKey  list of recipients public keys
-     * @param serverClient used to store sender public key and get transactionId
-     * @return For each recipient create EccServerKeyRecipient with fields filled
-     */
-    static EccServerKeyRecipient buildEccServerKeyRecipient(
-        byte[] fmk,
-        ECPublicKey recipientPubKey,
-        String keyLabel,
-        EcCapsuleClient serverClient
-    ) throws GeneralSecurityException, ExtApiException {
-
-        Objects.requireNonNull(fmk);
-        Objects.requireNonNull(recipientPubKey);
-        Objects.requireNonNull(serverClient);
-        if (fmk.length != Crypto.CEK_LEN_BYTES) {
-            throw new IllegalArgumentException(INVALID_FMK_LEN);
-        }
-
-        EccPubKeyRecipient eccPubKeyRecipient = buildEccRecipient(fmk, recipientPubKey, keyLabel);
-
-        String transactionId = serverClient.storeSenderKey(
-            eccPubKeyRecipient.getRecipientPubKey(),
-            eccPubKeyRecipient.getSenderPubKey()
-        );
-        String serverId = serverClient.getServerIdentifier();
-
-        return new EccServerKeyRecipient(eccPubKeyRecipient.getEllipticCurve(),
-            eccPubKeyRecipient.getRecipientPubKey(), serverId, transactionId,
-            eccPubKeyRecipient.getEncryptedFileMasterKey(), keyLabel);
-    }
-
-    static RSAServerKeyRecipient buildRsaServerKeyRecipient(
-        byte[] fmk,
-        RSAPublicKey recipientPubKey,
-        String keyLabel,
-        RsaCapsuleClient serverClient
-    ) throws GeneralSecurityException, ExtApiException {
-
-        Objects.requireNonNull(fmk);
-        Objects.requireNonNull(recipientPubKey);
-        Objects.requireNonNull(serverClient);
-
-        if (fmk.length != Crypto.CEK_LEN_BYTES) {
-            throw new IllegalArgumentException(INVALID_FMK_LEN);
-        }
-
-        RSAPubKeyRecipient rsaPubKeyRecipient = buildRsaRecipient(fmk, recipientPubKey, keyLabel);
-
-        String transactionId = serverClient.storeRsaCapsule(
-            recipientPubKey, rsaPubKeyRecipient.getEncryptedKek()
-        );
-
-        String serverId = serverClient.getServerIdentifier();
-
-        return new RSAServerKeyRecipient(recipientPubKey, serverId, transactionId,
-                rsaPubKeyRecipient.getEncryptedFileMasterKey(), keyLabel);
-    }
-
     /**
      * Derive KEK from preSharedKey, keyLabel and generated salt and encrypt fmk with derived KEK
      * @param fmk          fmk to be encrypted
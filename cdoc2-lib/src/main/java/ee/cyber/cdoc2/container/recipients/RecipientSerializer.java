@@ -1,7 +1,7 @@
 package ee.cyber.cdoc2.container.recipients;
 
 import com.google.flatbuffers.FlatBufferBuilder;
-import ee.cyber.cdoc2.crypto.RsaUtils;
+import ee.cyber.cdoc2.crypto.RecipientKeyCache;
 import ee.cyber.cdoc2.fbs.header.Capsule;
 import ee.cyber.cdoc2.fbs.header.RecipientRecord;
 import ee.cyber.cdoc2.fbs.recipients.ECCPublicKeyCapsule;
@@ -85,7 +85,7 @@ public final class RecipientSerializer {
     public static int serialize(RSAServerKeyRecipient rsaServerRecipient, FlatBufferBuilder builder) {
 
 
-        byte[] rsaPubKeyDer = RsaUtils.encodeRsaPubKey(rsaServerRecipient.getRecipientPubKey());
+        byte[] rsaPubKeyDer = RecipientKeyCache.encodeRsaPubKey(rsaServerRecipient.getRecipientPubKey());
         int recipientPubKeyOffset = builder.createByteVector(rsaPubKeyDer);
 
         int serverRsaDetailsOffset = RsaKeyDetails.createRsaKeyDetails(builder, recipientPubKeyOffset);
@@ -119,7 +119,7 @@ public final class RecipientSerializer {
     public static int serialize(RSAPubKeyRecipient rsaRecipient, FlatBufferBuilder builder) {
 
         int recipientPubKeyOffset = builder.createByteVector(
-                RsaUtils.encodeRsaPubKey(rsaRecipient.getRecipientPubKey()));
+                RecipientKeyCache.encodeRsaPubKey(rsaRecipient.getRecipientPubKey()));
         int encKekOffset = builder.createByteVector(rsaRecipient.getEncryptedKek());
         int rsaPublicKeyCapsule = RSAPublicKeyCapsule.createRSAPublicKeyCapsule(builder,
                 recipientPubKeyOffset, encKekOffset);
@@ -0,0 +1,86 @@
+package ee.cyber.cdoc2.container.recipients;
+
+import ee.cyber.cdoc2.crypto.Crypto;
+import ee.cyber.cdoc2.crypto.EncryptionKeyOrigin;
+import ee.cyber.cdoc2.crypto.KeyAlgorithm;
+import ee.cyber.cdoc2.crypto.RecipientKeyCache;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.encrypt.PublicKeyEncryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.encrypt.SecretEncryptionKeyMaterial;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Recipients encryption key material with EC public keys validated once. Used for creating many CDOC2 envelopes
+ * for the same recipients, without repeating EC point validation for each envelope. Each envelope still gets its
+ * own FMK and sender key pair.
+ */
+public final class ValidatedRecipientKeys {
+
+    private final List<EncryptionKeyMaterial> keyMaterials;
+
+    private ValidatedRecipientKeys(List<EncryptionKeyMaterial> keyMaterials) {
+        this.keyMaterials = keyMaterials;
+    }
+
+    /**
+     * Validate recipients keys. Used by {@code CDocBuilder} and {@code CDocBatchEncrypter} before encryption
+     * @param recipients recipients encryption key material
+     * @return validated recipient keys
+     * @throws InvalidKeyException if key is not valid or not supported
+     * @throws GeneralSecurityException if EC curve of the key is not supported
+     */
+    public static ValidatedRecipientKeys validate(List<EncryptionKeyMaterial> recipients)
+        throws GeneralSecurityException {
+
+        Objects.requireNonNull(recipients);
+        if (recipients.isEmpty()) {
+            throw new IllegalArgumentException("At least one recipient required");
+        }
+
+        for (EncryptionKeyMaterial keyMaterial : recipients) {
+            validateKey(keyMaterial);
+        }
+        return new ValidatedRecipientKeys(List.copyOf(recipients));
+    }
+
+    private static void validateKey(EncryptionKeyMaterial keyMaterial) throws GeneralSecurityException {
+        if (EncryptionKeyOrigin.PASSWORD.equals(keyMaterial.getKeyOrigin())) {
+            // no encryption key at this step
+            return;
+        }
+
+        if (keyMaterial instanceof PublicKeyEncryptionKeyMaterial publicKeyMaterial) {
+            PublicKey publicKey = publicKeyMaterial.getPublicKey();
+            if (KeyAlgorithm.isEcKeysAlgorithm(publicKey.getAlgorithm())) {
+                if (!RecipientKeyCache.ecKey((ECPublicKey) publicKey).isValid()) {
+                    throw new InvalidKeyException("ECKey not valid");
+                }
+            } else if (KeyAlgorithm.isRsaKeysAlgorithm(publicKey.getAlgorithm())) {
+                if (((RSAPublicKey) publicKey).getModulus().bitLength() <= 512) {
+                    throw new InvalidKeyException("RSA key does not meet length requirements");
+                }
+            } else {
+                throw new InvalidKeyException("Unsupported public key algorithm " + publicKey.getAlgorithm());
+            }
+        } else if (keyMaterial instanceof SecretEncryptionKeyMaterial secretKeyMaterial) {
+            byte[] encoded = secretKeyMaterial.getSecretKey().getEncoded();
+            if ((encoded == null) || (encoded.length < Crypto.SYMMETRIC_KEY_MIN_LEN_BYTES)) {
+                throw new InvalidKeyException("Too short key for label: " + secretKeyMaterial.getLabel());
+            }
+        } else {
+            throw new InvalidKeyException("Unsupported key " + keyMaterial.getLabel());
+        }
+    }
+
+    public List<EncryptionKeyMaterial> getKeyMaterials() {
+        return keyMaterials;
+    }
+}
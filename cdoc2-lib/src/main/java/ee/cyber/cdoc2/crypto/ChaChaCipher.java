@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.*;
 import java.util.Arrays;
 
@@ -37,7 +38,7 @@ public final class ChaChaCipher {
      * @return an initialized Cipher
      * @throws GeneralSecurityException
      */
-    private static Cipher initCipher(int mode, Key contentEncryptionKey, byte[] nonce)
+    static Cipher initCipher(int mode, Key contentEncryptionKey, byte[] nonce)
             throws GeneralSecurityException {
 
         if ((nonce == null) || (nonce.length != NONCE_LEN_BYTES)) {
@@ -113,7 +114,7 @@ public final class ChaChaCipher {
         return cipher.doFinal(encrypted, NONCE_LEN_BYTES, encrypted.length - NONCE_LEN_BYTES);
     }
 
-    private static byte[] generateNonce() throws NoSuchAlgorithmException {
+    static byte[] generateNonce() throws NoSuchAlgorithmException {
         byte[] nonce = new byte[NONCE_LEN_BYTES];
         Crypto.getSecureRandom().nextBytes(nonce);
         return nonce;
@@ -172,4 +173,44 @@ public final class ChaChaCipher {
         return new CipherInputStream(is, cipher);
     }
 
+    /**
+     * Constructs decrypting InputStream for payload stored in a file. Ciphertext is read from memory mapped file
+     * regions, see {@link MappedChaChaInputStream}. Channel position is not changed.
+     * @param channel FileChannel containing CDOC2 container
+     * @param payloadStart payload (nonce) position in channel
+     * @param contentEncryptionKey contentEncryptionKey  cek content encryption key CEK,
+     *          {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     *        {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @return InputStream that decrypts payload until the end of channel
+     * @throws IOException if an I/O error has occurred
+     * @throws GeneralSecurityException if cipher initialization has failed
+     */
+    public static InputStream initChaChaInputStream(FileChannel channel,
+                                                    long payloadStart,
+                                                    SecretKey contentEncryptionKey,
+                                                    byte[] additionalData)
+            throws IOException, GeneralSecurityException {
+
+        log.trace("initChaChaInputStream(FileChannel)");
+        if ((additionalData == null) || (additionalData.length == 0)) {
+            throw new IllegalArgumentException(INVALID_ADDITIONAL_DATA);
+        }
+
+        if (channel.size() - payloadStart < NONCE_LEN_BYTES) {
+            throw new IOException("Unexpected end of payload");
+        }
+
+        ByteBuffer nonceBuf = ByteBuffer.allocate(NONCE_LEN_BYTES);
+        while (nonceBuf.hasRemaining()) {
+            if (channel.read(nonceBuf, payloadStart + nonceBuf.position()) < 0) {
+                throw new IOException("Unexpected end of payload");
+            }
+        }
+        byte[] nonce = nonceBuf.array();
+        Cipher cipher = initCipher(Cipher.DECRYPT_MODE, contentEncryptionKey, nonce);
+        cipher.updateAAD(additionalData);
+        return new MappedChaChaInputStream(channel, payloadStart + NONCE_LEN_BYTES, cipher);
+    }
+
 }
@@ -18,6 +18,7 @@ import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.interfaces.ECPublicKey;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.crypto.KeyAgreement;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
@@ -27,15 +28,18 @@ import javax.crypto.spec.SecretKeySpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static ee.cyber.cdoc2.CDocConfiguration.SECURE_RANDOM_CAPABILITY_PROPERTY;
+import static ee.cyber.cdoc2.CDocConfiguration.SECURE_RANDOM_STRIPES_PROPERTY;
 import static java.security.DrbgParameters.Capability.PR_AND_RESEED;
 
 public final class Crypto {
     private static final Logger log = LoggerFactory.getLogger(Crypto.class);
 
     /**
-     * SecureRandom instance not to "run out of entropy"
+     * SecureRandom instances not to "run out of entropy". Threads are spread over several DRBG instances, as
+     * single DRBG instance is synchronized and becomes a bottleneck for concurrent encryption.
      */
-    private static SecureRandom secureRandomInstance = null;
+    private static volatile AtomicReferenceArray<SecureRandom> secureRandomStripes = null;
 
     /**
      * File Master Key length in octets
@@ -69,30 +73,82 @@ public final class Crypto {
     }
 
     /**
-     * Get SecureRandom instance
+     * Get SecureRandom instance for the current thread. Instance is thread-safe, but using it from the calling thread
+     * avoids contention with other threads.
      * @return SecureRandom secure random
      * @throws NoSuchAlgorithmException if SecureRandom initialization failed
      */
-    public static synchronized SecureRandom getSecureRandom() throws NoSuchAlgorithmException {
-        if (secureRandomInstance == null) {
-            secureRandomInstance = createSecureRandom();
+    @SuppressWarnings("deprecation") // Thread.threadId() is not available in Java 17
+    public static SecureRandom getSecureRandom() throws NoSuchAlgorithmException {
+        AtomicReferenceArray<SecureRandom> stripes = getSecureRandomStripes();
+        int i = (int) (Thread.currentThread().getId() % stripes.length());
+        SecureRandom sRnd = stripes.get(i);
+        if (sRnd == null) {
+            synchronized (stripes) {
+                sRnd = stripes.get(i);
+                if (sRnd == null) {
+                    sRnd = createSecureRandom(getSecureRandomCapability());
+                    stripes.set(i, sRnd);
+                }
+            }
+        }
+        return sRnd;
+    }
+
+    private static AtomicReferenceArray<SecureRandom> getSecureRandomStripes() {
+        AtomicReferenceArray<SecureRandom> stripes = secureRandomStripes;
+        if (stripes == null) {
+            synchronized (Crypto.class) {
+                stripes = secureRandomStripes;
+                if (stripes == null) {
+                    stripes = new AtomicReferenceArray<>(getSecureRandomStripeCount());
+                    secureRandomStripes = stripes;
+                }
+            }
+        }
+        return stripes;
+    }
+
+    private static int getSecureRandomStripeCount() {
+        int defaultCount = Runtime.getRuntime().availableProcessors();
+        int count = Integer.getInteger(SECURE_RANDOM_STRIPES_PROPERTY, defaultCount);
+        if (count < 1) {
+            log.warn("Invalid value {} for {}. Using default {}", count, SECURE_RANDOM_STRIPES_PROPERTY,
+                defaultCount);
+            return defaultCount;
+        }
+        return count;
+    }
+
+    private static DrbgParameters.Capability getSecureRandomCapability() {
+        String value = System.getProperty(SECURE_RANDOM_CAPABILITY_PROPERTY);
+        if (value == null) {
+            return PR_AND_RESEED;
+        }
+        try {
+            return DrbgParameters.Capability.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value {} for {}. Using default {}", value, SECURE_RANDOM_CAPABILITY_PROPERTY,
+                PR_AND_RESEED);
+            return PR_AND_RESEED;
         }
-        return secureRandomInstance;
     }
 
     /**
      * Create SecureRandom
+     * @param capability DRBG reseed policy
      * @return SecureRandom secure random
      * @throws NoSuchAlgorithmException if SecureRandom initialization failed
      */
-    private static SecureRandom createSecureRandom() throws NoSuchAlgorithmException {
+    private static SecureRandom createSecureRandom(DrbgParameters.Capability capability)
+            throws NoSuchAlgorithmException {
         log.debug("Initializing SecureRandom");
 
         //https://www.veracode.com/blog/research/java-crypto-catchup
         SecureRandom sRnd = SecureRandom.getInstance("DRBG", //NIST SP 800-90Ar1
             DrbgParameters.instantiation(
                 256, // Required security strength
-                PR_AND_RESEED, // configure algorithm to provide prediction resistance and reseeding facilities
+                capability, // by default provide prediction resistance and reseeding facilities
                 "CDOC20".getBytes() // personalization string, used to derive seed
             )
         );
@@ -286,7 +342,7 @@ public final class Crypto {
         baos.writeBytes(FMKEncryptionMethod.name(FMKEncryptionMethod.XOR).getBytes(StandardCharsets.UTF_8));
 
         if (isEncryptionMode) {
-            baos.writeBytes(ECKeys.encodeEcPubKeyForTls(otherPublicKey));
+            baos.writeBytes(RecipientKeyCache.encodeEcPubKeyForTls(otherPublicKey)); // recipient key
             baos.writeBytes(ECKeys.encodeEcPubKeyForTls((ECPublicKey) ecKeyPair.getPublic()));
         } else {
             baos.writeBytes(ECKeys.encodeEcPubKeyForTls((ECPublicKey) ecKeyPair.getPublic()));
@@ -307,7 +363,7 @@ public final class Crypto {
     public static byte[] calcHmacSha256(SecretKey hhk, byte[] data)
             throws NoSuchAlgorithmException, InvalidKeyException {
 
-        Mac mac = Mac.getInstance(HMAC_SHA_256);
+        Mac mac = CryptoPrimitives.hmacSha256();
         mac.init(hhk);
         return mac.doFinal(data);
     }
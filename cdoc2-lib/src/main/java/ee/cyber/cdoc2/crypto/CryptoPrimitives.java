@@ -0,0 +1,32 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import javax.crypto.Mac;
+
+
+/**
+ * Crypto primitives used on hot paths. Provider resolved by the first {@code getInstance} call is cached, so that
+ * later calls don't search through all installed providers. Instances are not cached, every call returns a new
+ * instance, so that no key material is kept after the operation.
+ */
+final class CryptoPrimitives {
+
+    private static volatile Provider hmacSha256Provider;
+
+    private CryptoPrimitives() {
+    }
+
+    /**
+     * @return new HmacSHA256 Mac from provider resolved by the first call
+     */
+    static Mac hmacSha256() throws NoSuchAlgorithmException {
+        Provider provider = hmacSha256Provider;
+        if (provider == null) {
+            Mac mac = Mac.getInstance(Crypto.HMAC_SHA_256);
+            hmacSha256Provider = mac.getProvider();
+            return mac;
+        }
+        return Mac.getInstance(Crypto.HMAC_SHA_256, provider);
+    }
+}
@@ -67,7 +67,7 @@ public final class ECKeys {
             throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
         KeyPairGenerator keyPairGenerator
             = KeyPairGenerator.getInstance(KeyAlgorithm.Algorithm.EC.name());
-        keyPairGenerator.initialize(new ECGenParameterSpec(ecCurveName));
+        keyPairGenerator.initialize(new ECGenParameterSpec(ecCurveName), Crypto.getSecureRandom());
         return keyPairGenerator.generateKeyPair();
     }
 
@@ -73,10 +73,7 @@ public final class KekTools {
             "Expected SecretKey for PBKDF2Recipient"
         );
 
-        SecretKey pwDerivedSymmetricKey = Crypto.extractSymmetricKeyFromPassword(
-            keyMaterial.getPassword(),
-            recipient.getPasswordSalt()
-        );
+        SecretKey pwDerivedSymmetricKey = derivePasswordKey(recipient, keyMaterial.getPassword());
 
         SecretKey kek = Crypto.deriveKeyEncryptionKey(recipient.getRecipientKeyLabel(),
             pwDerivedSymmetricKey,
@@ -85,6 +82,20 @@ public final class KekTools {
         return kek.getEncoded();
     }
 
+    /**
+     * Derive PBKDF2 key from password or get it from {@link PasswordKeyCache#getDefault()}, when cache is enabled
+     */
+    private static SecretKey derivePasswordKey(PBKDF2Recipient recipient, char[] password)
+        throws GeneralSecurityException {
+
+        PasswordKeyCache cache = PasswordKeyCache.getDefault();
+        if (cache == null) {
+            return Crypto.extractSymmetricKeyFromPassword(password, recipient.getPasswordSalt());
+        }
+        return cache.getOrDerive(password, recipient.getPasswordSalt(), recipient.getKdfIterations(),
+            () -> Crypto.extractSymmetricKeyFromPassword(password, recipient.getPasswordSalt()));
+    }
+
     public static byte[] deriveKekForEcc(
         EccPubKeyRecipient eccPubKeyRecipient,
         KeyPairDecryptionKeyMaterial keyMaterial
@@ -0,0 +1,183 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import javax.crypto.Cipher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Decrypting ChaCha20-Poly1305 InputStream over memory mapped {@link FileChannel}. Ciphertext is passed to the
+ * cipher from {@link MappedByteBuffer} slices with {@link Cipher#update(ByteBuffer, ByteBuffer)}. BouncyCastle
+ * ChaCha20-Poly1305 doesn't implement ByteBuffer operations, so JCE copies ciphertext and plaintext through heap
+ * arrays and {@link #read(byte[], int, int)} copies plaintext once more. Mapping only saves the read system calls,
+ * decryption speed is limited by the cipher.
+ * <p>
+ * Mapped windows are not unmapped explicitly, they are released when garbage collected. If file is truncated
+ * while it is decrypted, then access to mapped window fails with {@link InternalError} (SIGBUS), that is
+ * thrown as IOException. Poly1305 MAC is checked, when the last ciphertext chunk is processed. MAC check failure
+ * is thrown as IOException with {@link javax.crypto.AEADBadTagException} as a cause (same as
+ * {@link javax.crypto.CipherInputStream}).
+ */
+final class MappedChaChaInputStream extends InputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedChaChaInputStream.class);
+
+    /** File region mapped at once */
+    static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Ciphertext bytes passed to cipher at once */
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+    private final Cipher cipher;
+    private final long end;
+
+    private long windowStart;
+    private MappedByteBuffer window;
+    private ByteBuffer plaintext;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * @param channel file channel containing ciphertext
+     * @param ciphertextStart ciphertext start position in channel (after nonce)
+     * @param cipher cipher initialized for decryption with nonce and AAD
+     */
+    MappedChaChaInputStream(FileChannel channel, long ciphertextStart, Cipher cipher) throws IOException {
+        this.channel = Objects.requireNonNull(channel);
+        this.cipher = Objects.requireNonNull(cipher);
+        this.end = channel.size();
+        this.windowStart = ciphertextStart;
+        if (ciphertextStart > end) {
+            throw new IOException("Unexpected end of payload");
+        }
+
+        this.plaintext = ByteBuffer.allocateDirect(cipher.getOutputSize(CHUNK_SIZE));
+        this.plaintext.flip(); // empty
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return Byte.toUnsignedInt(plaintext.get());
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, plaintext.remaining());
+        plaintext.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed ? 0 : plaintext.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            // zero plaintext, channel is owned by caller
+            zero(plaintext);
+            plaintext.flip();
+            window = null;
+        }
+    }
+
+    /**
+     * Decrypt chunks until there is plaintext available or end of ciphertext is reached
+     * @return false, if there is no more plaintext
+     */
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (!plaintext.hasRemaining()) {
+            if (finished) {
+                return false;
+            }
+            try {
+                decryptChunk();
+            } catch (InternalError e) { // mapped file was truncated
+                plaintext.clear().flip();
+                finished = true;
+                throw new IOException("Error reading memory mapped payload", e);
+            }
+        }
+        return true;
+    }
+
+    private void decryptChunk() throws IOException {
+        if ((window == null) || !window.hasRemaining()) {
+            mapNextWindow();
+        }
+
+        ByteBuffer chunk = window.slice(window.position(), Math.min(CHUNK_SIZE, window.remaining()));
+        window.position(window.position() + chunk.remaining());
+        boolean last = (windowStart + window.position() == end);
+
+        ensurePlaintextCapacity(chunk.remaining());
+        plaintext.clear();
+        try {
+            if (last) {
+                cipher.doFinal(chunk, plaintext);
+                finished = true;
+                log.debug("Payload MAC checked");
+            } else {
+                cipher.update(chunk, plaintext);
+            }
+        } catch (GeneralSecurityException e) {
+            plaintext.clear(); // empty after flip
+            finished = true;
+            throw new IOException(e);
+        } finally {
+            plaintext.flip();
+        }
+    }
+
+    private void mapNextWindow() throws IOException {
+        if (window != null) {
+            windowStart += window.capacity();
+        }
+        if (channel.size() < end) {
+            throw new IOException("Payload file was truncated");
+        }
+        long size = Math.min(MAP_WINDOW_SIZE, end - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+    }
+
+    private void ensurePlaintextCapacity(int inputLen) {
+        int outLen = cipher.getOutputSize(inputLen);
+        if (outLen > plaintext.capacity()) {
+            zero(plaintext);
+            plaintext = ByteBuffer.allocateDirect(outLen);
+        }
+    }
+
+    private static void zero(ByteBuffer buf) {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            buf.put((byte) 0);
+        }
+        buf.clear();
+    }
+}
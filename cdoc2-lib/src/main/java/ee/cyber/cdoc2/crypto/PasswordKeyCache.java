@@ -0,0 +1,227 @@
+package ee.cyber.cdoc2.crypto;
+
+import ee.cyber.cdoc2.CDocConfiguration;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ * Bounded cache for password derived (PBKDF2) keys, keyed by HMAC-SHA256 of (iterations, salt, password) under
+ * random secret of the cache instance, so that cache keys can't be used for guessing passwords without PBKDF2.
+ * Avoids running PBKDF2 again, when the same password protected CDOC2 container is decrypted several times.
+ * <p>
+ * Cache is disabled by default. Enable with {@link CDocConfiguration#PASSWORD_KEY_CACHE_SIZE_PROPERTY} system property
+ * or {@link #setDefault(PasswordKeyCache)}. Entries are removed after time-to-live or when cache is full (least
+ * recently used first). Key material of removed entries is wiped. Passwords are not stored.
+ */
+public final class PasswordKeyCache {
+
+    /** Default time-to-live of cached key */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    /**
+     * Derives password key, when it is not cached
+     */
+    @FunctionalInterface
+    public interface KeyDerivation {
+        SecretKey derive() throws GeneralSecurityException;
+    }
+
+    private record Entry(byte[] key, String algorithm, Instant expiresAt) {
+    }
+
+    private static volatile PasswordKeyCache defaultCache;
+    private static volatile boolean defaultCacheSet;
+
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Clock clock;
+    private final SecretKey idKey;
+    private final LinkedHashMap<ByteBuffer, Entry> entries;
+
+    /**
+     * @param maxEntries max number of cached keys, positive
+     * @param ttl time-to-live of cached key, positive
+     */
+    public PasswordKeyCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, Clock.systemUTC());
+    }
+
+    /**
+     * @param maxEntries max number of cached keys, positive
+     * @param ttl time-to-live of cached key, positive
+     * @param clock clock used for expiring entries
+     */
+    public PasswordKeyCache(int maxEntries, Duration ttl, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid max entries " + maxEntries);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Invalid time-to-live " + ttl);
+        }
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.clock = Objects.requireNonNull(clock);
+        this.idKey = generateIdKey();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get cache used by {@link KekTools#deriveKekForPasswordDerivedKey}. Unless set with
+     * {@link #setDefault(PasswordKeyCache)}, cache is created on first use from
+     * {@link CDocConfiguration#PASSWORD_KEY_CACHE_SIZE_PROPERTY} and
+     * {@link CDocConfiguration#PASSWORD_KEY_CACHE_TTL_PROPERTY} system properties.
+     * @return default cache or null, if password key caching is disabled
+     */
+    @Nullable
+    public static PasswordKeyCache getDefault() {
+        if (!defaultCacheSet) {
+            synchronized (PasswordKeyCache.class) {
+                if (!defaultCacheSet) {
+                    int size = CDocConfiguration.getPasswordKeyCacheSize();
+                    defaultCache = (size > 0)
+                        ? new PasswordKeyCache(size, CDocConfiguration.getPasswordKeyCacheTtl())
+                        : null;
+                    defaultCacheSet = true;
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Set cache used by {@link KekTools#deriveKekForPasswordDerivedKey}. Previous default cache is cleared.
+     * @param cache password key cache or null to disable password key caching
+     */
+    public static void setDefault(@Nullable PasswordKeyCache cache) {
+        synchronized (PasswordKeyCache.class) {
+            PasswordKeyCache previous = defaultCache;
+            defaultCache = cache;
+            defaultCacheSet = true;
+            if (previous != null && previous != cache) {
+                previous.clear();
+            }
+        }
+    }
+
+    /**
+     * Get cached password derived key or derive and cache it.
+     * @param password password
+     * @param salt PBKDF2 salt
+     * @param iterations PBKDF2 iterations
+     * @param derivation called to derive the key, when key is not cached
+     * @return copy of password derived key
+     * @throws GeneralSecurityException if key derivation failed
+     */
+    public SecretKey getOrDerive(char[] password, byte[] salt, int iterations, KeyDerivation derivation)
+        throws GeneralSecurityException {
+
+        ByteBuffer id = ByteBuffer.wrap(id(password, salt, iterations));
+        synchronized (this) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                if (clock.instant().isBefore(entry.expiresAt())) {
+                    return new SecretKeySpec(entry.key(), entry.algorithm());
+                }
+                entries.remove(id);
+                wipe(entry);
+            }
+        }
+
+        // derive outside the lock, PBKDF2 is slow
+        SecretKey derived = derivation.derive();
+        byte[] keyBytes = derived.getEncoded();
+        try {
+            put(id, new Entry(keyBytes.clone(), derived.getAlgorithm(), clock.instant().plus(ttl)));
+            return new SecretKeySpec(keyBytes, derived.getAlgorithm());
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Remove all cached keys and wipe their key material
+     */
+    public synchronized void clear() {
+        entries.values().forEach(PasswordKeyCache::wipe);
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void put(ByteBuffer id, Entry entry) {
+        Instant now = clock.instant();
+        Iterator<Map.Entry<ByteBuffer, Entry>> expired = entries.entrySet().iterator();
+        while (expired.hasNext()) {
+            Entry e = expired.next().getValue();
+            if (!now.isBefore(e.expiresAt())) {
+                wipe(e);
+                expired.remove();
+            }
+        }
+
+        Entry previous = entries.put(id, entry);
+        if (previous != null) {
+            wipe(previous);
+        }
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            wipe(it.next());
+            it.remove();
+        }
+    }
+
+    private byte[] id(char[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        ByteBuffer pwBuf = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] pwBytes = new byte[pwBuf.remaining()];
+        pwBuf.get(pwBytes);
+        try {
+            Mac mac = CryptoPrimitives.hmacSha256();
+            mac.init(idKey);
+            mac.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(iterations).putInt(salt.length).array());
+            mac.update(salt);
+            mac.update(pwBytes);
+            return mac.doFinal();
+        } finally {
+            Arrays.fill(pwBytes, (byte) 0);
+            if (pwBuf.hasArray()) {
+                Arrays.fill(pwBuf.array(), (byte) 0);
+            }
+        }
+    }
+
+    private static SecretKey generateIdKey() {
+        byte[] secret = new byte[32];
+        try {
+            Crypto.getSecureRandom().nextBytes(secret);
+            return new SecretKeySpec(secret, Crypto.HMAC_SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SecureRandom not available", e);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    private static void wipe(Entry entry) {
+        Arrays.fill(entry.key(), (byte) 0);
+    }
+}
@@ -0,0 +1,289 @@
+package ee.cyber.cdoc2.crypto;
+
+import ee.cyber.cdoc2.CDocConfiguration;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECPoint;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import javax.annotation.Nullable;
+
+
+/**
+ * Bounded cache of recipient public key validation results and encodings, keyed by encoded (X.509) key bytes.
+ * Encrypting many containers for the same recipients doesn't repeat EC point validation and TLS/DER encoding of
+ * recipient keys for every container. Cached entry is used only when key point (EC) or modulus and exponent (RSA)
+ * match the looked up key.
+ * <p>
+ * Enabled by default, size is configured with {@link CDocConfiguration#RECIPIENT_KEY_CACHE_SIZE_PROPERTY} system
+ * property or {@link #setDefault(RecipientKeyCache)}. Static methods use default cache and fall back to computing
+ * the result, when cache is disabled. Only recipient keys should be cached, not generated sender keys.
+ */
+public final class RecipientKeyCache {
+
+    /** Default max number of cached keys */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /**
+     * EC public key with resolved curve. Key point is validated only when requested, unvalidated key is replaced
+     * with validated key, when validation is requested later.
+     */
+    public static final class EcKey {
+        private final ECPoint w;
+        private final EllipticCurve curve;
+        @Nullable
+        private final Boolean valid; // null when not validated
+        @Nullable
+        private final byte[] tlsEncoded;
+
+        private EcKey(ECPoint w, EllipticCurve curve, @Nullable Boolean valid, @Nullable byte[] tlsEncoded) {
+            this.w = w;
+            this.curve = curve;
+            this.valid = valid;
+            this.tlsEncoded = tlsEncoded;
+        }
+
+        public EllipticCurve getCurve() {
+            return curve;
+        }
+
+        /**
+         * @return if key is validated and valid for its curve, see {@link EllipticCurve#isValidKey(ECPublicKey)}
+         */
+        public boolean isValid() {
+            return Boolean.TRUE.equals(valid);
+        }
+
+        /**
+         * @return if key point was validated
+         */
+        public boolean isValidated() {
+            return valid != null;
+        }
+
+        /**
+         * @return copy of key in TLS 1.3 format or null, if key is not validated or not valid
+         */
+        @Nullable
+        public byte[] getTlsEncoded() {
+            return (tlsEncoded != null) ? tlsEncoded.clone() : null;
+        }
+    }
+
+    private record RsaKey(BigInteger modulus, BigInteger publicExponent, byte[] encoded) {
+    }
+
+    private static volatile RecipientKeyCache defaultCache;
+    private static volatile boolean defaultCacheSet;
+
+    private final int maxEntries;
+    // values are EcKey or RsaKey
+    private final LinkedHashMap<ByteBuffer, Object> entries;
+
+    /**
+     * @param maxEntries max number of cached keys, positive
+     */
+    public RecipientKeyCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid max entries " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get default cache. Unless set with {@link #setDefault(RecipientKeyCache)}, cache is created on first use with
+     * {@link CDocConfiguration#RECIPIENT_KEY_CACHE_SIZE_PROPERTY} entries.
+     * @return default cache or null, if recipient key caching is disabled
+     */
+    @Nullable
+    public static RecipientKeyCache getDefault() {
+        if (!defaultCacheSet) {
+            synchronized (RecipientKeyCache.class) {
+                if (!defaultCacheSet) {
+                    int size = CDocConfiguration.getRecipientKeyCacheSize();
+                    defaultCache = (size > 0) ? new RecipientKeyCache(size) : null;
+                    defaultCacheSet = true;
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Set default cache
+     * @param cache recipient key cache or null to disable recipient key caching
+     */
+    public static void setDefault(@Nullable RecipientKeyCache cache) {
+        synchronized (RecipientKeyCache.class) {
+            defaultCache = cache;
+            defaultCacheSet = true;
+        }
+    }
+
+    /**
+     * Get curve and validation result of recipient EC public key from default cache
+     * @param key recipient EC public key
+     * @return validated key
+     * @throws GeneralSecurityException if curve of the key is not supported
+     */
+    public static EcKey ecKey(ECPublicKey key) throws GeneralSecurityException {
+        return ecKey(key, true);
+    }
+
+    /**
+     * Get curve and optionally validation result of recipient EC public key from default cache
+     * @param key recipient EC public key
+     * @param validate if key point must be validated. If false, then key from cache is returned as is (validated
+     *                 or not) and on cache miss the key is not validated
+     * @return EC key, validated when validate is true
+     * @throws GeneralSecurityException if curve of the key is not supported
+     */
+    public static EcKey ecKey(ECPublicKey key, boolean validate) throws GeneralSecurityException {
+        RecipientKeyCache cache = getDefault();
+        if (cache != null) {
+            return cache.getEcKey(key, validate);
+        }
+        return validate ? validate(key) : unvalidated(key);
+    }
+
+    /**
+     * Same as {@link ECKeys#encodeEcPubKeyForTls(EllipticCurve, ECPublicKey)}, but encoding of valid keys is taken
+     * from default cache
+     */
+    public static byte[] encodeEcPubKeyForTls(EllipticCurve curve, ECPublicKey key) {
+        RecipientKeyCache cache = getDefault();
+        if (cache != null) {
+            try {
+                EcKey ecKey = cache.getEcKey(key, false);
+                if (ecKey.isValid() && ecKey.getCurve() == curve) {
+                    return ecKey.getTlsEncoded();
+                }
+            } catch (GeneralSecurityException e) {
+                // not cacheable, encode directly
+            }
+        }
+        return ECKeys.encodeEcPubKeyForTls(curve, key);
+    }
+
+    /**
+     * Same as {@link ECKeys#encodeEcPubKeyForTls(ECPublicKey)}, but encoding of valid keys is taken from default
+     * cache
+     */
+    public static byte[] encodeEcPubKeyForTls(ECPublicKey key) throws GeneralSecurityException {
+        RecipientKeyCache cache = getDefault();
+        if (cache != null) {
+            EcKey ecKey = cache.getEcKey(key, false);
+            if (ecKey.isValid()) {
+                return ecKey.getTlsEncoded();
+            }
+        }
+        return ECKeys.encodeEcPubKeyForTls(key);
+    }
+
+    /**
+     * Same as {@link RsaUtils#encodeRsaPubKey(RSAPublicKey)}, but encoding is taken from default cache
+     */
+    public static byte[] encodeRsaPubKey(RSAPublicKey key) {
+        RecipientKeyCache cache = getDefault();
+        return (cache != null) ? cache.getRsaEncoded(key) : RsaUtils.encodeRsaPubKey(key);
+    }
+
+    /**
+     * Get validated EC key from cache or validate and cache it
+     * @param key EC public key
+     * @return validated key
+     * @throws GeneralSecurityException if curve of the key is not supported
+     */
+    public EcKey getEcKey(ECPublicKey key) throws GeneralSecurityException {
+        return getEcKey(key, true);
+    }
+
+    /**
+     * Get EC key from cache or create and cache it
+     * @param key EC public key
+     * @param validate if key point must be validated, see {@link #ecKey(ECPublicKey, boolean)}
+     * @return EC key, validated when validate is true
+     * @throws GeneralSecurityException if curve of the key is not supported
+     */
+    public EcKey getEcKey(ECPublicKey key, boolean validate) throws GeneralSecurityException {
+        ByteBuffer id = id(key);
+        if (id != null && get(id) instanceof EcKey cached && cached.w.equals(key.getW())
+            && (cached.isValidated() || !validate)) {
+            return cached;
+        }
+
+        EcKey ecKey = validate ? validate(key) : unvalidated(key);
+        if (id != null) {
+            put(id, ecKey);
+        }
+        return ecKey;
+    }
+
+    /**
+     * Get RSA public key DER encoding from cache or encode and cache it
+     * @param key RSA public key
+     * @return copy of RSA public key encoding, see {@link RsaUtils#encodeRsaPubKey(RSAPublicKey)}
+     */
+    public byte[] getRsaEncoded(RSAPublicKey key) {
+        ByteBuffer id = id(key);
+        if (id != null && get(id) instanceof RsaKey cached && cached.modulus().equals(key.getModulus())
+            && cached.publicExponent().equals(key.getPublicExponent())) {
+            return cached.encoded().clone();
+        }
+
+        byte[] encoded = RsaUtils.encodeRsaPubKey(key);
+        if (id != null) {
+            put(id, new RsaKey(key.getModulus(), key.getPublicExponent(), encoded.clone()));
+        }
+        return encoded;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Nullable
+    private synchronized Object get(ByteBuffer id) {
+        return entries.get(id);
+    }
+
+    private synchronized void put(ByteBuffer id, Object entry) {
+        entries.put(id, entry);
+        Iterator<Object> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Nullable
+    private static ByteBuffer id(PublicKey key) {
+        byte[] encoded = key.getEncoded();
+        return (encoded != null && encoded.length > 0) ? ByteBuffer.wrap(encoded) : null;
+    }
+
+    private static EcKey validate(ECPublicKey key) throws GeneralSecurityException {
+        EllipticCurve curve = EllipticCurve.forPubKey(key);
+        boolean valid;
+        try {
+            valid = curve.isValidKey(key);
+        } catch (GeneralSecurityException e) {
+            valid = false;
+        }
+        return new EcKey(key.getW(), curve, valid, valid ? ECKeys.encodeEcPubKeyForTls(curve, key) : null);
+    }
+
+    private static EcKey unvalidated(ECPublicKey key) throws GeneralSecurityException {
+        return new EcKey(key.getW(), EllipticCurve.forPubKey(key), null, null);
+    }
+}
@@ -0,0 +1,228 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ee.cyber.cdoc2.container.Envelope;
+
+
+/**
+ * Segmented (online) ChaCha20-Poly1305 payload encryption, in the style of STREAM construction.
+ * <p>
+ * Payload is split into fixed size plaintext segments and each segment is encrypted separately
+ * with ChaCha20-Poly1305, so that segments can be encrypted and decrypted in parallel and each
+ * segment is authenticated before its plaintext is released. Encrypted payload format:
+ * <pre>
+ *   payload   = nonce || segment_0 || segment_1 || ... || segment_n
+ *   segment_i = ChaCha20-Poly1305(CEK, nonce_i, AAD, plaintext_i) // ciphertext || 16 byte tag
+ *   nonce_i   = nonce XOR (0x00 * 7 || uint32_be(i) || last)     // last = 0x01 for segment_n, else 0x00
+ * </pre>
+ * {@code nonce} is 12 bytes of secure random, AAD is {@link Envelope#getAdditionalData(byte[], byte[])}.
+ * All segments, except the last, contain exactly segment size bytes of plaintext. Last segment contains
+ * 0..segment size bytes. Marking the last segment in the nonce protects against truncation of the payload
+ * at segment boundary, segment counter protects against re-ordering of segments.
+ */
+public final class SegmentedChaChaCipher {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedChaChaCipher.class);
+
+    public static final int TAG_LEN_BYTES = 128 / 8;
+
+    public static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    public static final int MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    /** Max segments processed in parallel, limits memory used for buffering */
+    static final int MAX_SEGMENTS_PER_BATCH = 64;
+
+    private static final byte LAST_SEGMENT_FLAG = 0x01;
+    private static final long MAX_SEGMENTS = 0xFFFFFFFFL;
+
+    private static final String INVALID_ADDITIONAL_DATA = "Invalid Additional Authentication Data (AAD)";
+
+    private SegmentedChaChaCipher() {
+    }
+
+    /**
+     * Check that segment size is within allowed bounds
+     * @param segmentSize plaintext segment size in bytes
+     * @return true if segmentSize is valid
+     */
+    public static boolean isValidSegmentSize(long segmentSize) {
+        return (segmentSize >= MIN_SEGMENT_SIZE) && (segmentSize <= MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs an OutputStream that encrypts data written into it in segments and writes encrypted segments to
+     * os. Random nonce is written to os before first segment.
+     * @param os the OutputStream to write encrypted payload
+     * @param contentEncryptionKey cek content encryption key CEK, {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     *        {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @param segmentSize plaintext segment size in bytes
+     * @param executor executor used to encrypt segments in parallel
+     * @return OutputStream, {@link OutputStream#close()} must be called to write the last segment
+     * @throws GeneralSecurityException if nonce generation has failed
+     * @throws IOException if an I/O error has occurred
+     */
+    public static OutputStream initOutputStream(OutputStream os,
+                                                SecretKey contentEncryptionKey,
+                                                byte[] additionalData,
+                                                int segmentSize,
+                                                Executor executor)
+            throws GeneralSecurityException, IOException {
+
+        checkParameters(additionalData, segmentSize);
+
+        byte[] nonce = ChaChaCipher.generateNonce();
+        os.write(nonce); //prepend plaintext nonce
+        return new SegmentedChaChaOutputStream(os, contentEncryptionKey, nonce, additionalData, segmentSize,
+            executor, segmentsPerBatch(executor));
+    }
+
+    /**
+     * Constructs an InputStream that decrypts segmented payload read from is. Each segment is authenticated
+     * before its plaintext is returned from InputStream. If authentication fails, then IOException with
+     * {@link AEADBadTagException} as cause is thrown.
+     * @param is the InputStream, positioned at payload start (nonce)
+     * @param contentEncryptionKey cek content encryption key CEK, {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     *        {@link Envelope#getAdditionalData(byte[], byte[])}
+     * @param segmentSize plaintext segment size in bytes
+     * @param executor executor used to decrypt segments in parallel
+     * @return InputStream returning decrypted payload
+     * @throws IOException if an I/O error has occurred
+     */
+    public static InputStream initInputStream(InputStream is,
+                                              SecretKey contentEncryptionKey,
+                                              byte[] additionalData,
+                                              int segmentSize,
+                                              Executor executor)
+            throws IOException {
+
+        log.trace("initInputStream()");
+        checkParameters(additionalData, segmentSize);
+
+        byte[] nonce = is.readNBytes(ChaChaCipher.NONCE_LEN_BYTES);
+        if (nonce.length != ChaChaCipher.NONCE_LEN_BYTES) {
+            throw new IOException("Unexpected end of payload, nonce missing");
+        }
+        return new SegmentedChaChaInputStream(is, contentEncryptionKey, nonce, additionalData, segmentSize,
+            executor, segmentsPerBatch(executor));
+    }
+
+    private static void checkParameters(byte[] additionalData, int segmentSize) {
+        if ((additionalData == null) || (additionalData.length == 0)) {
+            throw new IllegalArgumentException(INVALID_ADDITIONAL_DATA);
+        }
+
+        if (!isValidSegmentSize(segmentSize)) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        }
+    }
+
+    /**
+     * Number of segments to buffer and process in parallel. Based on executor parallelism, when known.
+     */
+    static int segmentsPerBatch(Executor executor) {
+        int parallelism = (executor instanceof ForkJoinPool pool)
+            ? pool.getParallelism()
+            : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(parallelism, MAX_SEGMENTS_PER_BATCH));
+    }
+
+    /**
+     * Derive nonce for segment
+     * @param nonce payload nonce
+     * @param segmentIndex segment index, starting from 0
+     * @param last if segment is last segment of payload
+     * @return derived segment nonce
+     */
+    static byte[] segmentNonce(byte[] nonce, long segmentIndex, boolean last) {
+        if ((segmentIndex < 0) || (segmentIndex > MAX_SEGMENTS)) {
+            throw new IllegalStateException("Too many segments");
+        }
+
+        byte[] segmentNonce = nonce.clone();
+        int len = segmentNonce.length;
+        segmentNonce[len - 5] ^= (byte) (segmentIndex >>> 24);
+        segmentNonce[len - 4] ^= (byte) (segmentIndex >>> 16);
+        segmentNonce[len - 3] ^= (byte) (segmentIndex >>> 8);
+        segmentNonce[len - 2] ^= (byte) segmentIndex;
+        if (last) {
+            segmentNonce[len - 1] ^= LAST_SEGMENT_FLAG;
+        }
+        return segmentNonce;
+    }
+
+    /**
+     * Init ChaCha20-Poly1305 Cipher for single segment
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @param cek content encryption key
+     * @param nonce payload nonce
+     * @param aad Additional Authentication Data (AAD)
+     * @param segmentIndex segment index, starting from 0
+     * @param last if segment is last segment of payload
+     * @return Cipher initialized with segment nonce and AAD. When decrypting, then
+     *         {@link Cipher#doFinal} throws {@link AEADBadTagException} if segment authentication fails.
+     */
+    static Cipher initSegmentCipher(int mode, SecretKey cek, byte[] nonce, byte[] aad, long segmentIndex,
+                                    boolean last) throws GeneralSecurityException {
+
+        Cipher cipher = ChaChaCipher.initCipher(mode, cek, segmentNonce(nonce, segmentIndex, last));
+        cipher.updateAAD(aad);
+        return cipher;
+    }
+
+    /** Segment operation, i is index of segment in batch */
+    @FunctionalInterface
+    interface SegmentTask {
+        void run(int i) throws GeneralSecurityException;
+    }
+
+    /**
+     * Run task for count segments on executor and wait until all tasks have completed.
+     * @throws IOException if any of the tasks failed. Cause is set to exception thrown by failed task.
+     */
+    static void runParallel(int count, SegmentTask task, Executor executor) throws IOException {
+        if (count == 1) { // don't bother executor with single segment
+            try {
+                task.run(0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+            return;
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            final int segment = i;
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    task.run(segment);
+                } catch (GeneralSecurityException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+            throw new IOException(cause);
+        }
+    }
+}
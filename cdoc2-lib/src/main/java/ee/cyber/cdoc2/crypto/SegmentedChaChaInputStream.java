@@ -0,0 +1,163 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+
+/**
+ * InputStream that decrypts segmented payload, see {@link SegmentedChaChaCipher} for format.
+ * Encrypted segments are read in batches and decrypted in parallel. Plaintext is returned only after the
+ * segment containing it has been authenticated. One byte is read ahead after each batch to detect whether
+ * the batch contains the last segment.
+ */
+class SegmentedChaChaInputStream extends FilterInputStream {
+
+    private final SecretKey cek;
+    private final byte[] nonce;
+    private final byte[] aad;
+    private final int segmentSize;
+    private final int encSegmentSize;
+    private final Executor executor;
+
+    private final byte[] encBuf; // batch of encrypted segments + 1 byte look-ahead
+    private final byte[] plainBuf;
+    private int encLen; // bytes in encBuf, carried over look-ahead byte
+    private int plainPos;
+    private int plainLimit;
+
+    private long segmentIndex;
+    private boolean lastSegmentDecrypted;
+
+    SegmentedChaChaInputStream(InputStream in, SecretKey cek, byte[] nonce, byte[] aad, int segmentSize,
+                               Executor executor, int segmentsPerBatch) {
+        super(Objects.requireNonNull(in));
+        this.cek = Objects.requireNonNull(cek);
+        this.nonce = nonce.clone();
+        this.aad = aad.clone();
+        this.segmentSize = segmentSize;
+        this.encSegmentSize = segmentSize + SegmentedChaChaCipher.TAG_LEN_BYTES;
+        this.executor = Objects.requireNonNull(executor);
+        this.encBuf = new byte[segmentsPerBatch * encSegmentSize + 1];
+        this.plainBuf = new byte[segmentsPerBatch * segmentSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return (read == -1) ? -1 : Byte.toUnsignedInt(b[0]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+
+        while (plainPos == plainLimit) {
+            if (lastSegmentDecrypted) {
+                return -1;
+            }
+            decryptBatch();
+        }
+
+        int n = Math.min(len, plainLimit - plainPos);
+        System.arraycopy(plainBuf, plainPos, b, off, n);
+        plainPos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long remaining = n;
+        byte[] skipBuf = new byte[(int) Math.min(segmentSize, Math.max(n, 1))];
+        while (remaining > 0) {
+            int read = read(skipBuf, 0, (int) Math.min(skipBuf.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public int available() {
+        return plainLimit - plainPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // mark not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(plainBuf, (byte) 0);
+        plainPos = 0;
+        plainLimit = 0;
+        super.close();
+    }
+
+    /**
+     * Read next batch of encrypted segments and decrypt them into plainBuf.
+     * @throws IOException if payload is truncated or segment authentication has failed (cause is
+     *          {@link javax.crypto.AEADBadTagException})
+     */
+    private void decryptBatch() throws IOException {
+        encLen += in.readNBytes(encBuf, encLen, encBuf.length - encLen);
+
+        boolean containsLast = encLen < encBuf.length; // no look-ahead byte, end of stream reached
+        int batchLen = containsLast ? encLen : encLen - 1;
+
+        if (containsLast && batchLen < SegmentedChaChaCipher.TAG_LEN_BYTES) {
+            throw new IOException("Unexpected end of segmented payload");
+        }
+
+        int segments = containsLast
+            ? (batchLen - 1) / encSegmentSize + 1
+            : batchLen / encSegmentSize;
+        int lastSegmentLen = batchLen - (segments - 1) * encSegmentSize;
+        if (lastSegmentLen < SegmentedChaChaCipher.TAG_LEN_BYTES) {
+            // last segment must contain at least the tag
+            throw new IOException("Unexpected end of segmented payload");
+        }
+
+        long firstIndex = segmentIndex;
+        SegmentedChaChaCipher.runParallel(segments, i -> {
+            boolean lastSegment = containsLast && (i == segments - 1);
+            int len = (i == segments - 1) ? lastSegmentLen : encSegmentSize;
+            SegmentedChaChaCipher.initSegmentCipher(Cipher.DECRYPT_MODE, cek, nonce, aad, firstIndex + i, lastSegment)
+                .doFinal(encBuf, i * encSegmentSize, len, plainBuf, i * segmentSize);
+        }, executor);
+
+        segmentIndex += segments;
+        plainPos = 0;
+        plainLimit = batchLen - segments * SegmentedChaChaCipher.TAG_LEN_BYTES;
+
+        if (containsLast) {
+            lastSegmentDecrypted = true;
+            encLen = 0;
+        } else {
+            encBuf[0] = encBuf[encLen - 1]; // carry over look-ahead byte
+            encLen = 1;
+        }
+    }
+}
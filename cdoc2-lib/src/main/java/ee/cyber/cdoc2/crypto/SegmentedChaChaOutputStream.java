@@ -0,0 +1,123 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+
+/**
+ * OutputStream that encrypts written data in segments, see {@link SegmentedChaChaCipher} for format.
+ * Plaintext is buffered until batch of segments is full, then segments are encrypted in parallel and
+ * written to underlying stream in order. Full batch is encrypted only when more data is written, as the last
+ * segment must be known before it can be encrypted. Last segment is written by {@link #close()}.
+ */
+class SegmentedChaChaOutputStream extends FilterOutputStream {
+
+    private final SecretKey cek;
+    private final byte[] nonce;
+    private final byte[] aad;
+    private final int segmentSize;
+    private final Executor executor;
+
+    private final byte[] plainBuf;
+    private final byte[] encBuf;
+    private int plainLen;
+
+    private long segmentIndex;
+    private boolean closed;
+
+    SegmentedChaChaOutputStream(OutputStream out, SecretKey cek, byte[] nonce, byte[] aad, int segmentSize,
+                                Executor executor, int segmentsPerBatch) {
+        super(Objects.requireNonNull(out));
+        this.cek = Objects.requireNonNull(cek);
+        this.nonce = nonce.clone();
+        this.aad = aad.clone();
+        this.segmentSize = segmentSize;
+        this.executor = Objects.requireNonNull(executor);
+        this.plainBuf = new byte[segmentsPerBatch * segmentSize];
+        this.encBuf = new byte[segmentsPerBatch * (segmentSize + SegmentedChaChaCipher.TAG_LEN_BYTES)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+
+        while (len > 0) {
+            if (plainLen == plainBuf.length) {
+                // more data follows, so none of the buffered segments is the last one
+                encryptBatch(false);
+            }
+
+            int n = Math.min(len, plainBuf.length - plainLen);
+            System.arraycopy(b, off, plainBuf, plainLen, n);
+            plainLen += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Flushes underlying stream. Buffered plaintext is not encrypted, as only full segments can be written
+     * before stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        out.flush();
+    }
+
+    /**
+     * Encrypt and write remaining buffered data as final segment(s) and close underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try (OutputStream os = out) {
+            encryptBatch(true);
+            os.flush();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Encrypt buffered plaintext and write it to underlying stream.
+     * @param last if buffer contains last segment. Last segment may be shorter than segmentSize or empty
+     */
+    private void encryptBatch(boolean last) throws IOException {
+        // when there is no plaintext (empty payload), single empty last segment is still written
+        int segments = Math.max(1, (plainLen + segmentSize - 1) / segmentSize);
+        int encSegmentSize = segmentSize + SegmentedChaChaCipher.TAG_LEN_BYTES;
+        int lastSegmentLen = plainLen - (segments - 1) * segmentSize;
+        long firstIndex = segmentIndex;
+
+        SegmentedChaChaCipher.runParallel(segments, i -> {
+            boolean lastSegment = last && (i == segments - 1);
+            int len = (i == segments - 1) ? lastSegmentLen : segmentSize;
+            SegmentedChaChaCipher.initSegmentCipher(Cipher.ENCRYPT_MODE, cek, nonce, aad, firstIndex + i, lastSegment)
+                .doFinal(plainBuf, i * segmentSize, len, encBuf, i * encSegmentSize);
+        }, executor);
+
+        out.write(encBuf, 0, plainLen + segments * SegmentedChaChaCipher.TAG_LEN_BYTES);
+        segmentIndex += segments;
+        plainLen = 0;
+    }
+}
@@ -0,0 +1,196 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Random access to segmented payload ({@link SegmentedChaChaCipher}) stored in {@link SeekableByteChannel}.
+ * Only segments that are read are decrypted and authenticated. Last segment is determined from channel size,
+ * so truncated payload fails authentication of the (new) last segment. Not thread-safe, as the channel
+ * position is shared.
+ */
+public final class SegmentedChaChaSeekableReader {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedChaChaSeekableReader.class);
+
+    private final SeekableByteChannel channel;
+    private final long segmentsStart;
+    private final SecretKey cek;
+    private final byte[] nonce;
+    private final byte[] aad;
+    private final int segmentSize;
+    private final int encSegmentSize;
+    private final long segmentCount;
+    private final long plaintextLength;
+
+    private SegmentedChaChaSeekableReader(SeekableByteChannel channel, long segmentsStart, SecretKey cek,
+                                          byte[] nonce, byte[] aad, int segmentSize) throws IOException {
+        this.channel = channel;
+        this.segmentsStart = segmentsStart;
+        this.cek = cek;
+        this.nonce = nonce;
+        this.aad = aad.clone();
+        this.segmentSize = segmentSize;
+        this.encSegmentSize = segmentSize + SegmentedChaChaCipher.TAG_LEN_BYTES;
+
+        long encLen = channel.size() - segmentsStart;
+        if (encLen < SegmentedChaChaCipher.TAG_LEN_BYTES) {
+            throw new IOException("Unexpected end of segmented payload");
+        }
+        this.segmentCount = (encLen - 1) / encSegmentSize + 1;
+        long lastSegmentLen = encLen - (segmentCount - 1) * encSegmentSize;
+        if (lastSegmentLen < SegmentedChaChaCipher.TAG_LEN_BYTES) {
+            throw new IOException("Unexpected end of segmented payload");
+        }
+        this.plaintextLength = encLen - segmentCount * SegmentedChaChaCipher.TAG_LEN_BYTES;
+    }
+
+    /**
+     * Open segmented payload for random access
+     * @param channel channel containing CDOC2 container
+     * @param payloadStart position of payload (nonce) in channel
+     * @param contentEncryptionKey cek content encryption key CEK, {@link Crypto#deriveContentEncryptionKey(byte[])}
+     * @param additionalData Additional Authentication Data (AAD) provided to ChaChaCipher
+     * @param segmentSize plaintext segment size in bytes
+     * @return SegmentedChaChaSeekableReader
+     * @throws IOException if an I/O error has occurred or payload is too short
+     */
+    public static SegmentedChaChaSeekableReader open(SeekableByteChannel channel,
+                                                     long payloadStart,
+                                                     SecretKey contentEncryptionKey,
+                                                     byte[] additionalData,
+                                                     int segmentSize) throws IOException {
+
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(contentEncryptionKey);
+        if (!SegmentedChaChaCipher.isValidSegmentSize(segmentSize)) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        }
+
+        ByteBuffer nonceBuf = ByteBuffer.allocate(ChaChaCipher.NONCE_LEN_BYTES);
+        readFully(channel, payloadStart, nonceBuf);
+        return new SegmentedChaChaSeekableReader(channel, payloadStart + ChaChaCipher.NONCE_LEN_BYTES,
+            contentEncryptionKey, nonceBuf.array(), additionalData, segmentSize);
+    }
+
+    /**
+     * @return payload plaintext length in bytes
+     */
+    public long getPlaintextLength() {
+        return plaintextLength;
+    }
+
+    /**
+     * Read, decrypt and authenticate segment
+     * @param index segment index
+     * @return segment plaintext
+     * @throws IOException if an I/O error has occurred or segment authentication has failed (cause is
+     *          {@link javax.crypto.AEADBadTagException})
+     */
+    public byte[] readSegment(long index) throws IOException {
+        if ((index < 0) || (index >= segmentCount)) {
+            throw new IllegalArgumentException("Invalid segment index " + index);
+        }
+
+        boolean last = (index == segmentCount - 1);
+        long position = segmentsStart + index * encSegmentSize;
+        int encLen = last
+            ? (int) (channel.size() - position)
+            : encSegmentSize;
+
+        ByteBuffer encBuf = ByteBuffer.allocate(encLen);
+        readFully(channel, position, encBuf);
+
+        try {
+            return SegmentedChaChaCipher.initSegmentCipher(Cipher.DECRYPT_MODE, cek, nonce, aad, index, last)
+                .doFinal(encBuf.array());
+        } catch (GeneralSecurityException e) {
+            log.debug("Segment {} authentication failed", index);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Create InputStream that returns payload plaintext from range [from, to). Segments are decrypted on demand.
+     * @param from plaintext start offset (inclusive)
+     * @param to plaintext end offset (exclusive)
+     * @return InputStream for plaintext range
+     */
+    public InputStream newInputStream(long from, long to) {
+        if ((from < 0) || (from > to) || (to > plaintextLength)) {
+            throw new IllegalArgumentException("Invalid plaintext range [" + from + ", " + to + ")");
+        }
+        return new RangeInputStream(from, to);
+    }
+
+    private static void readFully(SeekableByteChannel channel, long position, ByteBuffer dst) throws IOException {
+        channel.position(position);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                throw new EOFException("Unexpected end of segmented payload");
+            }
+        }
+    }
+
+    /**
+     * InputStream for plaintext range, keeps last decrypted segment
+     */
+    private final class RangeInputStream extends InputStream {
+        private long pos;
+        private final long end;
+        private long segmentIndex = -1;
+        private byte[] segment;
+
+        RangeInputStream(long from, long to) {
+            this.pos = from;
+            this.end = to;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return (read == -1) ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (pos >= end) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            long index = pos / segmentSize;
+            if (index != segmentIndex) {
+                segment = readSegment(index);
+                segmentIndex = index;
+            }
+
+            int segmentOffset = (int) (pos % segmentSize);
+            int n = (int) Math.min(Math.min(len, segment.length - segmentOffset), end - pos);
+            System.arraycopy(segment, segmentOffset, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (segment == null) ? 0 : (int) Math.min(end - pos,
+                Math.max(0, (segmentIndex + 1) * segmentSize - pos));
+        }
+    }
+}
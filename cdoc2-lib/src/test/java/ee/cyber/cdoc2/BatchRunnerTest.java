@@ -0,0 +1,65 @@
+package ee.cyber.cdoc2;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class BatchRunnerTest {
+
+    @Test
+    void shouldLimitJobsInProgress() throws Exception {
+        AtomicInteger inProgress = new AtomicInteger();
+        AtomicInteger maxInProgress = new AtomicInteger();
+        Set<Integer> results = Collections.synchronizedSet(new HashSet<>());
+
+        BatchRunner runner = new BatchRunner();
+        runner.setParallelism(3);
+        runner.run(IntStream.range(0, 50).boxed(), job -> {
+            maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inProgress.decrementAndGet();
+            return job;
+        }, results::add);
+
+        assertEquals(50, results.size());
+        assertTrue(maxInProgress.get() <= 3);
+    }
+
+    @Test
+    void shouldNotShutdownProvidedExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AtomicInteger done = new AtomicInteger();
+            BatchRunner runner = new BatchRunner();
+            runner.setExecutor(executor);
+            runner.setParallelism(2);
+            runner.run(IntStream.range(0, 10).boxed(), job -> job, job -> done.incrementAndGet());
+
+            assertEquals(10, done.get());
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldRejectInvalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new BatchRunner().setParallelism(0));
+    }
+}
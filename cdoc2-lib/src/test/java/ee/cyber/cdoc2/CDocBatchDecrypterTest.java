@@ -0,0 +1,79 @@
+package ee.cyber.cdoc2;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import static ee.cyber.cdoc2.KeyUtil.createKeyPair;
+import static ee.cyber.cdoc2.container.EnvelopeTestUtils.getPublicKeyLabelParams;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class CDocBatchDecrypterTest {
+
+    private static final int CONTAINERS = 8;
+
+    @Test
+    void shouldDecryptBatch(@TempDir Path tempDir) throws Exception {
+        KeyPair keyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(),
+            getPublicKeyLabelParams());
+
+        List<CDocBatchDecrypter.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < CONTAINERS; i++) {
+            File payloadFile = tempDir.resolve("payload-" + i + ".txt").toFile();
+            Files.writeString(payloadFile.toPath(), "payload " + i);
+            File cdocFile = tempDir.resolve("container-" + i + ".cdoc").toFile();
+            new CDocBuilder()
+                .withPayloadFiles(List.of(payloadFile))
+                .withRecipients(List.of(encKM))
+                .buildToFile(cdocFile);
+
+            Path outDir = Files.createDirectories(tempDir.resolve("out-" + i));
+            jobs.add(new CDocBatchDecrypter.Job(cdocFile, outDir.toFile()));
+        }
+
+        File invalidCDoc = tempDir.resolve("invalid.cdoc").toFile();
+        Files.writeString(invalidCDoc.toPath(), "not a cdoc");
+        jobs.add(new CDocBatchDecrypter.Job(invalidCDoc, tempDir.toFile()));
+
+        CDocBatchDecrypter.BatchResult result = new CDocBatchDecrypter()
+            .withRecipient(DecryptionKeyMaterial.fromKeyPair(keyPair))
+            .withParallelism(3)
+            .decrypt(jobs.stream());
+
+        assertEquals(CONTAINERS, result.stats().succeeded());
+        assertEquals(1, result.stats().failed());
+        assertEquals(CONTAINERS, result.stats().filesDecrypted());
+        assertEquals(CONTAINERS + 1, result.results().size());
+
+        for (CDocBatchDecrypter.JobResult jobResult : result.results()) {
+            if (jobResult.job().cDocFile().equals(invalidCDoc)) {
+                assertFalse(jobResult.isSuccess());
+                continue;
+            }
+            String name = jobResult.files().get(0);
+            String index = name.substring("payload-".length(), name.indexOf('.'));
+            assertEquals("payload " + index, Files.readString(
+                jobResult.job().destinationDirectory().toPath().resolve(name), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void shouldRequireKeyMaterial() {
+        assertThrows(CDocValidationException.class, () -> new CDocBatchDecrypter().decrypt(Stream.empty()));
+    }
+}
@@ -0,0 +1,76 @@
+package ee.cyber.cdoc2;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import static ee.cyber.cdoc2.KeyUtil.createKeyPair;
+import static ee.cyber.cdoc2.container.EnvelopeTestUtils.getPublicKeyLabelParams;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class CDocBatchEncrypterTest {
+
+    private static final int CONTAINERS = 6;
+
+    @Test
+    void shouldEncryptBatch(@TempDir Path tempDir) throws Exception {
+        KeyPair keyPair = createKeyPair();
+        EncryptionKeyMaterial encKM = EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(),
+            getPublicKeyLabelParams());
+
+        File payloadFile = tempDir.resolve("payload.txt").toFile();
+        Files.writeString(payloadFile.toPath(), "same payload");
+
+        List<CDocBatchEncrypter.Job> encJobs = new ArrayList<>();
+        List<CDocBatchDecrypter.Job> decJobs = new ArrayList<>();
+        for (int i = 0; i < CONTAINERS; i++) {
+            File cdocFile = tempDir.resolve("container-" + i + ".cdoc").toFile();
+            encJobs.add(new CDocBatchEncrypter.Job(List.of(payloadFile), cdocFile));
+
+            Path outDir = Files.createDirectories(tempDir.resolve("out-" + i));
+            decJobs.add(new CDocBatchDecrypter.Job(cdocFile, outDir.toFile()));
+        }
+        encJobs.add(new CDocBatchEncrypter.Job(List.of(), tempDir.resolve("empty.cdoc").toFile()));
+
+        CDocBatchEncrypter.BatchResult result = new CDocBatchEncrypter()
+            .withRecipients(List.of(encKM))
+            .withParallelism(3)
+            .encrypt(encJobs.stream());
+
+        assertEquals(CONTAINERS, result.stats().succeeded());
+        assertEquals(1, result.stats().failed());
+        assertFalse(tempDir.resolve("empty.cdoc").toFile().exists());
+
+        // every container has its own FMK and sender key
+        byte[] first = Files.readAllBytes(decJobs.get(0).cDocFile().toPath());
+        byte[] second = Files.readAllBytes(decJobs.get(1).cDocFile().toPath());
+        assertFalse(Arrays.equals(first, second));
+
+        CDocBatchDecrypter.BatchResult decrypted = new CDocBatchDecrypter()
+            .withRecipient(DecryptionKeyMaterial.fromKeyPair(keyPair))
+            .decrypt(decJobs.stream());
+        assertEquals(CONTAINERS, decrypted.stats().succeeded());
+        for (CDocBatchDecrypter.Job job : decJobs) {
+            assertEquals("same payload", Files.readString(job.destinationDirectory().toPath().resolve("payload.txt")));
+        }
+    }
+
+    @Test
+    void shouldRequireRecipients() {
+        assertThrows(CDocValidationException.class, () -> new CDocBatchEncrypter().encrypt(Stream.empty()));
+    }
+}
@@ -1,33 +1,70 @@
 package ee.cyber.cdoc2;
 
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.parallel.Isolated;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import ee.cyber.cdoc2.client.CapsuleCache;
 import ee.cyber.cdoc2.client.Cdoc2KeyCapsuleApiClient;
+import ee.cyber.cdoc2.client.ExtApiException;
+import ee.cyber.cdoc2.client.KeyCapsuleClient;
 import ee.cyber.cdoc2.client.KeyCapsuleClientImpl;
+import ee.cyber.cdoc2.client.LoadBalancing;
+import ee.cyber.cdoc2.client.ResilienceOptions;
+import ee.cyber.cdoc2.client.api.ApiException;
 import ee.cyber.cdoc2.client.model.Capsule;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 @Isolated
 @ExtendWith(MockitoExtension.class)
 class KeyCapsuleClientTest {
 
-    @InjectMocks
     KeyCapsuleClientImpl capsuleClient;
 
     @Mock
     Cdoc2KeyCapsuleApiClient capsuleApiClient;
 
+    @BeforeEach
+    void setUp() {
+        capsuleClient = (KeyCapsuleClientImpl) KeyCapsuleClientImpl.create("test", capsuleApiClient, capsuleApiClient);
+    }
+
     @Test
     void testCapsuleCreationWithoutRequestedExpiry() throws Exception {
         Capsule capsule = createCapsule();
@@ -49,6 +86,273 @@ class KeyCapsuleClientTest {
         verify(capsuleApiClient, times(1)).createCapsule(any(), any());
     }
 
+    @Test
+    void shouldStoreCapsulesInOrder() throws Exception {
+        List<Capsule> capsules = List.of(createCapsule(), createCapsule(), createCapsule(), createCapsule());
+        for (int i = 0; i < capsules.size(); i++) {
+            capsules.get(i).getRecipientId()[0] = (byte) i;
+        }
+        when(capsuleApiClient.createCapsule(any())).thenAnswer(invocation -> {
+            Capsule capsule = invocation.getArgument(0);
+            // complete in reverse order
+            Thread.sleep(10L * (capsules.size() - capsule.getRecipientId()[0]));
+            return "KC" + capsule.getRecipientId()[0];
+        });
+
+        capsuleClient.setMaxConcurrentRequests(2);
+        List<String> transactionIds = capsuleClient.storeCapsules(capsules);
+
+        assertEquals(List.of("KC0", "KC1", "KC2", "KC3"), transactionIds);
+        verify(capsuleApiClient, times(capsules.size())).createCapsule(any());
+    }
+
+    @Test
+    void shouldCompleteRequestsInFlightWhenStoreCapsulesFails() throws Exception {
+        List<Capsule> capsules = List.of(createCapsule(), createCapsule(), createCapsule(), createCapsule());
+        for (int i = 0; i < capsules.size(); i++) {
+            capsules.get(i).getRecipientId()[0] = (byte) i;
+        }
+        AtomicBoolean interrupted = new AtomicBoolean();
+        when(capsuleApiClient.createCapsule(any())).thenAnswer(invocation -> {
+            Capsule capsule = invocation.getArgument(0);
+            if (capsule.getRecipientId()[0] == 0) {
+                throw new ApiException(500, "Server error");
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw e;
+            }
+            return "KC" + capsule.getRecipientId()[0];
+        });
+
+        capsuleClient.setMaxConcurrentRequests(2);
+        assertThrows(ExtApiException.class, () -> capsuleClient.storeCapsules(capsules));
+
+        assertFalse(interrupted.get());
+        // no new requests are started after failure
+        verify(capsuleApiClient, times(2)).createCapsule(any());
+    }
+
+    @Test
+    void shouldStoreCapsuleAsync() throws Exception {
+        Capsule capsule = createCapsule();
+        Capsule failingCapsule = createCapsule();
+        failingCapsule.getRecipientId()[0] = 1;
+        when(capsuleApiClient.createCapsule(capsule)).thenReturn("KC1");
+        when(capsuleApiClient.createCapsule(failingCapsule)).thenThrow(new ApiException(500, "Server error"));
+
+        CompletableFuture<String> transactionId = capsuleClient.storeCapsuleAsync(capsule);
+        CompletableFuture<String> failed = capsuleClient.storeCapsuleAsync(failingCapsule);
+
+        assertEquals("KC1", transactionId.get());
+        ExecutionException ex = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(ExtApiException.class, ex.getCause());
+    }
+
+    @Test
+    void shouldGetCapsuleFromCache() throws Exception {
+        Capsule capsule = createCapsule();
+        when(capsuleApiClient.getCapsule("KC1")).thenReturn(Optional.of(capsule));
+
+        KeyCapsuleClientImpl client = (KeyCapsuleClientImpl)
+            KeyCapsuleClientImpl.create("test", capsuleApiClient, capsuleApiClient);
+        client.setCapsuleCache(new CapsuleCache());
+
+        Capsule first = client.getCapsule("KC1").orElseThrow();
+        Capsule second = client.getCapsule("KC1").orElseThrow();
+
+        assertEquals(capsule, first);
+        assertEquals(capsule, second);
+        assertNotSame(first, second);
+        verify(capsuleApiClient, times(1)).getCapsule("KC1");
+    }
+
+    @Test
+    void shouldExpireAndWipeCachedCapsules() {
+        AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+        CapsuleCache cache = new CapsuleCache(2, Duration.ofMinutes(1), clock);
+
+        Capsule capsule = createCapsule();
+        capsule.getEphemeralKeyMaterial()[0] = 1;
+        cache.put("test", "KC1", capsule);
+        assertTrue(cache.get("test", "KC1").isPresent());
+        assertTrue(cache.get("other", "KC1").isEmpty());
+
+        // least recently used entry is removed, when cache is full
+        cache.put("test", "KC2", capsule);
+        cache.get("test", "KC1");
+        cache.put("test", "KC3", capsule);
+        assertEquals(2, cache.size());
+        assertTrue(cache.get("test", "KC2").isEmpty());
+
+        now.set(now.get().plus(Duration.ofMinutes(1)));
+        assertTrue(cache.get("test", "KC1").isEmpty());
+        assertTrue(cache.get("test", "KC3").isEmpty());
+        assertEquals(0, cache.size());
+        // cache wipes only its own copies
+        assertEquals(1, capsule.getEphemeralKeyMaterial()[0]);
+    }
+
+    @Test
+    void shouldRetryGetCapsuleOnServerError() throws Exception {
+        Capsule capsule = createCapsule();
+        when(capsuleApiClient.getCapsule("KC1"))
+            .thenThrow(new ApiException(503, "Service Unavailable"))
+            .thenReturn(Optional.of(capsule));
+
+        KeyCapsuleClientImpl client = (KeyCapsuleClientImpl)
+            KeyCapsuleClientImpl.create("test", capsuleApiClient, capsuleApiClient);
+        client.setResilienceOptions(new ResilienceOptions()
+            .withMaxAttempts(3)
+            .withBackoff(Duration.ofMillis(1), Duration.ofMillis(10)));
+
+        assertEquals(capsule, client.getCapsule("KC1").orElseThrow());
+        verify(capsuleApiClient, times(2)).getCapsule("KC1");
+    }
+
+    @Test
+    void shouldHedgeRequestToSlowReplica() throws Exception {
+        Capsule capsule = createCapsule();
+        Cdoc2KeyCapsuleApiClient slowReplica = mock(Cdoc2KeyCapsuleApiClient.class);
+        when(slowReplica.getCapsule("KC1")).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return Optional.of(capsule);
+        });
+        when(capsuleApiClient.getCapsule("KC1")).thenReturn(Optional.of(capsule));
+
+        KeyCapsuleClientImpl client = (KeyCapsuleClientImpl)
+            KeyCapsuleClientImpl.create("test", List.of(capsuleApiClient), List.of(slowReplica, capsuleApiClient));
+        client.setResilienceOptions(new ResilienceOptions().withHedgeDelay(Duration.ofMillis(50)));
+
+        long start = System.nanoTime();
+        assertEquals(capsule, client.getCapsule("KC1").orElseThrow());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(2)) < 0);
+    }
+
+    @Test
+    void shouldCancelSlowReplicaRequestWhenHedgedRequestSucceeds() throws Exception {
+        Capsule capsule = createCapsule();
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Cdoc2KeyCapsuleApiClient slowReplica = mock(Cdoc2KeyCapsuleApiClient.class);
+        when(slowReplica.getCapsule("KC1")).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return Optional.of(capsule);
+        });
+        when(capsuleApiClient.getCapsule("KC1")).thenReturn(Optional.of(capsule));
+
+        KeyCapsuleClientImpl client = (KeyCapsuleClientImpl)
+            KeyCapsuleClientImpl.create("test", List.of(capsuleApiClient), List.of(slowReplica, capsuleApiClient));
+        client.setResilienceOptions(new ResilienceOptions().withHedgeDelay(Duration.ofMillis(50)));
+
+        assertEquals(capsule, client.getCapsule("KC1").orElseThrow());
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldSkipReplicaWithOpenCircuitBreaker() throws Exception {
+        Capsule capsule = createCapsule();
+        Cdoc2KeyCapsuleApiClient failingReplica = mock(Cdoc2KeyCapsuleApiClient.class);
+        when(failingReplica.getCapsule(any())).thenThrow(new ApiException(500, "Internal Server Error"));
+        when(capsuleApiClient.getCapsule(any())).thenReturn(Optional.of(capsule));
+
+        KeyCapsuleClientImpl client = (KeyCapsuleClientImpl)
+            KeyCapsuleClientImpl.create("test", List.of(capsuleApiClient), List.of(failingReplica, capsuleApiClient));
+        client.setResilienceOptions(new ResilienceOptions().withCircuitBreaker(2, Duration.ofMinutes(1)));
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(client.getCapsule("KC" + i).isPresent());
+        }
+        // circuit is open after 2 failures
+        verify(failingReplica, times(2)).getCapsule(any());
+        verify(capsuleApiClient, times(5)).getCapsule(any());
+    }
+
+    @Test
+    void shouldSpreadRequestsOverReplicas() throws Exception {
+        Cdoc2KeyCapsuleApiClient otherReplica = mock(Cdoc2KeyCapsuleApiClient.class);
+        when(capsuleApiClient.getCapsule(any())).thenReturn(Optional.of(createCapsule()));
+        when(otherReplica.getCapsule(any())).thenReturn(Optional.of(createCapsule()));
+
+        KeyCapsuleClientImpl client = (KeyCapsuleClientImpl)
+            KeyCapsuleClientImpl.create("test", List.of(capsuleApiClient), List.of(capsuleApiClient, otherReplica));
+        client.setLoadBalancing(LoadBalancing.LEAST_OUTSTANDING);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(client.getCapsule("KC" + i).isPresent());
+        }
+        verify(capsuleApiClient, times(5)).getCapsule(any());
+        verify(otherReplica, times(5)).getCapsule(any());
+    }
+
+    @Test
+    void shouldPreferFastReplicaWithEwmaLatency() throws Exception {
+        Cdoc2KeyCapsuleApiClient slowReplica = mock(Cdoc2KeyCapsuleApiClient.class);
+        when(slowReplica.getCapsule(any())).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return Optional.of(createCapsule());
+        });
+        when(capsuleApiClient.getCapsule(any())).thenReturn(Optional.of(createCapsule()));
+
+        KeyCapsuleClientImpl client = (KeyCapsuleClientImpl)
+            KeyCapsuleClientImpl.create("test", List.of(capsuleApiClient), List.of(slowReplica, capsuleApiClient));
+        client.setLoadBalancing(LoadBalancing.EWMA_LATENCY);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(client.getCapsule("KC" + i).isPresent());
+        }
+        // slow replica is used only until its latency is measured
+        verify(slowReplica, times(1)).getCapsule(any());
+        verify(capsuleApiClient, times(9)).getCapsule(any());
+    }
+
+    @Test
+    void shouldReuseTlsClientForSameConfiguration(@TempDir Path tempDir) throws Exception {
+        Path trustStore = tempDir.resolve("truststore.jks");
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+        try (OutputStream os = Files.newOutputStream(trustStore)) {
+            keyStore.store(os, "passwd".toCharArray());
+        }
+
+        Properties p = new Properties();
+        p.setProperty("cdoc2.client.server.id", "test");
+        p.setProperty("cdoc2.client.server.base-url.post", "https://localhost:8443");
+        p.setProperty("cdoc2.client.ssl.trust-store.type", "JKS");
+        p.setProperty("cdoc2.client.ssl.trust-store", trustStore.toString());
+        p.setProperty("cdoc2.client.ssl.trust-store-password", "passwd");
+
+        KeyCapsuleClient first = KeyCapsuleClientImpl.create(p, false);
+        KeyCapsuleClient second = KeyCapsuleClientImpl.create(p, false);
+        // same TLS client (SSLContext and connections) is used
+        assertEquals(first, second);
+
+        p.setProperty("cdoc2.client.server.read-timeout", "2000");
+        assertNotEquals(first, KeyCapsuleClientImpl.create(p, false));
+    }
+
     private Capsule createCapsule() {
         return new Capsule()
             .capsuleType(Capsule.CapsuleTypeEnum.ECC_SECP384R1)
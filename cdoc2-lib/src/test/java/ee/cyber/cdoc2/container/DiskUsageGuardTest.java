@@ -0,0 +1,93 @@
+package ee.cyber.cdoc2.container;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class DiskUsageGuardTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static final long TOTAL_SPACE = 1000 * MB;
+
+    @Test
+    void testProbesAreAmortized() {
+        DiskUsageGuard guard = new DiskUsageGuard(() -> 500 * MB, TOTAL_SPACE, 100, MB);
+
+        guard.onEntry(8 * MB);
+        for (int i = 0; i < 1024; i++) {
+            guard.onWrite(Tar.MIN_BUFFER_SIZE);
+        }
+
+        // 1 probe on entry start and 1 after every 1MB written
+        assertEquals(1 + 8, guard.getProbeCount());
+    }
+
+    @Test
+    void testEntriesShareProbeBudget() {
+        DiskUsageGuard guard = new DiskUsageGuard(() -> 500 * MB, TOTAL_SPACE, 100, MB);
+
+        // many small entries, probe only on first entry and after every 1MB written
+        for (int i = 0; i < 1024; i++) {
+            guard.onEntry(Tar.MIN_BUFFER_SIZE);
+            guard.onWrite(Tar.MIN_BUFFER_SIZE);
+        }
+        assertEquals(1 + 8, guard.getProbeCount());
+
+        // entry bigger than headroom left from last probe causes a new probe
+        guard.onWrite(Tar.MIN_BUFFER_SIZE);
+        guard.onEntry(500 * MB - Tar.MIN_BUFFER_SIZE / 2);
+        assertEquals(1 + 8 + 1, guard.getProbeCount());
+    }
+
+    @Test
+    void testProbeIntervalLimitedByHeadroom() {
+        // 60% used, 20MB headroom until 62% threshold
+        AtomicLong usable = new AtomicLong(400 * MB);
+        DiskUsageGuard guard = new DiskUsageGuard(usable::get, TOTAL_SPACE, 62, 100 * MB);
+
+        guard.onEntry(8 * MB);
+        guard.onWrite(9 * MB);
+        assertEquals(1, guard.getProbeCount());
+
+        // next probe after half of the headroom
+        guard.onWrite(2 * MB);
+        assertEquals(2, guard.getProbeCount());
+
+        usable.set(370 * MB);
+        assertThrows(IllegalStateException.class, () -> guard.onWrite(11 * MB));
+    }
+
+    @Test
+    void testUsageOverThreshold() {
+        // 60% used
+        DiskUsageGuard overThreshold = new DiskUsageGuard(() -> 400 * MB, TOTAL_SPACE, 50, MB);
+        assertThrows(IllegalStateException.class, () -> overThreshold.onEntry(0));
+
+        // entry doesn't fit under threshold
+        DiskUsageGuard underThreshold = new DiskUsageGuard(() -> 400 * MB, TOTAL_SPACE, 100, MB);
+        underThreshold.onEntry(400 * MB);
+        assertThrows(IllegalStateException.class, () -> underThreshold.onEntry(400 * MB + 1));
+    }
+
+    @Test
+    void testExistingDir(@TempDir Path tempDir) {
+        DiskUsageGuard guard = new DiskUsageGuard(tempDir.toFile(), 100, MB);
+        guard.onEntry(0);
+        assertEquals(1, guard.getProbeCount());
+    }
+
+    @Test
+    void testNoOutputDir() {
+        DiskUsageGuard guard = new DiskUsageGuard(null, 0, MB);
+        guard.onEntry(Long.MAX_VALUE);
+        guard.onWrite(Long.MAX_VALUE);
+        assertEquals(0, guard.getProbeCount());
+    }
+}
@@ -9,6 +9,7 @@ import ee.cyber.cdoc2.crypto.ECKeys;
 import ee.cyber.cdoc2.crypto.EllipticCurve;
 import ee.cyber.cdoc2.crypto.KeyLabelParams;
 import ee.cyber.cdoc2.crypto.RsaUtils;
+import ee.cyber.cdoc2.crypto.SegmentedChaChaCipher;
 import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
 import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
 import ee.cyber.cdoc2.CDocConfiguration;
@@ -16,6 +17,8 @@ import ee.cyber.cdoc2.client.KeyCapsuleClient;
 import ee.cyber.cdoc2.client.model.Capsule;
 import ee.cyber.cdoc2.container.recipients.RSAServerKeyRecipient;
 import ee.cyber.cdoc2.fbs.header.Header;
+import ee.cyber.cdoc2.fbs.header.PayloadCompressionMethod;
+import ee.cyber.cdoc2.fbs.header.PayloadEncryptionMethod;
 import ee.cyber.cdoc2.fbs.header.RecipientRecord;
 import ee.cyber.cdoc2.fbs.recipients.PBKDF2Capsule;
 import ee.cyber.cdoc2.fbs.recipients.RSAPublicKeyCapsule;
@@ -29,9 +32,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PublicKey;
@@ -41,12 +46,22 @@ import java.security.interfaces.RSAPublicKey;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.crypto.AEADBadTagException;
 import javax.crypto.SecretKey;
@@ -60,6 +75,7 @@ import org.junit.jupiter.api.condition.OS;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.parallel.Isolated;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
@@ -74,6 +90,7 @@ import static ee.cyber.cdoc2.container.EnvelopeTestUtils.getPublicKeyLabelParams
 import static ee.cyber.cdoc2.container.EnvelopeTestUtils.testContainer;
 import static ee.cyber.cdoc2.fbs.header.Capsule.*;
 import static ee.cyber.cdoc2.fbs.header.Capsule.recipients_PBKDF2Capsule;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -84,6 +101,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -98,7 +116,7 @@ class EnvelopeTest implements TestLifecycleLogger {
 
     private static KeyLabelParams bobKeyLabelParams;
 
-    @Mock
+    @Mock(answer = Answers.CALLS_REAL_METHODS) // async default methods call mocked blocking methods
     KeyCapsuleClient capsuleClientMock;
 
     Capsule capsuleData;
@@ -245,6 +263,37 @@ class EnvelopeTest implements TestLifecycleLogger {
         assertEquals("SD1234567890", eccServerKeyRecipient.getTransactionId());
     }
 
+    @Test
+    void testEccServerManyRecipients(@TempDir Path tempDir) throws Exception {
+        File payloadFile = tempDir.resolve("payload.txt").toFile();
+        Files.writeString(payloadFile.toPath(), "payload");
+
+        List<PublicKey> publicKeys = List.of(createPublicKey(), createPublicKey(), createPublicKey());
+        List<EncryptionKeyMaterial> recipientKeys = new LinkedList<>();
+        for (PublicKey publicKey : publicKeys) {
+            recipientKeys.add(EncryptionKeyMaterial.fromPublicKey(publicKey, bobKeyLabelParams));
+        }
+
+        when(capsuleClientMock.getServerIdentifier()).thenReturn("mock");
+        doReturn(List.of("SD0", "SD1", "SD2")).when(capsuleClientMock).storeCapsules(any());
+
+        Envelope envelope = Envelope.prepare(recipientKeys, capsuleClientMock);
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        envelope.encrypt(List.of(payloadFile), dst);
+
+        // all capsules are stored with single call
+        verify(capsuleClientMock, times(1)).storeCapsules(any());
+        verify(capsuleClientMock, times(0)).storeCapsule(any());
+
+        List<Recipient> recipients = Envelope.parseHeader(new ByteArrayInputStream(dst.toByteArray()));
+        assertEquals(publicKeys.size(), recipients.size());
+        for (int i = 0; i < publicKeys.size(); i++) {
+            EccServerKeyRecipient recipient = (EccServerKeyRecipient) recipients.get(i);
+            assertEquals(publicKeys.get(i), recipient.getRecipientPubKey());
+            assertEquals("SD" + i, recipient.getTransactionId());
+        }
+    }
+
     @Test
     void testRsaServerSerialization(@TempDir Path tempDir) throws Exception {
         KeyPairGenerator generator = getKeyPairRsaInstance();
@@ -413,6 +462,8 @@ class EnvelopeTest implements TestLifecycleLogger {
         testContainer(tempDir, DecryptionKeyMaterial.fromKeyPair(keyPair), "testECContainer", capsuleClientMock);
 
         verify(capsuleClientMock, times(1)).storeCapsule(any());
+        // capsule is prefetched while header is read
+        verify(capsuleClientMock, times(1)).getCapsuleAsync(transactionId);
         verify(capsuleClientMock, times(1)).getCapsule(transactionId);
 
         assertEquals(Capsule.CapsuleTypeEnum.ECC_SECP384R1, capsuleData.getCapsuleType());
@@ -629,6 +680,379 @@ class EnvelopeTest implements TestLifecycleLogger {
         assertTrue(Arrays.stream(outDir.toFile().listFiles()).toList().isEmpty());
     }
 
+    @Test
+    void testSegmentedPayloadContainer(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        File payloadFile = tempDir.resolve("payload.bin").toFile();
+        byte[] payloadData = new byte[200 * 1024];
+        new Random().nextBytes(payloadData);
+        Files.write(payloadFile.toPath(), payloadData);
+
+        PayloadOptions options = new PayloadOptions()
+            .withSegmentedEncryption(true)
+            .withSegmentSize(SegmentedChaChaCipher.MIN_SEGMENT_SIZE);
+
+        Envelope envelope = Envelope.prepare(
+            List.of(EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(), bobKeyLabelParams)),
+            null,
+            options
+        );
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        envelope.encrypt(List.of(payloadFile), dst);
+        byte[] cdocBytes = dst.toByteArray();
+
+        Header header = Envelope.deserializeFBSHeader(
+            Envelope.readFBSHeader(new ByteArrayInputStream(cdocBytes)));
+        assertEquals(PayloadEncryptionMethod.CHACHA20POLY1305_SEGMENTED, header.payloadEncryptionMethod());
+        assertEquals(SegmentedChaChaCipher.MIN_SEGMENT_SIZE, header.payloadSegmentSize());
+
+        Path outDir = tempDir.resolve("out");
+        Files.createDirectories(outDir);
+        List<String> extracted = Envelope.decrypt(new ByteArrayInputStream(cdocBytes),
+            DecryptionKeyMaterial.fromKeyPair(bobKeyPair), outDir, null);
+
+        assertEquals(List.of(payloadFile.getName()), extracted);
+        assertArrayEquals(payloadData, Files.readAllBytes(outDir.resolve(payloadFile.getName())));
+
+        // segments are decrypted on executor from extract options
+        Path cdocFile = Files.write(tempDir.resolve("segmented.cdoc"), cdocBytes);
+        Path channelOutDir = Files.createDirectories(tempDir.resolve("channel"));
+        AtomicInteger segmentTasks = new AtomicInteger();
+        ForkJoinPool segmentExecutor = new ForkJoinPool(4) {
+            @Override
+            public void execute(Runnable task) {
+                segmentTasks.incrementAndGet();
+                super.execute(task);
+            }
+        };
+        try (FileChannel channel = FileChannel.open(cdocFile, StandardOpenOption.READ)) {
+            Envelope.decrypt(channel, DecryptionKeyMaterial.fromKeyPair(bobKeyPair), channelOutDir, null, null,
+                new ExtractOptions().withExecutor(segmentExecutor));
+        } finally {
+            segmentExecutor.shutdown();
+        }
+        assertArrayEquals(payloadData, Files.readAllBytes(channelOutDir.resolve(payloadFile.getName())));
+        assertTrue(segmentTasks.get() > 0);
+
+        // corrupt last segment tag, already extracted files must be removed
+        cdocBytes[cdocBytes.length - 1] ^= 0x01;
+        Path corruptedOutDir = tempDir.resolve("corrupted");
+        Files.createDirectories(corruptedOutDir);
+        var ex = assertThrows(IOException.class, () -> Envelope.decrypt(new ByteArrayInputStream(cdocBytes),
+            DecryptionKeyMaterial.fromKeyPair(bobKeyPair), corruptedOutDir, null));
+        assertInstanceOf(AEADBadTagException.class, ex.getCause());
+        assertEquals(0, Objects.requireNonNull(corruptedOutDir.toFile().listFiles()).length);
+    }
+
+    @Test
+    void testParallelRecipients(@TempDir Path tempDir) throws Exception {
+        List<KeyPair> keyPairs = new LinkedList<>();
+        List<EncryptionKeyMaterial> recipientKeys = new LinkedList<>();
+        for (int i = 0; i < 16; i++) {
+            KeyPair keyPair = createKeyPair();
+            keyPairs.add(keyPair);
+            recipientKeys.add(EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(), bobKeyLabelParams));
+        }
+        File payloadFile = tempDir.resolve("payload.txt").toFile();
+        Files.writeString(payloadFile.toPath(), "payload");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Envelope envelope = Envelope.prepare(recipientKeys, null,
+                new PayloadOptions().withParallelRecipients(true).withExecutor(executor));
+            ByteArrayOutputStream dst = new ByteArrayOutputStream();
+            envelope.encrypt(List.of(payloadFile), dst);
+            byte[] cdocBytes = dst.toByteArray();
+
+            // header keeps recipients order
+            List<Recipient> recipients = Envelope.parseHeader(new ByteArrayInputStream(cdocBytes));
+            assertEquals(keyPairs.size(), recipients.size());
+            for (int i = 0; i < keyPairs.size(); i++) {
+                assertEquals(keyPairs.get(i).getPublic(), ((EccRecipient) recipients.get(i)).getRecipientPubKey());
+            }
+
+            Path outDir = Files.createDirectories(tempDir.resolve("out"));
+            List<String> extracted = Envelope.decrypt(new ByteArrayInputStream(cdocBytes),
+                DecryptionKeyMaterial.fromKeyPair(keyPairs.get(keyPairs.size() - 1)), outDir, null);
+            assertEquals(List.of(payloadFile.getName()), extracted);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFindRecipientAmongMixedRecipients(@TempDir Path tempDir) throws Exception {
+        List<KeyPair> keyPairs = new LinkedList<>();
+        for (int i = 0; i < 8; i++) {
+            keyPairs.add(createKeyPair());
+        }
+        KeyPairGenerator generator = getKeyPairRsaInstance();
+        generator.initialize(2048);
+        keyPairs.add(generator.generateKeyPair());
+
+        String password = "myPlainTextPassword";
+        String passwordLabel = "testFindRecipientAmongMixedRecipients";
+        List<EncryptionKeyMaterial> recipientKeys = new LinkedList<>();
+        recipientKeys.add(EncryptionKeyMaterial.fromPassword(password.toCharArray(), passwordLabel));
+        for (KeyPair keyPair : keyPairs) {
+            recipientKeys.add(EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(), bobKeyLabelParams));
+        }
+
+        File payloadFile = tempDir.resolve("payload.txt").toFile();
+        Files.writeString(payloadFile.toPath(), "payload");
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        Envelope.prepare(recipientKeys, null).encrypt(List.of(payloadFile), dst);
+        byte[] cdocBytes = dst.toByteArray();
+
+        List<DecryptionKeyMaterial> decryptionKeys = new LinkedList<>();
+        decryptionKeys.add(DecryptionKeyMaterial.fromKeyPair(keyPairs.get(0)));
+        decryptionKeys.add(DecryptionKeyMaterial.fromKeyPair(keyPairs.get(7)));
+        decryptionKeys.add(DecryptionKeyMaterial.fromKeyPair(keyPairs.get(8)));
+        decryptionKeys.add(DecryptionKeyMaterial.fromPassword(password.toCharArray(), passwordLabel));
+        for (DecryptionKeyMaterial decryptionKey : decryptionKeys) {
+            Path outDir = Files.createTempDirectory(tempDir, "out");
+            assertEquals(List.of(payloadFile.getName()),
+                Envelope.decrypt(new ByteArrayInputStream(cdocBytes), decryptionKey, outDir, null));
+        }
+
+        Path outDir = Files.createTempDirectory(tempDir, "out");
+        DecryptionKeyMaterial otherKey = DecryptionKeyMaterial.fromKeyPair(createKeyPair());
+        assertThrows(CDocParseException.class,
+            () -> Envelope.decrypt(new ByteArrayInputStream(cdocBytes), otherKey, outDir, null));
+    }
+
+    @Test
+    void testZstdPayloadContainer(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        File payloadFile = tempDir.resolve("payload.bin").toFile();
+        byte[] payloadData = new byte[200 * 1024];
+        new Random().nextBytes(payloadData);
+        Files.write(payloadFile.toPath(), payloadData);
+
+        Envelope envelope = Envelope.prepare(
+            List.of(EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(), bobKeyLabelParams)),
+            null,
+            new PayloadOptions().withCompressionMethod(PayloadCompressionMethod.ZSTD)
+        );
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        envelope.encrypt(List.of(payloadFile), dst);
+        byte[] cdocBytes = dst.toByteArray();
+
+        Header header = Envelope.deserializeFBSHeader(
+            Envelope.readFBSHeader(new ByteArrayInputStream(cdocBytes)));
+        assertEquals(PayloadCompressionMethod.ZSTD, header.payloadCompressionMethod());
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        List<String> extracted = Envelope.decrypt(new ByteArrayInputStream(cdocBytes),
+            DecryptionKeyMaterial.fromKeyPair(bobKeyPair), outDir, null);
+
+        assertEquals(List.of(payloadFile.getName()), extracted);
+        assertArrayEquals(payloadData, Files.readAllBytes(outDir.resolve(payloadFile.getName())));
+
+        assertThrows(IllegalArgumentException.class, () -> Envelope.prepare(List.of(), null,
+            new PayloadOptions()
+                .withSegmentedEncryption(true)
+                .withEntryIndex(true)
+                .withCompressionMethod(PayloadCompressionMethod.LZ4)));
+    }
+
+    @Test
+    void testPayloadEntriesContainer(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        byte[] knownSizeData = new byte[300 * 1024];
+        new Random().nextBytes(knownSizeData);
+        byte[] unknownSizeData = new byte[1000];
+        new Random().nextBytes(unknownSizeData);
+
+        Envelope envelope = Envelope.prepare(
+            List.of(EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(), bobKeyLabelParams)),
+            null,
+            new PayloadOptions().withCompressionPolicy(CompressionPolicy.auto())
+        );
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        envelope.encryptEntries(List.of(
+            PayloadEntry.of("known.bin", knownSizeData.length, new ByteArrayInputStream(knownSizeData)),
+            PayloadEntry.of("unknown.txt", () -> new ByteArrayInputStream(unknownSizeData))
+        ), dst);
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        List<String> extracted = Envelope.decrypt(new ByteArrayInputStream(dst.toByteArray()),
+            DecryptionKeyMaterial.fromKeyPair(bobKeyPair), outDir, null);
+
+        assertEquals(List.of("known.bin", "unknown.txt"), extracted);
+        assertArrayEquals(knownSizeData, Files.readAllBytes(outDir.resolve("known.bin")));
+        assertArrayEquals(unknownSizeData, Files.readAllBytes(outDir.resolve("unknown.txt")));
+    }
+
+    @Test
+    void testDecryptToPublisher() throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        byte[] payloadData = new byte[300 * 1024];
+        new Random().nextBytes(payloadData);
+
+        Envelope envelope = Envelope.prepare(
+            List.of(EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(), bobKeyLabelParams)),
+            null
+        );
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        envelope.encryptEntries(List.of(
+            PayloadEntry.of("payload.bin", payloadData.length, new ByteArrayInputStream(payloadData))), dst);
+        byte[] cdocBytes = dst.toByteArray();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CollectingSubscriber subscriber = new CollectingSubscriber();
+            Envelope.decryptToPublisher(new ByteArrayInputStream(cdocBytes),
+                DecryptionKeyMaterial.fromKeyPair(bobKeyPair), null, executor).subscribe(subscriber);
+
+            subscriber.result.get(30, TimeUnit.SECONDS);
+            assertEquals(List.of("payload.bin"), subscriber.entryNames);
+            assertArrayEquals(payloadData, subscriber.data.toByteArray());
+
+            // last 16 bytes are Poly1305 MAC, corrupt that
+            cdocBytes[cdocBytes.length - 1] ^= (byte) 0xff;
+            CollectingSubscriber macSubscriber = new CollectingSubscriber();
+            Envelope.decryptToPublisher(new ByteArrayInputStream(cdocBytes),
+                DecryptionKeyMaterial.fromKeyPair(bobKeyPair), null, executor).subscribe(macSubscriber);
+
+            ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> macSubscriber.result.get(30, TimeUnit.SECONDS));
+            assertInstanceOf(AEADBadTagException.class, ex.getCause().getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCancelDecryptToPublisher() throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        byte[] payloadData = new byte[8 * 1024 * 1024];
+        new Random().nextBytes(payloadData);
+
+        Envelope envelope = Envelope.prepare(
+            List.of(EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(), bobKeyLabelParams)),
+            null
+        );
+        ByteArrayOutputStream dst = new ByteArrayOutputStream();
+        envelope.encryptEntries(List.of(
+            PayloadEntry.of("payload.bin", payloadData.length, new ByteArrayInputStream(payloadData))), dst);
+        byte[] cdocBytes = dst.toByteArray();
+
+        CountingInputStream cdocIs = new CountingInputStream(new ByteArrayInputStream(cdocBytes));
+        List<String> signals = new LinkedList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Envelope.decryptToPublisher(cdocIs, DecryptionKeyMaterial.fromKeyPair(bobKeyPair), null, executor)
+                .subscribe(new Flow.Subscriber<>() {
+                    private Flow.Subscription subscription;
+
+                    @Override
+                    public void onSubscribe(Flow.Subscription s) {
+                        subscription = s;
+                        s.request(1);
+                    }
+
+                    @Override
+                    public void onNext(DecryptedItem item) {
+                        signals.add("onNext");
+                        subscription.cancel();
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        signals.add("onError");
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        signals.add("onComplete");
+                    }
+                });
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // rest of the payload was not decrypted after cancel
+        assertEquals(List.of("onNext"), signals);
+        assertTrue(cdocIs.getByteCount() < cdocBytes.length / 4, "Read " + cdocIs.getByteCount() + "B");
+    }
+
+    /** Requests one item at the time and collects entry names and data */
+    private static class CollectingSubscriber implements Flow.Subscriber<DecryptedItem> {
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final List<String> entryNames = new LinkedList<>();
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            this.subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(DecryptedItem item) {
+            if (item.isEntryHeader()) {
+                entryNames.add(item.entry().getName());
+            } else {
+                byte[] chunk = new byte[item.data().remaining()];
+                item.data().get(chunk);
+                data.writeBytes(chunk);
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(null);
+        }
+    }
+
+    @Test
+    void testDecryptMappedFileChannel(@TempDir Path tempDir) throws Exception {
+        KeyPair bobKeyPair = createKeyPair();
+        File payloadFile = tempDir.resolve("payload.bin").toFile();
+        byte[] payloadData = new byte[300 * 1024];
+        new Random().nextBytes(payloadData);
+        Files.write(payloadFile.toPath(), payloadData);
+
+        Envelope envelope = Envelope.prepare(
+            List.of(EncryptionKeyMaterial.fromPublicKey(bobKeyPair.getPublic(), bobKeyLabelParams)),
+            null
+        );
+        Path cdocFile = tempDir.resolve("mapped.cdoc");
+        try (OutputStream os = Files.newOutputStream(cdocFile)) {
+            envelope.encrypt(List.of(payloadFile), os);
+        }
+
+        ExtractOptions mapping = new ExtractOptions().withMemoryMapping(true);
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        try (FileChannel channel = FileChannel.open(cdocFile, StandardOpenOption.READ)) {
+            List<String> extracted = Envelope.decrypt(channel, DecryptionKeyMaterial.fromKeyPair(bobKeyPair),
+                outDir, null, null, mapping);
+            assertEquals(List.of(payloadFile.getName()), extracted);
+        }
+        assertArrayEquals(payloadData, Files.readAllBytes(outDir.resolve(payloadFile.getName())));
+
+        // corrupt Poly1305 MAC, extracted files must be removed
+        try (FileChannel channel = FileChannel.open(cdocFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(16), channel.size() - 16);
+        }
+        Path corruptedOutDir = Files.createDirectories(tempDir.resolve("corrupted"));
+        try (FileChannel channel = FileChannel.open(cdocFile, StandardOpenOption.READ)) {
+            var ex = assertThrows(IOException.class, () -> Envelope.decrypt(channel,
+                DecryptionKeyMaterial.fromKeyPair(bobKeyPair), corruptedOutDir, List.of(), null, mapping));
+            assertInstanceOf(AEADBadTagException.class, ex.getCause());
+        }
+        assertEquals(0, Objects.requireNonNull(corruptedOutDir.toFile().listFiles()).length);
+    }
+
     /**
      * This test fails under Windows because creating file with this invalid file name fails first
      * @param tempDir
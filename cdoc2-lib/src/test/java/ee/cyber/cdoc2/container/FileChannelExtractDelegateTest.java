@@ -0,0 +1,127 @@
+package ee.cyber.cdoc2.container;
+
+import ee.cyber.cdoc2.TestLifecycleLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+@Isolated
+class FileChannelExtractDelegateTest implements TestLifecycleLogger {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testExtractWithPreallocationAndDeferredFsync() throws Exception {
+        byte[] bigData = randomBytes(3 * ExtractOptions.MIN_BUFFER_SIZE + 123);
+        byte[] smallData = randomBytes(10);
+        byte[] archive = createArchive(List.of(
+            createFile("big.bin", bigData),
+            createFile("small.bin", smallData),
+            createFile("empty.bin", new byte[0])));
+
+        ExtractOptions options = new ExtractOptions()
+            .withPreallocation(true)
+            .withFsyncPolicy(ExtractOptions.FsyncPolicy.DEFERRED)
+            .withBufferSize(ExtractOptions.MIN_BUFFER_SIZE);
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        List<ArchiveEntry> extracted;
+        try (TarDeflate tarDeflate = new TarDeflate(new ByteArrayInputStream(archive))) {
+            extracted = tarDeflate.process(new FileChannelExtractDelegate(outDir, null, options));
+        }
+
+        assertEquals(List.of("big.bin", "small.bin", "empty.bin"), extracted.stream()
+            .map(ArchiveEntry::getName)
+            .toList());
+        assertArrayEquals(bigData, Files.readAllBytes(outDir.resolve("big.bin")));
+        assertArrayEquals(smallData, Files.readAllBytes(outDir.resolve("small.bin")));
+        assertEquals(0, Files.size(outDir.resolve("empty.bin")));
+    }
+
+    @Test
+    void testExtractSelectedFilesWithPerFileFsync() throws Exception {
+        byte[] data = randomBytes(1000);
+        byte[] archive = createArchive(List.of(
+            createFile("first.bin", randomBytes(100)),
+            createFile("second.bin", data)));
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        try (TarDeflate tarDeflate = new TarDeflate(new ByteArrayInputStream(archive))) {
+            List<ArchiveEntry> extracted = tarDeflate.process(new FileChannelExtractDelegate(outDir,
+                List.of("second.bin"), new ExtractOptions().withFsyncPolicy(ExtractOptions.FsyncPolicy.PER_FILE)));
+            assertEquals(1, extracted.size());
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(outDir.resolve("second.bin")));
+        assertFalse(Files.exists(outDir.resolve("first.bin")));
+        assertEquals(1, Objects.requireNonNull(outDir.toFile().list()).length);
+    }
+
+    @Test
+    void testExtractSmallEntryBeforeLargeEntry() throws Exception {
+        // buffer is sized for the first (small) entry and grown for the next
+        byte[] smallData = randomBytes(10);
+        byte[] bigData = randomBytes(5 * ExtractOptions.MIN_BUFFER_SIZE + 7);
+        byte[] archive = createArchive(List.of(
+            createFile("small.bin", smallData),
+            createFile("big.bin", bigData)));
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        try (TarDeflate tarDeflate = new TarDeflate(new ByteArrayInputStream(archive))) {
+            tarDeflate.process(new FileChannelExtractDelegate(outDir, null,
+                new ExtractOptions().withBufferSize(2 * ExtractOptions.MIN_BUFFER_SIZE)));
+        }
+
+        assertArrayEquals(smallData, Files.readAllBytes(outDir.resolve("small.bin")));
+        assertArrayEquals(bigData, Files.readAllBytes(outDir.resolve("big.bin")));
+    }
+
+    @Test
+    void testInvalidOptions() {
+        ExtractOptions options = new ExtractOptions();
+        assertThrows(IllegalArgumentException.class,
+            () -> options.withBufferSize(ExtractOptions.MIN_BUFFER_SIZE - 1));
+        assertThrows(IllegalArgumentException.class, () -> options.withStreamBufferSize(Tar.MAX_BUFFER_SIZE + 1));
+        assertThrows(NullPointerException.class, () -> options.withFsyncPolicy(null));
+        Path notDir = tempDir.resolve("notExisting");
+        assertThrows(IllegalArgumentException.class, () -> new FileChannelExtractDelegate(notDir, null));
+    }
+
+    private byte[] createArchive(List<File> files) throws IOException {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        Tar.archiveFiles(dest, files);
+        return dest.toByteArray();
+    }
+
+    private File createFile(String name, byte[] data) throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("in"));
+        Path file = dir.resolve(name);
+        Files.write(file, data);
+        return file.toFile();
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte[] data = new byte[len];
+        new Random().nextBytes(data);
+        return data;
+    }
+}
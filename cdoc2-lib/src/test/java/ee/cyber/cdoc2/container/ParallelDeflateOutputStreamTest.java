@@ -0,0 +1,128 @@
+package ee.cyber.cdoc2.container;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class ParallelDeflateOutputStreamTest {
+
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    private static ExecutorService executor;
+
+    @BeforeAll
+    static void init() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testOutputIsZlibStream() throws IOException {
+        Random random = new Random();
+        for (int size : List.of(0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, 10 * BLOCK_SIZE + 123)) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            assertArrayEquals(data, inflate(deflate(data, 2)));
+        }
+    }
+
+    @Test
+    void testCompressibleDataUsesDictionary() throws IOException {
+        byte[] data = "compressible text ".repeat(50_000).getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = deflate(data, 4);
+        assertArrayEquals(data, inflate(compressed));
+        // with preset dictionary, blocks continue previous block matches
+        assertTrue(compressed.length < data.length / 100);
+    }
+
+    @Test
+    void testFlushAndLevelChange() throws IOException {
+        byte[] text = "compressible text ".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[3 * BLOCK_SIZE];
+        new Random().nextBytes(random);
+
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        try (ParallelDeflateOutputStream os = new ParallelDeflateOutputStream(dest, executor, BLOCK_SIZE, 3)) {
+            os.write(text);
+            os.flush();
+            os.setLevel(Deflater.NO_COMPRESSION);
+            os.write(random);
+            os.setLevel(Deflater.BEST_COMPRESSION);
+            os.write(text[0]);
+            os.write(text, 1, text.length - 1);
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(text);
+        expected.write(random);
+        expected.write(text);
+        assertArrayEquals(expected.toByteArray(), inflate(dest.toByteArray()));
+    }
+
+    @Test
+    void testArchiveFilesParallel(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[5 * ParallelDeflateOutputStream.DEFAULT_BLOCK_SIZE + 17];
+        new Random().nextBytes(data);
+        File file = tempDir.resolve("data.bin").toFile();
+        Files.write(file.toPath(), data);
+
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        Tar.archiveFilesParallel(dest, List.of(file), Tar.DEFAULT_BUFFER_SIZE, CompressionPolicy.auto(), executor);
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(dest.toByteArray()))) {
+            tar.extractToDir(outDir);
+        }
+        assertArrayEquals(data, Files.readAllBytes(outDir.resolve("data.bin")));
+    }
+
+    @Test
+    void testWriteAfterClose() throws IOException {
+        ParallelDeflateOutputStream os = new ParallelDeflateOutputStream(new ByteArrayOutputStream(), executor);
+        os.close();
+        os.close();
+        assertThrows(IOException.class, () -> os.write(1));
+        assertThrows(IllegalArgumentException.class,
+            () -> new ParallelDeflateOutputStream(new ByteArrayOutputStream(), executor, 1024, 1));
+    }
+
+    private static byte[] deflate(byte[] data, int parallelism) throws IOException {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        try (ParallelDeflateOutputStream os = new ParallelDeflateOutputStream(dest, executor, BLOCK_SIZE,
+            parallelism)) {
+            os.write(data);
+        }
+        return dest.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] zlib) throws IOException {
+        try (InflaterInputStream is = new InflaterInputStream(new ByteArrayInputStream(zlib))) {
+            return is.readAllBytes();
+        }
+    }
+}
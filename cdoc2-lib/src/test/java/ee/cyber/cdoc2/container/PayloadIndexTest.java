@@ -0,0 +1,289 @@
+package ee.cyber.cdoc2.container;
+
+import ee.cyber.cdoc2.TestLifecycleLogger;
+import ee.cyber.cdoc2.crypto.SegmentedChaChaCipher;
+import ee.cyber.cdoc2.crypto.keymaterial.DecryptionKeyMaterial;
+import ee.cyber.cdoc2.crypto.keymaterial.EncryptionKeyMaterial;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import javax.crypto.AEADBadTagException;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.compressors.deflate.DeflateParameters;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import static ee.cyber.cdoc2.KeyUtil.createKeyPair;
+import static ee.cyber.cdoc2.container.EnvelopeTestUtils.getPublicKeyLabelParams;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+@Isolated
+class PayloadIndexTest implements TestLifecycleLogger {
+
+    private static final int SEGMENT_SIZE = SegmentedChaChaCipher.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    private File bigFile;
+    private File smallFile;
+    private File lastFile;
+
+    @BeforeEach
+    void createPayloadFiles() throws IOException {
+        Random random = new Random();
+        bigFile = createFile("big.bin", 512 * 1024, random);
+        smallFile = createFile("small.txt", 100, random);
+        lastFile = createFile("last.bin", 3 * SEGMENT_SIZE, random);
+    }
+
+    @Test
+    void testEntriesCanBeDecompressedFromIndexOffset() throws Exception {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        PayloadIndex index = Tar.archiveFilesWithIndex(dest, List.of(bigFile, smallFile, lastFile),
+            Tar.DEFAULT_BUFFER_SIZE, CompressionPolicy.defaultPolicy());
+        byte[] payload = dest.toByteArray();
+
+        assertEquals(3, index.getEntries().size());
+
+        // index is at the end of payload
+        byte[] indexBytes = index.serialize();
+        assertEquals(index.getCompressedLength() + indexBytes.length + PayloadIndex.INDEX_LEN_BYTES, payload.length);
+        PayloadIndex parsed = PayloadIndex.deserialize(Arrays.copyOfRange(payload,
+            (int) index.getCompressedLength(), payload.length - PayloadIndex.INDEX_LEN_BYTES),
+            index.getCompressedLength());
+        assertEquals(index.getEntries(), parsed.getEntries());
+
+        // whole compressed tar is still normal zlib compressed tar
+        List<String> names = TarDeflate.listFiles(new ByteArrayInputStream(payload));
+        assertEquals(List.of(bigFile.getName(), smallFile.getName(), lastFile.getName()), names);
+
+        DeflateParameters rawDeflate = new DeflateParameters();
+        rawDeflate.setWithZlibHeader(false);
+        for (File file : List.of(bigFile, smallFile, lastFile)) {
+            PayloadIndex.Entry entry = index.find(file.getName());
+            assertEquals(file.length(), entry.size());
+
+            byte[] entryBytes = Arrays.copyOfRange(payload, (int) entry.compressedOffset(),
+                (int) index.getCompressedEndOffset(entry));
+
+            Path outDir = Files.createDirectories(tempDir.resolve("out-" + file.getName()));
+            try (TarDeflate tarDeflate = new TarDeflate(new ByteArrayInputStream(entryBytes), rawDeflate)) {
+                List<ArchiveEntry> processed = tarDeflate.processEntry(file.getName(),
+                    new ExtractDelegate(outDir, null), DiskUsageGuard.forDir(outDir.toFile()));
+                assertEquals(1, processed.size());
+            }
+            assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(outDir.resolve(file.getName())));
+        }
+    }
+
+    @Test
+    void testInvalidIndex() {
+        PayloadIndex index = new PayloadIndex(List.of(
+            new PayloadIndex.Entry("a", 10, 1),
+            new PayloadIndex.Entry("b", 5, 1)), 20);
+        byte[] indexBytes = index.serialize();
+
+        assertThrows(CDocParseException.class, () -> PayloadIndex.deserialize(indexBytes, 20));
+        assertThrows(CDocParseException.class,
+            () -> PayloadIndex.deserialize(new PayloadIndex(List.of(), 20).serialize(), 19));
+    }
+
+    @Test
+    void testDuplicateEntryNames() {
+        List<PayloadIndex.Entry> duplicates = List.of(
+            new PayloadIndex.Entry("a", 0, 1),
+            new PayloadIndex.Entry("b", 5, 1),
+            new PayloadIndex.Entry("a", 10, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PayloadIndex(duplicates, 20));
+
+        // index with duplicate names written by other implementation
+        PayloadIndex index = new PayloadIndex(List.of(
+            new PayloadIndex.Entry("file1.txt", 0, 1),
+            new PayloadIndex.Entry("file2.txt", 5, 1),
+            new PayloadIndex.Entry("file3.txt", 10, 1)), 20);
+        byte[] indexBytes = index.serialize();
+        int nameAt = indexOf(indexBytes, "file3.txt".getBytes(StandardCharsets.UTF_8));
+        indexBytes[nameAt + "file".length()] = '1';
+
+        assertThrows(CDocParseException.class, () -> PayloadIndex.deserialize(indexBytes, 20));
+    }
+
+    @Test
+    void testExtractSingleFileFromIndexedContainer() throws Exception {
+        KeyPair keyPair = createKeyPair();
+        File cdocFile = createIndexedContainer(keyPair);
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        CountingChannel channel = new CountingChannel(Files.newByteChannel(cdocFile.toPath()));
+        try (channel) {
+            List<String> extracted = Envelope.decrypt(channel, DecryptionKeyMaterial.fromKeyPair(keyPair), outDir,
+                List.of(smallFile.getName(), "notInContainer"), null);
+            assertEquals(List.of(smallFile.getName()), extracted);
+        }
+
+        assertArrayEquals(Files.readAllBytes(smallFile.toPath()), Files.readAllBytes(outDir.resolve("small.txt")));
+        assertEquals(1, Objects.requireNonNull(outDir.toFile().list()).length);
+        // big file segments were not read
+        assertTrue(channel.bytesRead < cdocFile.length() / 2, "Read " + channel.bytesRead + "B");
+
+        // indexed container can still be decrypted sequentially
+        Path allOutDir = Files.createDirectories(tempDir.resolve("all"));
+        try (var is = Files.newInputStream(cdocFile.toPath())) {
+            List<String> all = Envelope.decrypt(is, DecryptionKeyMaterial.fromKeyPair(keyPair), allOutDir, null);
+            assertEquals(List.of(bigFile.getName(), smallFile.getName(), lastFile.getName()), all);
+        }
+        assertArrayEquals(Files.readAllBytes(lastFile.toPath()), Files.readAllBytes(allOutDir.resolve("last.bin")));
+    }
+
+    @Test
+    void testTamperedSegmentOnlyAffectsEntriesUsingIt() throws Exception {
+        KeyPair keyPair = createKeyPair();
+        File cdocFile = createIndexedContainer(keyPair);
+
+        // corrupt byte in the middle of big file (first entry)
+        byte[] cdocBytes = Files.readAllBytes(cdocFile.toPath());
+        cdocBytes[cdocBytes.length / 4] ^= 0x01;
+        Files.write(cdocFile.toPath(), cdocBytes);
+
+        Path outDir = Files.createDirectories(tempDir.resolve("out"));
+        try (SeekableByteChannel channel = Files.newByteChannel(cdocFile.toPath())) {
+            assertEquals(List.of(smallFile.getName()), Envelope.decrypt(channel,
+                DecryptionKeyMaterial.fromKeyPair(keyPair), outDir, List.of(smallFile.getName()), null));
+        }
+
+        Path failedOutDir = Files.createDirectories(tempDir.resolve("failed"));
+        try (SeekableByteChannel channel = Files.newByteChannel(cdocFile.toPath())) {
+            IOException ex = assertThrows(IOException.class, () -> Envelope.decrypt(channel,
+                DecryptionKeyMaterial.fromKeyPair(keyPair), failedOutDir,
+                List.of(smallFile.getName(), bigFile.getName()), null));
+            assertInstanceOf(AEADBadTagException.class, ex.getCause());
+        }
+        // also previously extracted small file was deleted
+        assertEquals(0, Objects.requireNonNull(failedOutDir.toFile().list()).length);
+    }
+
+    @Test
+    void testEntryIndexRequiresSegmentedPayload() throws Exception {
+        KeyPair keyPair = createKeyPair();
+        PayloadOptions options = new PayloadOptions().withEntryIndex(true);
+        List<EncryptionKeyMaterial> recipients = List.of(
+            EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(), getPublicKeyLabelParams()));
+
+        assertThrows(IllegalArgumentException.class, () -> Envelope.prepare(recipients, null, options));
+    }
+
+    private File createIndexedContainer(KeyPair keyPair) throws Exception {
+        Envelope envelope = Envelope.prepare(
+            List.of(EncryptionKeyMaterial.fromPublicKey(keyPair.getPublic(), getPublicKeyLabelParams())),
+            null,
+            new PayloadOptions()
+                .withSegmentedEncryption(true)
+                .withSegmentSize(SEGMENT_SIZE)
+                .withEntryIndex(true)
+        );
+
+        File cdocFile = tempDir.resolve("indexed.cdoc").toFile();
+        try (OutputStream os = Files.newOutputStream(cdocFile.toPath())) {
+            envelope.encrypt(List.of(bigFile, smallFile, lastFile), os);
+        }
+        try (var is = Files.newInputStream(cdocFile.toPath())) {
+            assertTrue(Envelope.deserializeFBSHeader(Envelope.readFBSHeader(is)).payloadEntryIndex());
+        }
+        return cdocFile;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Pattern not found");
+    }
+
+    private File createFile(String name, int size, Random random) throws IOException {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        Path file = tempDir.resolve(name);
+        Files.write(file, data);
+        return file.toFile();
+    }
+
+    /** Counts bytes read from channel */
+    private static final class CountingChannel implements SeekableByteChannel {
+        private final SeekableByteChannel delegate;
+        private long bytesRead;
+
+        CountingChannel(SeekableByteChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int read = delegate.read(dst);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -6,9 +6,11 @@ import java.nio.file.*;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import ee.cyber.cdoc2.CDocConfiguration;
 import ee.cyber.cdoc2.TestLifecycleLogger;
+import ee.cyber.cdoc2.fbs.header.PayloadCompressionMethod;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -114,8 +116,8 @@ class TarDeflateTest implements TestLifecycleLogger {
         String tarEntryName = "payload-" + UUID.randomUUID();
 
         try (FileOutputStream fos = new FileOutputStream(outFile.toFile())) {
-            ByteArrayInputStream bos = new ByteArrayInputStream(PAYLOAD.getBytes(UTF_8));
-            Tar.archiveData(fos, bos, tarEntryName);
+            byte[] payload = PAYLOAD.getBytes(UTF_8);
+            Tar.archiveData(fos, new ByteArrayInputStream(payload), tarEntryName, payload.length);
         }
 
         try (FileInputStream is = new FileInputStream(outFile.toFile())) {
@@ -132,6 +134,26 @@ class TarDeflateTest implements TestLifecycleLogger {
         }
     }
 
+    @Test
+    void testArchiveDataNotBufferedStream() throws IOException {
+        byte[] first = "first".getBytes(UTF_8);
+        byte[] second = "second".getBytes(UTF_8);
+        // available() reports only the first stream
+        InputStream input = new SequenceInputStream(new ByteArrayInputStream(first), new ByteArrayInputStream(second));
+
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        Tar.archiveData(dest, input, "A", first.length + second.length);
+
+        ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+        Tar.extractTarEntry(new ByteArrayInputStream(dest.toByteArray()), extracted, "A");
+        assertEquals("firstsecond", extracted.toString(UTF_8));
+
+        assertThrows(IOException.class, () -> Tar.archiveData(new ByteArrayOutputStream(),
+            new ByteArrayInputStream(first), "A", first.length + 1));
+        assertThrows(IOException.class, () -> Tar.archiveData(new ByteArrayOutputStream(),
+            new ByteArrayInputStream(first), "A", first.length - 1));
+    }
+
     /**
      * Disable on Windows, because deleting the temp file by cdoc2 and junit concurrently fails
      * @param tempDir
@@ -318,7 +340,7 @@ class TarDeflateTest implements TestLifecycleLogger {
         log.debug("zLib size {}", dest.size()); //9
 
         ByteArrayOutputStream destTarZ = new ByteArrayOutputStream();
-        Tar.archiveData(destTarZ, new ByteArrayInputStream(data), "A");
+        Tar.archiveData(destTarZ, new ByteArrayInputStream(data), "A", data.length);
 
         log.debug("TarZ size {}", destTarZ.size()); //76
 
@@ -352,7 +374,7 @@ class TarDeflateTest implements TestLifecycleLogger {
 
         log.debug("longFilename: {}", longFileName);
 
-        Tar.archiveData(destTarZ, new ByteArrayInputStream(data), longFileName);
+        Tar.archiveData(destTarZ, new ByteArrayInputStream(data), longFileName, data.length);
 
 
         ByteArrayInputStream is = new ByteArrayInputStream(destTarZ.toByteArray());
@@ -398,6 +420,171 @@ class TarDeflateTest implements TestLifecycleLogger {
         assertTrue(closeWasCalled[0]);
     }
 
+    @Test
+    void testArchiveAndExtractWithBufferSizes(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[3 * Tar.DEFAULT_BUFFER_SIZE + 17];
+        new Random().nextBytes(data);
+        File file = tempDir.resolve("data.bin").toFile();
+        Files.write(file.toPath(), data);
+
+        for (int writeBufferSize : List.of(Tar.MIN_BUFFER_SIZE, Tar.MAX_BUFFER_SIZE)) {
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
+            Tar.archiveFiles(dest, List.of(file), writeBufferSize);
+
+            for (int readBufferSize : List.of(Tar.MIN_BUFFER_SIZE, Tar.MAX_BUFFER_SIZE)) {
+                Path outDir = Files.createDirectories(tempDir.resolve("out" + writeBufferSize + "_" + readBufferSize));
+                try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(dest.toByteArray()),
+                    new DeflateParameters(), readBufferSize)) {
+                    tar.extractToDir(outDir);
+                }
+                assertArrayEquals(data, Files.readAllBytes(outDir.resolve("data.bin")));
+            }
+        }
+    }
+
+    @Test
+    void testBufferSizeProperty() {
+        try {
+            System.setProperty(CDocConfiguration.BUFFER_SIZE_PROPERTY, String.valueOf(Tar.MIN_BUFFER_SIZE));
+            assertEquals(Tar.MIN_BUFFER_SIZE, Tar.getBufferSize());
+
+            System.setProperty(CDocConfiguration.BUFFER_SIZE_PROPERTY, String.valueOf(Tar.MIN_BUFFER_SIZE - 1));
+            assertEquals(Tar.DEFAULT_BUFFER_SIZE, Tar.getBufferSize());
+
+            System.setProperty(CDocConfiguration.BUFFER_SIZE_PROPERTY, "not a number");
+            assertEquals(Tar.DEFAULT_BUFFER_SIZE, Tar.getBufferSize());
+        } finally {
+            System.clearProperty(CDocConfiguration.BUFFER_SIZE_PROPERTY);
+        }
+    }
+
+    @Test
+    void testCompressionPolicies(@TempDir Path tempDir) throws IOException {
+        byte[] random = new byte[2 * CompressionPolicy.DEFAULT_PROBE_SIZE];
+        new Random().nextBytes(random);
+        byte[] text = "compressible text ".repeat(10_000).getBytes(UTF_8);
+        File randomFile = tempDir.resolve("random.bin").toFile();
+        File textFile = tempDir.resolve("text.txt").toFile();
+        Files.write(randomFile.toPath(), random);
+        Files.write(textFile.toPath(), text);
+
+        assertEquals(Deflater.NO_COMPRESSION, CompressionPolicy.auto().levelFor(random));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, CompressionPolicy.auto().levelFor(text));
+
+        Map<String, Integer> compressedSizes = new HashMap<>();
+        Map<String, CompressionPolicy> policies = Map.of(
+            "default", CompressionPolicy.defaultPolicy(),
+            "store", CompressionPolicy.store(),
+            "auto", CompressionPolicy.auto(),
+            "best", CompressionPolicy.level(Deflater.BEST_COMPRESSION)
+        );
+
+        for (Map.Entry<String, CompressionPolicy> policy : policies.entrySet()) {
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
+            Tar.archiveFiles(dest, List.of(randomFile, textFile), Tar.DEFAULT_BUFFER_SIZE, policy.getValue());
+            compressedSizes.put(policy.getKey(), dest.size());
+
+            Path outDir = Files.createDirectories(tempDir.resolve("out_" + policy.getKey()));
+            try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(dest.toByteArray()))) {
+                tar.extractToDir(outDir);
+            }
+            assertArrayEquals(random, Files.readAllBytes(outDir.resolve("random.bin")));
+            assertArrayEquals(text, Files.readAllBytes(outDir.resolve("text.txt")));
+        }
+
+        assertTrue(compressedSizes.get("store") > random.length + text.length);
+        assertTrue(compressedSizes.get("auto") < random.length + text.length / 10);
+    }
+
+    @Test
+    void testCompressionMethods(@TempDir Path tempDir) throws IOException {
+        byte[] random = new byte[3 * Tar.MIN_BUFFER_SIZE + 17];
+        new Random().nextBytes(random);
+        File randomFile = tempDir.resolve("random.bin").toFile();
+        Files.write(randomFile.toPath(), random);
+        File payloadFile = createAndWriteToFile(tempDir, "payload.txt", PAYLOAD);
+
+        for (byte method : List.of(PayloadCompressionMethod.ZLIB, PayloadCompressionMethod.ZSTD,
+            PayloadCompressionMethod.LZ4)) {
+
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
+            Tar.archiveFiles(dest, List.of(randomFile, payloadFile), method, Tar.MIN_BUFFER_SIZE,
+                CompressionPolicy.defaultPolicy());
+
+            Path outDir = Files.createDirectories(tempDir.resolve("out_" + PayloadCompressionMethod.name(method)));
+            try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(dest.toByteArray()), method,
+                Tar.MIN_BUFFER_SIZE)) {
+                tar.extractToDir(outDir);
+            }
+            assertArrayEquals(random, Files.readAllBytes(outDir.resolve("random.bin")));
+            assertEquals(PAYLOAD, Files.readString(outDir.resolve("payload.txt")));
+        }
+    }
+
+    @Test
+    void testArchiveEntries(@TempDir Path tempDir) throws IOException {
+        byte[] data = PAYLOAD.getBytes(UTF_8);
+
+        for (byte method : List.of(PayloadCompressionMethod.ZLIB, PayloadCompressionMethod.LZ4)) {
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
+            Tar.archiveEntries(dest, List.of(
+                    PayloadEntry.of("known.txt", data.length, new ByteArrayInputStream(data)),
+                    PayloadEntry.of("unknown.txt", () -> new ByteArrayInputStream(data))),
+                method, Tar.MIN_BUFFER_SIZE, CompressionPolicy.auto(), null);
+
+            Path outDir = Files.createDirectories(tempDir.resolve("out_" + PayloadCompressionMethod.name(method)));
+            try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(dest.toByteArray()), method,
+                Tar.MIN_BUFFER_SIZE)) {
+                tar.extractToDir(outDir);
+            }
+            assertEquals(PAYLOAD, Files.readString(outDir.resolve("known.txt")));
+            assertEquals(PAYLOAD, Files.readString(outDir.resolve("unknown.txt")));
+        }
+    }
+
+    @Test
+    void testArchiveEntriesWrongSize() {
+        byte[] data = PAYLOAD.getBytes(UTF_8);
+
+        for (long size : List.of(data.length - 1L, data.length + 1L)) {
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
+            assertThrows(IOException.class, () -> Tar.archiveEntries(dest,
+                List.of(PayloadEntry.of("payload.txt", size, new ByteArrayInputStream(data))),
+                PayloadCompressionMethod.ZLIB, Tar.DEFAULT_BUFFER_SIZE, CompressionPolicy.defaultPolicy(), null));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> Tar.archiveEntries(new ByteArrayOutputStream(),
+            List.of(PayloadEntry.of("a.txt", () -> new ByteArrayInputStream(data)),
+                PayloadEntry.of("a.txt", () -> new ByteArrayInputStream(data))),
+            PayloadCompressionMethod.ZLIB, Tar.DEFAULT_BUFFER_SIZE, CompressionPolicy.defaultPolicy(), null));
+    }
+
+    @DisabledOnOs(OS.WINDOWS)
+    @Test
+    void testZstdBomb(@TempDir Path tempDir) throws IOException {
+        File zerosFile = tempDir.resolve("zeros.bin").toFile();
+        Files.write(zerosFile.toPath(), new byte[1024 * 1024]);
+
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        Tar.archiveFiles(dest, List.of(zerosFile), PayloadCompressionMethod.ZSTD, Tar.DEFAULT_BUFFER_SIZE,
+            CompressionPolicy.defaultPolicy());
+
+        Path outDir = Files.createDirectories(tempDir.resolve("testZstdBomb"));
+        assertThrows(IllegalStateException.class, () -> {
+            try (TarDeflate tar = new TarDeflate(new ByteArrayInputStream(dest.toByteArray()),
+                PayloadCompressionMethod.ZSTD, Tar.DEFAULT_BUFFER_SIZE)) {
+                tar.extractToDir(outDir);
+            }
+        });
+    }
+
+    @Test
+    void testInvalidCompressionPolicy() {
+        assertThrows(IllegalArgumentException.class, () -> CompressionPolicy.level(Deflater.BEST_COMPRESSION + 1));
+        assertThrows(IllegalArgumentException.class, () -> CompressionPolicy.level(-2));
+        assertThrows(IllegalArgumentException.class, () -> CompressionPolicy.auto(0, Deflater.BEST_SPEED));
+    }
+
     private static File createAndWriteToFile(Path path, String fileName, String contents) throws IOException {
         File file = path.resolve(fileName).toFile();
         try (FileOutputStream fos = new FileOutputStream(file)) {
@@ -411,8 +598,8 @@ class TarDeflateTest implements TestLifecycleLogger {
         File outFile = path.resolve(tarFileName).toFile();
 
         try (FileOutputStream fos = new FileOutputStream(outFile)) {
-            ByteArrayInputStream bos = new ByteArrayInputStream(entryContents.getBytes(UTF_8));
-            Tar.archiveData(fos, bos, entryFileName);
+            byte[] contents = entryContents.getBytes(UTF_8);
+            Tar.archiveData(fos, new ByteArrayInputStream(contents), entryFileName, contents.length);
         }
         return outFile;
     }
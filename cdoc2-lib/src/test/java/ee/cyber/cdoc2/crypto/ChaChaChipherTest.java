@@ -9,6 +9,8 @@ import org.apache.commons.compress.compressors.deflate.DeflateParameters;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
 import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,16 +19,21 @@ import javax.crypto.*;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Random;
 import java.util.UUID;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ChaChaChipherTest {
@@ -101,8 +108,9 @@ class ChaChaChipherTest {
             CipherOutputStream cipherOutputStream = ChaChaCipher.initChaChaOutputStream(
                     encryptedTarGzBos, cek, additionalData)) {
 
-            Tar.archiveData(cipherOutputStream, new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8)),
-                    tarEntryName);
+            byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+            Tar.archiveData(cipherOutputStream, new ByteArrayInputStream(payloadBytes), tarEntryName,
+                    payloadBytes.length);
             encryptedTarGzBuf = ByteBuffer.wrap(encryptedTarGzBos.toByteArray());
         }
 
@@ -225,4 +233,63 @@ class ChaChaChipherTest {
         log.debug("Decrypted {}B in {} seconds", totalread, Duration.between(decryptStart, Instant.now()).toSeconds());
     }
 
+
+    @Test
+    void testMappedChaChaInputStream(@TempDir Path tempDir) throws IOException, GeneralSecurityException {
+        SecretKey cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+        byte[] additionalData = Envelope.getAdditionalData(new byte[0], new byte[0]);
+
+        // several chunks and partial last chunk
+        byte[] payload = new byte[2 * MappedChaChaInputStream.CHUNK_SIZE + 1234];
+        new Random().nextBytes(payload);
+        byte[] prefix = "not payload".getBytes(StandardCharsets.UTF_8);
+
+        Path file = tempDir.resolve("payload.bin");
+        try (OutputStream os = Files.newOutputStream(file)) {
+            os.write(prefix);
+            try (CipherOutputStream cos = ChaChaCipher.initChaChaOutputStream(os, cek, additionalData)) {
+                cos.write(payload);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream is = ChaChaCipher.initChaChaInputStream(channel, prefix.length, cek, additionalData)) {
+            assertArrayEquals(payload, is.readAllBytes());
+            assertEquals(0, channel.position());
+        }
+
+        // corrupt Poly1305 MAC
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(16), channel.size() - 16);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream is = ChaChaCipher.initChaChaInputStream(channel, prefix.length, cek, additionalData)) {
+            IOException ex = assertThrows(IOException.class, is::readAllBytes);
+            assertInstanceOf(AEADBadTagException.class, ex.getCause());
+        }
+    }
+
+    // mapped file can't be truncated on Windows
+    @DisabledOnOs(OS.WINDOWS)
+    @Test
+    void testMappedChaChaInputStreamTruncatedFile(@TempDir Path tempDir)
+        throws IOException, GeneralSecurityException {
+        SecretKey cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+        byte[] additionalData = Envelope.getAdditionalData(new byte[0], new byte[0]);
+
+        Path file = tempDir.resolve("payload.bin");
+        try (OutputStream os = Files.newOutputStream(file);
+             CipherOutputStream cos = ChaChaCipher.initChaChaOutputStream(os, cek, additionalData)) {
+            cos.write(new byte[3 * MappedChaChaInputStream.CHUNK_SIZE]);
+        }
+
+        // access to truncated mapped region is IOException, not InternalError
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             InputStream is = ChaChaCipher.initChaChaInputStream(channel, 0, cek, additionalData)) {
+            is.readNBytes(100);
+            channel.truncate(1000);
+            assertThrows(IOException.class, is::readAllBytes);
+        }
+    }
 }
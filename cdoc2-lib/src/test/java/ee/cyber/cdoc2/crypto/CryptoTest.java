@@ -13,7 +13,14 @@ import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.interfaces.ECPublicKey;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +43,32 @@ class CryptoTest {
         assertTrue(maxKeySize > 256);
     }
 
+    @Test
+    void testSecureRandomFromManyThreads() throws Exception {
+        assertSame(Crypto.getSecureRandom(), Crypto.getSecureRandom());
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> nonces = new ArrayList<>();
+            for (int i = 0; i < threads * 4; i++) {
+                nonces.add(executor.submit(() -> {
+                    byte[] nonce = new byte[ChaChaCipher.NONCE_LEN_BYTES];
+                    Crypto.getSecureRandom().nextBytes(nonce);
+                    return nonce;
+                }));
+            }
+
+            Set<String> unique = new HashSet<>();
+            for (Future<byte[]> nonce : nonces) {
+                unique.add(HexFormat.of().formatHex(nonce.get()));
+            }
+            assertEquals(nonces.size(), unique.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     void testHKDF() throws NoSuchAlgorithmException {
         byte[] fmk = Crypto.generateFileMasterKey();
@@ -124,6 +157,15 @@ class CryptoTest {
         assertEquals(Crypto.HHK_LEN_BYTES, hmac.length);
     }
 
+    @Test
+    void testHmacSha256ProviderReused() throws NoSuchAlgorithmException {
+        // provider is reused, but Mac instances holding keys are not
+        Mac mac = CryptoPrimitives.hmacSha256();
+        Mac otherMac = CryptoPrimitives.hmacSha256();
+        assertNotSame(mac, otherMac);
+        assertSame(mac.getProvider(), otherMac.getProvider());
+    }
+
     @Test
     void deriveKeyEncryptionKeyFromSharedSecret() {
         byte[] sharedSecret = new byte[32];
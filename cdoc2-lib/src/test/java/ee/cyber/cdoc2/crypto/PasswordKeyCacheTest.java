@@ -0,0 +1,123 @@
+package ee.cyber.cdoc2.crypto;
+
+import ee.cyber.cdoc2.container.recipients.PBKDF2Recipient;
+import ee.cyber.cdoc2.crypto.keymaterial.decrypt.PasswordDecryptionKeyMaterial;
+
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class PasswordKeyCacheTest {
+
+    private static final char[] PASSWORD = "myPlainTextPassword".toCharArray();
+
+    @AfterEach
+    void resetDefault() {
+        PasswordKeyCache.setDefault(null);
+    }
+
+    @Test
+    void shouldDeriveKeyOnce() throws GeneralSecurityException {
+        PasswordKeyCache cache = new PasswordKeyCache(2, Duration.ofMinutes(1));
+        AtomicInteger derivations = new AtomicInteger();
+        PasswordKeyCache.KeyDerivation kdf = () -> {
+            derivations.incrementAndGet();
+            return new SecretKeySpec(new byte[] {1, 2, 3}, "PBKDF2WithHmacSHA256");
+        };
+
+        SecretKey first = cache.getOrDerive(PASSWORD, salt('a'), 1000, kdf);
+        SecretKey second = cache.getOrDerive(PASSWORD, salt('a'), 1000, kdf);
+
+        assertEquals(1, derivations.get());
+        assertArrayEquals(first.getEncoded(), second.getEncoded());
+        assertEquals("PBKDF2WithHmacSHA256", second.getAlgorithm());
+
+        // different salt, iterations or password is a cache miss
+        cache.getOrDerive(PASSWORD, salt('b'), 1000, kdf);
+        cache.getOrDerive(PASSWORD, salt('a'), 1001, kdf);
+        cache.getOrDerive("other".toCharArray(), salt('a'), 1000, kdf);
+        assertEquals(4, derivations.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void shouldExpireCachedKeys() throws GeneralSecurityException {
+        AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+        PasswordKeyCache cache = new PasswordKeyCache(2, Duration.ofSeconds(10), clock);
+
+        AtomicInteger derivations = new AtomicInteger();
+        PasswordKeyCache.KeyDerivation kdf = () ->
+            new SecretKeySpec(new byte[] {(byte) derivations.incrementAndGet()}, "PBKDF2WithHmacSHA256");
+
+        cache.getOrDerive(PASSWORD, salt('a'), 1000, kdf);
+        now.set(now.get().plusSeconds(10));
+        SecretKey key = cache.getOrDerive(PASSWORD, salt('a'), 1000, kdf);
+
+        assertEquals(2, derivations.get());
+        assertArrayEquals(new byte[] {2}, key.getEncoded());
+    }
+
+    @Test
+    void shouldRejectInvalidOptions() {
+        assertThrows(IllegalArgumentException.class, () -> new PasswordKeyCache(0, Duration.ofMinutes(1)));
+        assertThrows(IllegalArgumentException.class, () -> new PasswordKeyCache(1, Duration.ZERO));
+    }
+
+    @Test
+    void shouldUseDefaultCacheForPasswordKek() throws GeneralSecurityException {
+        PasswordKeyCache cache = new PasswordKeyCache(4, Duration.ofMinutes(1));
+        PasswordKeyCache.setDefault(cache);
+
+        PBKDF2Recipient recipient = new PBKDF2Recipient(
+            salt('e'), new byte[Crypto.FMK_LEN_BYTES], "label", salt('p')
+        );
+        PasswordDecryptionKeyMaterial keyMaterial = new PasswordDecryptionKeyMaterial(PASSWORD, "label");
+
+        byte[] kek = KekTools.deriveKekForPasswordDerivedKey(recipient, keyMaterial);
+        assertEquals(1, cache.size());
+
+        byte[] cachedKek = KekTools.deriveKekForPasswordDerivedKey(recipient, keyMaterial);
+        assertArrayEquals(kek, cachedKek);
+
+        PasswordKeyCache.setDefault(null);
+        assertArrayEquals(kek, KekTools.deriveKekForPasswordDerivedKey(recipient, keyMaterial));
+        assertEquals(0, cache.size());
+    }
+
+    private static byte[] salt(char c) {
+        byte[] salt = new byte[Crypto.MIN_SALT_LENGTH];
+        salt[0] = (byte) c;
+        return salt;
+    }
+}
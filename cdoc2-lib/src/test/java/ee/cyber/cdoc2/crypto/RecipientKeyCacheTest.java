@@ -0,0 +1,90 @@
+package ee.cyber.cdoc2.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class RecipientKeyCacheTest {
+
+    @Test
+    void shouldCacheValidatedEcKey() throws GeneralSecurityException {
+        RecipientKeyCache cache = new RecipientKeyCache(2);
+        ECPublicKey publicKey = (ECPublicKey) ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1).getPublic();
+
+        RecipientKeyCache.EcKey ecKey = cache.getEcKey(publicKey);
+        assertTrue(ecKey.isValid());
+        assertEquals(EllipticCurve.SECP384R1, ecKey.getCurve());
+        assertArrayEquals(ECKeys.encodeEcPubKeyForTls(publicKey), ecKey.getTlsEncoded());
+
+        // modifying returned encoding doesn't change cached encoding
+        ecKey.getTlsEncoded()[0] = 0;
+        assertSame(ecKey, cache.getEcKey(publicKey));
+        assertArrayEquals(ECKeys.encodeEcPubKeyForTls(publicKey), cache.getEcKey(publicKey).getTlsEncoded());
+    }
+
+    @Test
+    void shouldValidateEcKeyOnlyWhenRequested() throws GeneralSecurityException {
+        RecipientKeyCache cache = new RecipientKeyCache(2);
+        ECPublicKey publicKey = (ECPublicKey) ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1).getPublic();
+
+        RecipientKeyCache.EcKey unvalidated = cache.getEcKey(publicKey, false);
+        assertFalse(unvalidated.isValidated());
+        assertFalse(unvalidated.isValid());
+        assertEquals(EllipticCurve.SECP384R1, unvalidated.getCurve());
+        assertSame(unvalidated, cache.getEcKey(publicKey, false));
+
+        // validation replaces unvalidated key
+        RecipientKeyCache.EcKey validated = cache.getEcKey(publicKey, true);
+        assertTrue(validated.isValidated());
+        assertTrue(validated.isValid());
+        assertSame(validated, cache.getEcKey(publicKey, false));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void shouldNotCacheKeyWithoutEncoding() throws GeneralSecurityException {
+        RecipientKeyCache cache = new RecipientKeyCache(2);
+        ECPublicKey infinityKey = ECKeysTest.getInfinityPublicKey();
+
+        RecipientKeyCache.EcKey ecKey = cache.getEcKey(infinityKey);
+        assertFalse(ecKey.isValid());
+        assertNull(ecKey.getTlsEncoded());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedKey() throws GeneralSecurityException {
+        RecipientKeyCache cache = new RecipientKeyCache(2);
+        ECPublicKey first = (ECPublicKey) ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1).getPublic();
+        ECPublicKey second = (ECPublicKey) ECKeys.generateEcKeyPair(ECKeys.SECP_384_R_1).getPublic();
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        RSAPublicKey rsaKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+
+        RecipientKeyCache.EcKey cachedFirst = cache.getEcKey(first);
+        cache.getEcKey(second);
+        cache.getEcKey(first);
+        assertArrayEquals(RsaUtils.encodeRsaPubKey(rsaKey), cache.getRsaEncoded(rsaKey));
+
+        assertEquals(2, cache.size());
+        assertSame(cachedFirst, cache.getEcKey(first));
+    }
+
+    @Test
+    void shouldRejectInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new RecipientKeyCache(0));
+    }
+}
@@ -0,0 +1,161 @@
+package ee.cyber.cdoc2.crypto;
+
+import ee.cyber.cdoc2.container.Envelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static ee.cyber.cdoc2.crypto.SegmentedChaChaCipher.MIN_SEGMENT_SIZE;
+import static ee.cyber.cdoc2.crypto.SegmentedChaChaCipher.TAG_LEN_BYTES;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class SegmentedChaChaCipherTest {
+
+    private static final int SEGMENT_SIZE = MIN_SEGMENT_SIZE;
+    private static final int ENC_SEGMENT_SIZE = SEGMENT_SIZE + TAG_LEN_BYTES;
+
+    private static ExecutorService executor;
+
+    private final SecretKey cek = Crypto.deriveContentEncryptionKey(Crypto.generateFileMasterKey());
+    private final byte[] aad = Envelope.getAdditionalData(
+        "header".getBytes(StandardCharsets.UTF_8), new byte[0]);
+
+    SegmentedChaChaCipherTest() throws Exception {
+    }
+
+    @BeforeAll
+    static void initExecutor() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterAll
+    static void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 3 * SEGMENT_SIZE,
+        3 * SEGMENT_SIZE + 1, 10 * SEGMENT_SIZE + 123})
+    void testEncryptDecrypt(int payloadLen) throws Exception {
+        byte[] payload = randomBytes(payloadLen);
+
+        byte[] encrypted = encrypt(payload);
+        int segments = Math.max(1, (payloadLen + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        assertEquals(ChaChaCipher.NONCE_LEN_BYTES + payloadLen + segments * TAG_LEN_BYTES, encrypted.length);
+
+        assertArrayEquals(payload, decrypt(encrypted));
+    }
+
+    @Test
+    void testEncryptDecryptWithSmallWrites() throws Exception {
+        byte[] payload = randomBytes(5 * SEGMENT_SIZE + 7);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = SegmentedChaChaCipher.initOutputStream(bos, cek, aad, SEGMENT_SIZE, executor)) {
+            for (byte b : payload) {
+                os.write(b);
+            }
+        }
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        try (InputStream is = SegmentedChaChaCipher.initInputStream(new ByteArrayInputStream(bos.toByteArray()),
+            cek, aad, SEGMENT_SIZE, ForkJoinPool.commonPool())) {
+            int b;
+            while ((b = is.read()) != -1) {
+                decrypted.write(b);
+            }
+        }
+        assertArrayEquals(payload, decrypted.toByteArray());
+    }
+
+    @Test
+    void testTamperedSegmentFails() throws Exception {
+        byte[] encrypted = encrypt(randomBytes(4 * SEGMENT_SIZE));
+        encrypted[ChaChaCipher.NONCE_LEN_BYTES + ENC_SEGMENT_SIZE + 10] ^= 0x01; // second segment
+
+        IOException ex = assertThrows(IOException.class, () -> decrypt(encrypted));
+        assertInstanceOf(AEADBadTagException.class, ex.getCause());
+    }
+
+    @Test
+    void testTruncatedAtSegmentBoundaryFails() throws Exception {
+        byte[] encrypted = encrypt(randomBytes(4 * SEGMENT_SIZE));
+        byte[] truncated = Arrays.copyOf(encrypted, ChaChaCipher.NONCE_LEN_BYTES + 2 * ENC_SEGMENT_SIZE);
+
+        IOException ex = assertThrows(IOException.class, () -> decrypt(truncated));
+        assertInstanceOf(AEADBadTagException.class, ex.getCause());
+    }
+
+    @Test
+    void testReorderedSegmentsFail() throws Exception {
+        byte[] encrypted = encrypt(randomBytes(4 * SEGMENT_SIZE));
+        int first = ChaChaCipher.NONCE_LEN_BYTES;
+        int second = first + ENC_SEGMENT_SIZE;
+        byte[] firstSegment = Arrays.copyOfRange(encrypted, first, second);
+        System.arraycopy(encrypted, second, encrypted, first, ENC_SEGMENT_SIZE);
+        System.arraycopy(firstSegment, 0, encrypted, second, ENC_SEGMENT_SIZE);
+
+        IOException ex = assertThrows(IOException.class, () -> decrypt(encrypted));
+        assertInstanceOf(AEADBadTagException.class, ex.getCause());
+    }
+
+    @Test
+    void testTruncatedTagFails() throws Exception {
+        byte[] encrypted = encrypt(randomBytes(SEGMENT_SIZE + 5));
+        byte[] truncated = Arrays.copyOf(encrypted, ChaChaCipher.NONCE_LEN_BYTES + ENC_SEGMENT_SIZE + 3);
+
+        assertThrows(IOException.class, () -> decrypt(truncated));
+    }
+
+    @Test
+    void testInvalidSegmentSize() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        assertThrows(IllegalArgumentException.class,
+            () -> SegmentedChaChaCipher.initOutputStream(bos, cek, aad, MIN_SEGMENT_SIZE - 1, executor));
+        assertThrows(IllegalArgumentException.class,
+            () -> SegmentedChaChaCipher.initOutputStream(bos, cek, aad,
+                SegmentedChaChaCipher.MAX_SEGMENT_SIZE + 1, executor));
+    }
+
+    private byte[] encrypt(byte[] payload) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = SegmentedChaChaCipher.initOutputStream(bos, cek, aad, SEGMENT_SIZE, executor)) {
+            os.write(payload);
+        }
+        return bos.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws IOException {
+        try (InputStream is = SegmentedChaChaCipher.initInputStream(new ByteArrayInputStream(encrypted),
+            cek, aad, SEGMENT_SIZE, executor)) {
+            return is.readAllBytes();
+        }
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+}